@@ -0,0 +1,265 @@
+/*
+ * File: ForwardingGLGenerator.java
+ * CMSC 405
+ * Description: Writes ForwardingGL.java from the GL4bc interface of the JOGL
+ *  on the classpath.  A GL cannot be a java.lang.reflect.Proxy: the proxy
+ *  class for GL2's 2,500 methods is too large to generate, so a GL that
+ *  counts or drops calls extends this generated class instead.  The Maven
+ *  build compiles this file and runs it in generate-sources, so the output
+ *  always matches the JOGL being built against.
+ *
+ *  java ForwardingGLGenerator target/generated-sources/gl/ForwardingGL.java
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.GL4bc;
+import com.jogamp.opengl.JoglVersion;
+
+public final class ForwardingGLGenerator {
+
+    private ForwardingGLGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java ForwardingGLGenerator OUT");
+            return;
+        }
+        List<Method> methods = methods();
+        File file = new File(args[0]);
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        try {
+            write(out, methods);
+        }
+        finally {
+            out.close();
+        }
+        System.out.println(methods.size() + " methods written to " + args[0]);
+    }
+
+    /**
+     * GL4bc's methods, one per name and parameter list, in name order.  An
+     * interface can inherit a method from two others with different return
+     * types; the most specific one is kept.
+     */
+    static List<Method> methods() {
+        Map<String,Method> bySignature = new LinkedHashMap<String,Method>();
+        for (Method m : GL4bc.class.getMethods()) {
+            String signature = signature(m);
+            Method other = bySignature.get(signature);
+            if (other == null || other.getReturnType().isAssignableFrom(m.getReturnType()))
+                bySignature.put(signature, m);
+        }
+        List<Method> methods = new ArrayList<Method>(bySignature.values());
+        methods.sort(Comparator.comparing(ForwardingGLGenerator::signature));
+        return methods;
+    }
+
+    /** Name and parameter types, like "glBufferData(int,long,java.nio.Buffer,int)". */
+    static String signature(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        Class<?>[] types = m.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(types[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+
+    private static void write(PrintWriter out, List<Method> methods) {
+        List<Method> calls = new ArrayList<Method>();
+        for (Method m : methods) {
+            if (m.getName().startsWith("gl"))
+                calls.add(m);
+        }
+        String jogl = JoglVersion.getInstance().getImplementationVersion();
+        out.println("/*");
+        out.println(" * File: ForwardingGL.java");
+        out.println(" * CMSC 405");
+        out.println(" * Description: A GL4bc, and so a GL2, that forwards every call to another");
+        out.println(" *  GL, or does nothing and returns 0, false or null if there is none.");
+        out.println(" *  Subclasses override the calls they handle themselves.  Before a gl call is");
+        out.println(" *  forwarded, called() gets its number (see getMethod()), and if that");
+        out.println(" *  returns true, logged() gets its arguments as well.  getGL(), getGL2() and");
+        out.println(" *  the other desktop getGLxx() return this object, so code that asks the");
+        out.println(" *  drawable's GL for a profile keeps going through it.");
+        out.println(" *      Generated by ForwardingGLGenerator from JOGL " + jogl + "; do not edit.");
+        out.println(" */");
+        out.println();
+        out.println("import java.lang.reflect.Method;");
+        out.println();
+        out.println("import com.jogamp.opengl.*;");
+        out.println();
+        out.println("public class ForwardingGL implements GL4bc {");
+        out.println();
+        out.println("    // the gl calls by number");
+        out.println("    private static final String[] SIGNATURES = {");
+        for (Method m : calls)
+            out.println("        \"" + signature(m) + "\",");
+        out.println("    };");
+        out.println("    private static final Method[] METHODS = new Method[SIGNATURES.length];");
+        out.println();
+        out.println("    private final GL4bc downstream;");
+        out.println();
+        out.println("    /**");
+        out.println("     * Forwards every call to downstream, or to nothing if it is null.");
+        out.println("     * @throws IllegalArgumentException if downstream is not a GL4bc; every");
+        out.println("     *   desktop GL that JOGL makes is one, whatever its profile.");
+        out.println("     */");
+        out.println("    public ForwardingGL(GL downstream) {");
+        out.println("        if (downstream != null && !(downstream instanceof GL4bc))");
+        out.println("            throw new IllegalArgumentException(\"Cannot forward to \" + downstream);");
+        out.println("        this.downstream = (GL4bc)downstream;");
+        out.println("    }");
+        out.println();
+        out.println("    /** The number of gl calls. */");
+        out.println("    public static int getMethodCount() {");
+        out.println("        return SIGNATURES.length;");
+        out.println("    }");
+        out.println();
+        out.println("    /** The name of a gl call. */");
+        out.println("    public static String getMethodName(int method) {");
+        out.println("        String signature = SIGNATURES[method];");
+        out.println("        return signature.substring(0, signature.indexOf('('));");
+        out.println("    }");
+        out.println();
+        out.println("    /**");
+        out.println("     * The GL4bc method of a gl call, looked up the first time it is asked for.");
+        out.println("     */");
+        out.println("    public static Method getMethod(int method) {");
+        out.println("        Method m = METHODS[method];");
+        out.println("        if (m != null)");
+        out.println("            return m;");
+        out.println("        String signature = SIGNATURES[method];");
+        out.println("        String[] names = signature.substring(signature.indexOf('(') + 1, signature.length() - 1).split(\",\");");
+        out.println("        Class<?>[] types = new Class<?>[signature.endsWith(\"()\") ? 0 : names.length];");
+        out.println("        try {");
+        out.println("            for (int i = 0; i < types.length; i++)");
+        out.println("                types[i] = type(names[i]);");
+        out.println("            m = GL4bc.class.getMethod(getMethodName(method), types);");
+        out.println("        }");
+        out.println("        catch (ReflectiveOperationException e) {");
+        out.println("            throw new IllegalStateException(\"ForwardingGL does not match this JOGL\", e);");
+        out.println("        }");
+        out.println("        METHODS[method] = m;");
+        out.println("        return m;");
+        out.println("    }");
+        out.println();
+        out.println("    private static Class<?> type(String name) throws ClassNotFoundException {");
+        out.println("        switch (name) {");
+        for (Class<?> primitive : new Class<?>[] { int.class, long.class, short.class, byte.class,
+                boolean.class, char.class, float.class, double.class })
+            out.println("        case \"" + primitive + "\": return " + primitive + ".class;");
+        out.println("        default: return Class.forName(name);");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+        out.println("    /**");
+        out.println("     * Called with the number of every gl call before it is forwarded.");
+        out.println("     * @return true to have the call passed to logged() too");
+        out.println("     */");
+        out.println("    protected boolean called(int method) {");
+        out.println("        return false;");
+        out.println("    }");
+        out.println();
+        out.println("    /** Gets the arguments of the calls that called() asked for. */");
+        out.println("    protected void logged(int method, Object... args) {");
+        out.println("    }");
+        int id = 0;
+        for (Method m : methods) {
+            out.println();
+            writeMethod(out, m, m.getName().startsWith("gl") ? id++ : -1);
+        }
+        out.println("}");
+    }
+
+    private static void writeMethod(PrintWriter out, Method m, int id) {
+        Class<?>[] types = m.getParameterTypes();
+        StringBuilder params = new StringBuilder(), args = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                params.append(", ");
+                args.append(", ");
+            }
+            params.append(typeName(types[i])).append(" arg").append(i);
+            args.append("arg").append(i);
+        }
+        Class<?> result = m.getReturnType();
+        String name = m.getName();
+        out.print("    public " + typeName(result) + " " + name + "(" + params + ")");
+        Class<?>[] thrown = m.getExceptionTypes();
+        for (int i = 0; i < thrown.length; i++)
+            out.print((i == 0 ? " throws " : ", ") + typeName(thrown[i]));
+        out.println(" {");
+        String call = "downstream." + name + "(" + args + ")";
+        if (name.equals("getGL")) {
+            out.println("        return this;");
+        }
+        else if (name.startsWith("getGL") && types.length == 0 && result.isAssignableFrom(GL4bc.class)) {
+            String profile = name.substring("get".length());
+            out.println("        if (!is" + profile + "())");
+            out.println("            throw new GLException(\"Not a " + profile + " implementation\");");
+            out.println("        return this;");
+        }
+        else if (name.equals("getDownstreamGL")) {
+            out.println("        return downstream;");
+        }
+        else if (name.equals("getRootGL")) {
+            out.println("        return downstream == null ? this : downstream.getRootGL();");
+        }
+        else {
+            if (id >= 0) {
+                out.println("        if (called(" + id + "))");
+                out.println("            logged(" + id + (types.length == 0 ? "" : ", " + args) + ");");
+            }
+            if (result == void.class) {
+                out.println("        if (downstream != null)");
+                out.println("            " + call + ";");
+            }
+            else if (result == boolean.class) {
+                out.println("        return downstream != null && " + call + ";");
+            }
+            else {
+                out.println("        return downstream == null ? " + defaultValue(result) + " : " + call + ";");
+            }
+        }
+        out.println("    }");
+    }
+
+    private static String typeName(Class<?> type) {
+        if (type.isArray())
+            return typeName(type.getComponentType()) + "[]";
+        String name = type.getName().replace('$', '.');
+        for (String imported : new String[] { "java.lang.", "com.jogamp.opengl." }) {
+            if (name.startsWith(imported) && name.indexOf('.', imported.length()) < 0)
+                return name.substring(imported.length());
+        }
+        return name;
+    }
+
+    private static String defaultValue(Class<?> type) {
+        if (!type.isPrimitive())
+            return "null";
+        if (type == long.class)
+            return "0L";
+        if (type == float.class)
+            return "0f";
+        if (type == double.class)
+            return "0.0";
+        if (type == int.class)
+            return "0";
+        return "(" + type + ")0";
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * File: CameraBenchmark.java
+ * CMSC 405
+ * Description: The camera benchmarks of Benchmarks under JMH: loading an
+ *  unchanged or moving camera, rebuilding its matrices, the trackball
+ *  rotation and mapping a mouse point to a ray, and one call to NoOpGL.
+ *  Run with -prof gc, the matrices, rotation and ray should allocate nothing.
+ */
+
+package cmsc405.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraBenchmark {
+
+    @Param({ "camera.apply", "camera.matrices", "camera.applyMoving",
+             "camera.applyTransvection", "camera.mousePointToRay", "gl.noOpCall" })
+    public String name;
+
+    private DoubleSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Operations.get(name);
+    }
+
+    @Benchmark
+    public double run() {
+        return op.getAsDouble();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * File: DisplayBenchmark.java
+ * CMSC 405
+ * Description: A whole display() of the scene submitted to NoOpGL under JMH,
+ *  with and without --glow's 405 lights.
+ */
+
+package cmsc405.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisplayBenchmark {
+
+    @Param({ "display", "display.glow" })
+    public String name;
+
+    private DoubleSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Operations.get(name);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Operations.close(op);
+    }
+
+    @Benchmark
+    public double run() {
+        return op.getAsDouble();
+    }
+}
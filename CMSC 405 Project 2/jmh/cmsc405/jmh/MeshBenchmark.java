@@ -0,0 +1,38 @@
+/*
+ * File: MeshBenchmark.java
+ * CMSC 405
+ * Description: The mesh benchmarks of Benchmarks under JMH: a hue to RGB
+ *  conversion and tessellating a disc, a cylinder and two spheres.
+ */
+
+package cmsc405.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+
+    @Param({ "mesh.hueColor", "mesh.disc(64)", "mesh.cylinder(64)",
+             "mesh.sphere(2,24,12)", "mesh.hueSphere(2,24,12)" })
+    public String name;
+
+    private DoubleSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Operations.get(name);
+    }
+
+    @Benchmark
+    public double run() {
+        return op.getAsDouble();
+    }
+}
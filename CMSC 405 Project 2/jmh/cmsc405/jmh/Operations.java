@@ -0,0 +1,38 @@
+/*
+ * File: Operations.java
+ * CMSC 405
+ * Description: Gets the benchmark operations that Benchmarks.operation()
+ *  makes.  Benchmarks is in the default package, which JMH benchmarks cannot
+ *  be in and a named package cannot import, so it is looked up by name, once
+ *  per trial; each operation is then an ordinary DoubleSupplier.
+ */
+
+package cmsc405.jmh;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.DoubleSupplier;
+
+final class Operations {
+
+    private Operations() {
+    }
+
+    /** Benchmarks.operation(name). */
+    static DoubleSupplier get(String name) throws ReflectiveOperationException {
+        try {
+            return (DoubleSupplier)Class.forName("Benchmarks")
+                    .getMethod("operation", String.class).invoke(null, name);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw e;
+        }
+    }
+
+    /** Closes an operation that holds on to something, as a display does. */
+    static void close(DoubleSupplier op) throws Exception {
+        if (op instanceof AutoCloseable)
+            ((AutoCloseable)op).close();
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * File: Benchmarks.java
+ * CMSC 405
+ * Description: Micro benchmarks for the camera math, the tessellation of the
+ *  scene primitives and mapping them from a baked mesh file, picking lights
+ *  for scene objects, loading a large scene file, moving herds of 10k to 1M
+ *  cows on 1 to all of the machine's cores, building and querying a bounding
+ *  volume hierarchy over 1M cows (against testing every cow), and a whole
+ *  display() submitted to a no-op GL (NoOpGL).
+ *  Each benchmark is warmed up, then run in timed batches.  It reports
+ *  throughput, time per operation, bytes allocated per operation (from the
+ *  thread's allocation counter) and the garbage collections during the run.
+ *  With --csv the results are appended to a file, so numbers can be compared
+ *  from one release to the next.  --check-zero-alloc fails the run (exit
+ *  status 1) if a camera path that must not allocate does.  The camera, mesh
+ *  and display operations come from operation(), which the JMH benchmarks in
+ *  jmh run as well (mvn -P jmh test-compile exec:exec, see pom.xml).
+ *
+ *  java Benchmarks [--time SECONDS] [--csv FILE] [--check-zero-alloc] [NAME-FILTER]
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleSupplier;
+
+import com.jogamp.opengl.*;
+
+public class Benchmarks {
+
+    /**
+     * One operation of a benchmark.  The result is folded into a sink so
+     * the JIT cannot drop the work.  As a DoubleSupplier it can be run by
+     * the JMH benchmarks in jmh, which cannot name a class in the default
+     * package.
+     */
+    interface Operation extends DoubleSupplier {
+        double run();
+
+        default double getAsDouble() {
+            return run();
+        }
+    }
+
+    /** The benchmarks that operation() makes, and so the ones JMH also runs. */
+    static final String[] CAMERA = {
+        "camera.apply", "camera.matrices", "camera.applyMoving",
+        "camera.applyTransvection", "camera.mousePointToRay", "gl.noOpCall"
+    };
+    static final String[] MESH = {
+        "mesh.hueColor", "mesh.disc(64)", "mesh.cylinder(64)",
+        "mesh.sphere(2,24,12)", "mesh.hueSphere(2,24,12)"
+    };
+    static final String[] DISPLAY = { "display", "display.glow" };
+
+    private static final long BATCH_NANOS = 10000000L;   // aim for 10ms per timed batch
+    /** Benchmarks that must allocate nothing once warmed up. */
+    private static final String[] ZERO_ALLOCATION = {
+        "camera.matrices", "camera.applyTransvection", "camera.mousePointToRay"
+    };
+    /** Bytes per operation below this count as none; the counter's own reads allocate a little. */
+    private static final double ALLOCATION_NOISE = 0.01;
+
+    private static volatile double sink;
+
+    private final String filter;
+    private final long warmupNanos, measureNanos;
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<String> rows = new ArrayList<String>();
+    private final List<String> failures = new ArrayList<String>();
+    private boolean checkZeroAllocation;
+
+    private Benchmarks(String filter, double seconds) {
+        this.filter = filter;
+        measureNanos = (long)(seconds * 1e9);
+        warmupNanos = measureNanos / 2;
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    }
+
+    public static void main(String[] args) throws IOException {
+        double seconds = 2;
+        File csv = null;
+        boolean checkZeroAllocation = false;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--time") && i + 1 < args.length)
+                seconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--csv") && i + 1 < args.length)
+                csv = new File(args[++i]);
+            else if (args[i].equals("--check-zero-alloc"))
+                checkZeroAllocation = true;
+            else if (args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            else
+                filter = args[i];
+        }
+        Benchmarks b = new Benchmarks(filter, seconds);
+        b.checkZeroAllocation = checkZeroAllocation;
+        System.out.printf("%-28s %14s %12s %12s %8s %8s%n", "benchmark", "ops/s", "ns/op", "B/op", "gc", "gc ms");
+        b.cameraBenchmarks();
+        b.meshBenchmarks();
+        b.lightBenchmarks();
+        b.sceneBenchmarks();
+        b.herdBenchmarks();
+        b.bvhBenchmarks();
+        b.displayBenchmarks();
+        if (csv != null)
+            b.appendCsv(csv);
+        if (!b.failures.isEmpty()) {
+            for (String failure : b.failures)
+                System.err.println("FAILED: " + failure);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes the operation of one of the CAMERA, MESH or DISPLAY benchmarks,
+     * on a NoOpGL with a 600x600 viewport.  A display operation is a
+     * Display, to be closed when it is done with.
+     * @throws IllegalArgumentException if there is no such benchmark
+     */
+    public static Operation operation(String name) {
+        if (name.startsWith("display"))
+            return new Display(name.equals("display.glow"));
+        if (name.startsWith("mesh."))
+            return meshOperation(name);
+        final GL2 gl = NoOpGL.create(600, 600);
+        final Camera camera = new Camera();
+        camera.lookAt(12,10,35, -3.4,2,3.4, -.2,3,-.2);
+        camera.setScale(28);
+        camera.setViewport(600, 600);
+        if (name.equals("camera.apply")) {
+            //an unchanged camera loads nothing
+            return new Operation() {
+                public double run() {
+                    camera.apply(gl);
+                    return camera.getProjectionScale();
+                }
+            };
+        }
+        if (name.equals("camera.matrices")) {
+            //a moving camera rebuilds both matrices every time;
+            //camera.applyMoving also loads them
+            return new Operation() {
+                int i;
+                public double run() {
+                    camera.lookAt(12,10,35, -3.4,2,(++i & 1), -.2,3,-.2);
+                    camera.updateMatrices();
+                    return camera.getView().m[12];
+                }
+            };
+        }
+        if (name.equals("camera.applyMoving")) {
+            return new Operation() {
+                int i;
+                public double run() {
+                    camera.lookAt(12,10,35, -3.4,2,(++i & 1), -.2,3,-.2);
+                    camera.apply(gl);
+                    return camera.getProjectionScale();
+                }
+            };
+        }
+        if (name.equals("camera.applyTransvection")) {
+            final Vec3 from = camera.mousePointToRay(300, 300, 600, 600, new Vec3());
+            final Vec3 to = camera.mousePointToRay(303, 298, 600, 600, new Vec3());
+            final double[] params = new double[9];
+            return new Operation() {
+                public double run() {
+                    camera.applyTransvection(from, to);
+                    return camera.getViewParameters(params)[0];
+                }
+            };
+        }
+        if (name.equals("camera.mousePointToRay")) {
+            final Vec3 ray = new Vec3();
+            return new Operation() {
+                int x;
+                public double run() {
+                    x = (x + 7) % 600;
+                    return camera.mousePointToRay(x, 250, 600, 600, ray).z;
+                }
+            };
+        }
+        if (name.equals("gl.noOpCall")) {
+            return new Operation() {
+                public double run() {
+                    gl.glColor3f(1, 1, 1);
+                    return 0;
+                }
+            };
+        }
+        throw new IllegalArgumentException("No benchmark named " + name);
+    }
+
+    private static Operation meshOperation(String name) {
+        if (name.equals("mesh.hueColor")) {
+            final float[] rgb = new float[3];
+            return new Operation() {
+                int i;
+                public double run() {
+                    Mesh.hueColor(++i * 0.01, rgb);
+                    return rgb[0];
+                }
+            };
+        }
+        if (name.equals("mesh.disc(64)")) {
+            return new Operation() {
+                public double run() {
+                    return Mesh.disc(64, 1, 1, 1).getRadius();
+                }
+            };
+        }
+        if (name.equals("mesh.cylinder(64)")) {
+            return new Operation() {
+                public double run() {
+                    return Mesh.cylinder(64).getRadius();
+                }
+            };
+        }
+        if (name.equals("mesh.sphere(2,24,12)")) {
+            return new Operation() {
+                public double run() {
+                    return Mesh.sphere(2, 24, 12, 0.5f, 0.35f, 0.05f).getRadius();
+                }
+            };
+        }
+        if (name.equals("mesh.hueSphere(2,24,12)")) {
+            return new Operation() {
+                public double run() {
+                    return Mesh.hueSphere(2, 24, 12, 1, 0, 1, 1).getRadius();
+                }
+            };
+        }
+        throw new IllegalArgumentException("No benchmark named " + name);
+    }
+
+    /**
+     * A whole display() of the scene, on a NoOpGL, going round the first 400
+     * frames of the animation.  close() disposes of the scene.
+     */
+    static class Display implements Operation, AutoCloseable {
+        private final GLAutoDrawable drawable = NoOpGL.drawable(NoOpGL.create(600, 600), 600, 600);
+        private final GlorbaksCows scene;
+        private int frame;
+
+        Display(boolean glow) {
+            Options options = new Options();
+            options.window = false;
+            options.glow = glow;
+            scene = new GlorbaksCows(options);
+            scene.init(drawable);
+            scene.reshape(drawable, 0, 0, 600, 600);
+        }
+
+        public double run() {
+            scene.seekFrame(frame);
+            frame = (frame + 1) % 400;
+            scene.display(drawable);
+            return frame;
+        }
+
+        public void close() {
+            scene.dispose(drawable);
+        }
+    }
+
+    private void cameraBenchmarks() {
+        for (String name : CAMERA)
+            run(name, operation(name));
+    }
+
+    private void meshBenchmarks() throws IOException {
+        for (String name : MESH)
+            run(name, operation(name));
+        //what startup spends on meshes: tessellating them all, or mapping
+        //a file that has them baked
+        run("meshes.tessellate", new Operation() {
+            public double run() {
+                return new MeshCache().size();
+            }
+        });
+        if (matches("meshes.map")) {
+            final File baked = File.createTempFile("meshes", ".gcm");
+            baked.deleteOnExit();
+            new MeshCache().save(baked);
+            run("meshes.map", new Operation() {
+                public double run() {
+                    return new MeshCache(baked).size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Ranks 405 lights, as many as --glow makes, for a few objects (on one
+     * thread) and for many (in parallel).
+     */
+    private void lightBenchmarks() {
+        for (final int objects : new int[] { 40, 2000 }) {
+            if (!matches("lights.select(" + objects + ")"))
+                continue;
+            final LightManager lights = new LightManager();
+            Random rand = new Random(405);
+            for (int i = 0; i < 405; i++) {
+                int light = lights.addLight();
+                lights.setPosition(light, rand.nextFloat() * 400 - 200, rand.nextFloat() * 40, rand.nextFloat() * 400 - 200, 1);
+                lights.setDiffuse(light, 0.3f, 0.3f, 0.3f);
+                lights.setAttenuation(light, 1, 0, 0.05f);
+            }
+            float[] identity = { 1,0,0,0, 0,1,0,0, 0,0,1,0, 0,0,0,1 };
+            for (int i = 0; i < objects; i++) {
+                MeshNode node = new MeshNode().setBounds(rand.nextFloat() * 120 - 60, 0, rand.nextFloat() * 120 - 60, 2);
+                node.update(identity, true);
+                lights.register(node);
+            }
+            run("lights.select(" + objects + ")", new Operation() {
+                public double run() {
+                    lights.selectAll();
+                    return lights.getObjectCount();
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads a pasture of a million herd cows from a binary and a text scene
+     * file, each time into the same SceneFile.
+     */
+    private void sceneBenchmarks() throws IOException {
+        if (!matches("scene.read"))
+            return;
+        SceneFile pasture = new SceneFile();
+        Random rand = new Random(405);
+        for (int i = 0; i < 1000000; i++) {
+            pasture.add(rand.nextBoolean() ? "herd-cow" : "mirrored-herd-cow",
+                    rand.nextInt(11500) / 100f - 60, 0, rand.nextInt(11000) / 100f - 50,
+                    rand.nextInt(360), 0, 0.3f + rand.nextInt(90) / 100f);
+        }
+        final SceneFile loaded = new SceneFile();
+        for (String suffix : new String[] { ".bscene", SceneFile.TEXT_SUFFIX }) {
+            final File file = File.createTempFile("pasture", suffix);
+            file.deleteOnExit();
+            pasture.save(file);
+            String name = suffix.equals(SceneFile.TEXT_SUFFIX) ? "text" : "binary";
+            run("scene.read." + name + "(1M)", new Operation() {
+                public double run() {
+                    try {
+                        loaded.read(file);
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return loaded.getCount();
+                }
+            });
+            file.delete();
+        }
+    }
+
+    /**
+     * One simulation step and the rewriting of the instance data, for herds
+     * of 10k, 100k and 1M cows, on pools of 1, 2, 4... threads up to the
+     * number of cores, with the speedup over one thread.
+     */
+    private void herdBenchmarks() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int t = 1; t < cores; t *= 2)
+            threadCounts.add(t);
+        threadCounts.add(cores);
+        for (int cows : new int[] { 10000, 100000, 1000000 }) {
+            String size = cows >= 1000000 ? cows / 1000000 + "M" : cows / 1000 + "k";
+            if (!matches("herd.step(" + size))
+                continue;
+            final Herd herd = new Herd();
+            herd.setPasture(-60, -50, 55, 60);
+            Random rand = new Random(405);
+            for (int i = 0; i < cows; i++) {
+                herd.addCow(rand.nextDouble()*115 - 60, 0, rand.nextDouble()*110 - 50,
+                        0.3 + rand.nextDouble()*0.9, rand.nextDouble()*360, rand.nextBoolean());
+            }
+            StringBuilder speedups = new StringBuilder();
+            double single = 0;
+            for (int threads : threadCounts) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                herd.setPool(pool);
+                double nanos = run("herd.step(" + size + "," + threads + "t)", new Operation() {
+                    public double run() {
+                        herd.step(0.03);
+                        herd.interpolate(1);
+                        herd.prepare(null, null);
+                        return herd.size();
+                    }
+                });
+                pool.shutdown();
+                if (threads == 1)
+                    single = nanos;
+                speedups.append(String.format(Locale.ROOT, " %dt %.2fx", threads, single / nanos));
+            }
+            System.out.println("herd.step(" + size + ") speedup:" + speedups);
+        }
+    }
+
+    /**
+     * Building, refitting and querying a BoundingVolumeHierarchy over 1M
+     * cows' spheres, each query next to the same search over every cow.
+     */
+    private void bvhBenchmarks() {
+        if (!matches("bvh"))
+            return;
+        final int cows = 1000000;
+        final float[] spheres = new float[cows * 4];
+        final BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy();
+        tree.setCount(cows);
+        Random rand = new Random(405);
+        for (int i = 0; i < cows; i++) {
+            spheres[i*4] = rand.nextFloat()*115 - 60;
+            spheres[i*4 + 1] = 0;
+            spheres[i*4 + 2] = rand.nextFloat()*110 - 50;
+            spheres[i*4 + 3] = 0.3f + rand.nextFloat()*0.9f;
+            tree.setSphere(i, spheres[i*4], spheres[i*4 + 1], spheres[i*4 + 2], spheres[i*4 + 3]);
+        }
+        run("bvh.build(1M)", new Operation() {
+            public double run() {
+                tree.build();
+                return tree.getNodeCount();
+            }
+        });
+        run("bvh.refit(1M)", new Operation() {
+            public double run() {
+                tree.refit();
+                return tree.getNodeCount();
+            }
+        });
+
+        //the view of the original camera
+        Camera camera = new Camera();
+        camera.lookAt(12,10,35, -3.4,2,3.4, -.2,3,-.2);
+        camera.setScale(28);
+        camera.setViewport(600, 600);
+        camera.updateMatrices();
+        final Frustum frustum = camera.getFrustum();
+        final int[] out = new int[cows];
+        run("bvh.frustum(1M)", new Operation() {
+            public double run() {
+                return tree.queryFrustum(frustum, out);
+            }
+        });
+        run("bvh.frustum(1M,scan)", new Operation() {
+            public double run() {
+                int found = 0;
+                for (int i = 0; i < cows; i++) {
+                    if (frustum.cull(spheres[i*4], spheres[i*4 + 1], spheres[i*4 + 2], spheres[i*4 + 3],
+                            Frustum.ALL_PLANES) != Frustum.OUTSIDE)
+                        out[found++] = i;
+                }
+                return found;
+            }
+        });
+        //the cows within 6 of a point, as under the ufo
+        run("bvh.sphere(1M)", new Operation() {
+            int i;
+            public double run() {
+                i = (i + 1) & 63;
+                return tree.querySphere(i - 32, 0, 5, 6, out);
+            }
+        });
+        run("bvh.sphere(1M,scan)", new Operation() {
+            int i;
+            public double run() {
+                i = (i + 1) & 63;
+                float x = i - 32, z = 5, radius = 6;
+                int found = 0;
+                for (int k = 0; k < cows; k++) {
+                    float dx = spheres[k*4] - x, dz = spheres[k*4 + 2] - z;
+                    float reach = radius + spheres[k*4 + 3];
+                    if (dx*dx + dz*dz <= reach * reach)
+                        out[found++] = k;
+                }
+                return found;
+            }
+        });
+        //the first cow along a ray across the pasture, as a mouse pick would be
+        run("bvh.ray(1M)", new Operation() {
+            int i;
+            public double run() {
+                i = (i + 1) & 63;
+                return tree.queryRay(12, 10, 35, -0.3f + i * 0.01f, -0.4f, -1, Float.POSITIVE_INFINITY);
+            }
+        });
+    }
+
+    private void displayBenchmarks() {
+        if (!matches("display"))
+            return;
+        //display.glow adds the ufo, planets and 400 meteors as lights, picked
+        //per object
+        for (String name : DISPLAY) {
+            Display op = (Display)operation(name);
+            try {
+                run(name, op);
+            }
+            finally {
+                op.close();
+            }
+        }
+
+        //what one frame sends to the driver, after a first frame has
+        //uploaded what is kept from frame to frame
+        Options options = new Options();
+        options.window = false;
+        options.stateFilter = true;
+        GlorbaksCows counted = new GlorbaksCows(options);
+        GLRecorder recorder = new GLRecorder();
+        GLAutoDrawable countedDrawable = NoOpGL.drawable(recorder.wrap(NoOpGL.create(600, 600)), 600, 600);
+        counted.init(countedDrawable);
+        counted.reshape(countedDrawable, 0, 0, 600, 600);
+        counted.display(countedDrawable);
+        try {
+            recorder.beginFrame();
+            counted.display(countedDrawable);
+            recorder.endFrame();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.out.println("display GL calls per frame: " + recorder.summary());
+        System.out.println("display state filter: " + counted.stateSummary());
+        System.out.println("display culling: " + counted.cullSummary());
+        System.out.println("display " + counted.streamSummary());
+        counted.dispose(countedDrawable);
+    }
+
+    private boolean matches(String name) {
+        return name.contains(filter);
+    }
+
+    /**
+     * Warms up and then times one benchmark, and prints its line.
+     * @return the nanoseconds per operation, or NaN if the filter skips it.
+     */
+    private double run(String name, Operation op) {
+        if (!matches(name))
+            return Double.NaN;
+        long batch = 1;
+        //warm up, growing the batch until one takes about BATCH_NANOS
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            runBatch(op, batch);
+            if (System.nanoTime() - start < BATCH_NANOS)
+                batch *= 2;
+        }
+        long gcCount = gcCount(), gcMillis = gcMillis();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            runBatch(op, batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < measureNanos);
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        gcCount = gcCount() - gcCount;
+        gcMillis = gcMillis() - gcMillis;
+
+        double opsPerSecond = ops / (elapsed / 1e9);
+        double nanosPerOp = (double)elapsed / ops;
+        double bytesPerOp = (double)allocated / ops;
+        System.out.printf(Locale.ROOT, "%-28s %14.1f %12.1f %12.1f %8d %8d%n",
+                name, opsPerSecond, nanosPerOp, bytesPerOp, gcCount, gcMillis);
+        rows.add(String.format(Locale.ROOT, "%s,%.1f,%.1f,%.1f,%d,%d",
+                name, opsPerSecond, nanosPerOp, bytesPerOp, gcCount, gcMillis));
+        if (checkZeroAllocation && bytesPerOp > ALLOCATION_NOISE && Arrays.asList(ZERO_ALLOCATION).contains(name))
+            failures.add(String.format(Locale.ROOT, "%s allocates %.3f bytes per operation", name, bytesPerOp));
+        return nanosPerOp;
+    }
+
+    private static void runBatch(Operation op, long count) {
+        double total = 0;
+        for (long i = 0; i < count; i++)
+            total += op.run();
+        sink += total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    /**
+     * Appends this run's results, one row per benchmark, with the time of
+     * the run and the Java version in front.
+     */
+    private void appendCsv(File file) throws IOException {
+        boolean header = !file.exists();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+        try {
+            if (header)
+                out.println("run,java,benchmark,ops_per_s,ns_per_op,bytes_per_op,gc_count,gc_ms");
+            String prefix = System.currentTimeMillis() + "," + System.getProperty("java.version") + ",";
+            for (String row : rows)
+                out.println(prefix + row);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * File: BoundingVolumeHierarchy.java
+ * CMSC 405
+ * Description: A bounding volume hierarchy over numbered bounding spheres,
+ *  for finding the ones in the view, near a point or hit by a ray without
+ *  looking at every one.  Each node holds a box around its items' spheres.
+ *  The tree is built top-down: a node's items are split at the median of
+ *  their centers along the box's longest side, until a node holds at most
+ *  LEAF_ITEMS.  Splitting at the median keeps every leaf at the same depth,
+ *  so the nodes are stored as an implicit binary heap (the children of node
+ *  i are 2i+1 and 2i+2) in primitive arrays, and the halves of a large
+ *  range are built as fork/join tasks without sharing anything.
+ *      When items move, refit() recomputes every box bottom-up, in parallel
+ *  for large trees, and refit(item) only the boxes from the item's leaf to
+ *  the root.  A refitted tree finds the same items but gets looser as they
+ *  wander, so build() again after large moves.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BoundingVolumeHierarchy {
+
+    /** Most items in a leaf. */
+    public static final int LEAF_ITEMS = 8;
+    // ranges of at least this many items are built and refitted as separate tasks
+    private static final int PARALLEL_ITEMS = 16384;
+
+    private float[] spheres = new float[0];   // x, y, z, radius of each item
+    private int count;
+
+    private int depth;                        // of the leaves; the root is at 0
+    private int nodeCount;
+    private float[] boxes = new float[0];     // min x, y, z, max x, y, z of each node
+    private int[] first = new int[0];         // each node's items are order[first, first + size)
+    private int[] size = new int[0];
+    private int[] order = new int[0];         // the items, leaf by leaf
+    private float[] centers = new float[0];   // x, y, z of order[k] while building, so splits read memory in order
+    private int[] leafOf = new int[0];        // the leaf holding each item
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int[] stack = new int[0];         // traversal stack for the queries
+    private float hitDistance;
+
+    /**
+     * Sets the pool that builds and refits large trees; the common pool by default.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the number of items, keeping the spheres of the first ones.  The
+     * tree must be built again before it is queried.
+     */
+    public void setCount(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Bad item count " + count);
+        if (spheres.length < count * 4)
+            spheres = Arrays.copyOf(spheres, Math.max(count, 2 * spheres.length / 4) * 4);
+        this.count = count;
+        nodeCount = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Sets the bounding sphere of an item.  Safe to call for different
+     * items from several threads; refit() or build() must follow before
+     * the tree is queried again.
+     */
+    public void setSphere(int item, float x, float y, float z, float radius) {
+        int at = item * 4;
+        spheres[at] = x;
+        spheres[at + 1] = y;
+        spheres[at + 2] = z;
+        spheres[at + 3] = radius;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Builds the tree over the current spheres.
+     */
+    public void build() {
+        depth = 0;
+        while (count > (long)LEAF_ITEMS << depth)
+            depth++;
+        nodeCount = (2 << depth) - 1;
+        if (first.length < nodeCount) {
+            first = new int[nodeCount];
+            size = new int[nodeCount];
+            boxes = new float[nodeCount * 6];
+        }
+        if (order.length < count) {
+            order = new int[spheres.length / 4];
+            leafOf = new int[spheres.length / 4];
+        }
+        if (centers.length < count * 3)
+            centers = new float[spheres.length / 4 * 3];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            centers[i * 3] = spheres[i * 4];
+            centers[i * 3 + 1] = spheres[i * 4 + 1];
+            centers[i * 3 + 2] = spheres[i * 4 + 2];
+        }
+        //a node and its planes for each level, plus the siblings waiting
+        if (stack.length < 4 * (depth + 2))
+            stack = new int[4 * (depth + 2)];
+        Task root = new Task(true, 0, 0, 0, count);
+        if (count >= PARALLEL_ITEMS)
+            pool.invoke(root);
+        else
+            root.compute();
+    }
+
+    /**
+     * Recomputes every box from the spheres as they are now.
+     */
+    public void refit() {
+        if (nodeCount == 0)
+            throw new IllegalStateException("The tree has not been built");
+        Task root = new Task(false, 0, 0, 0, count);
+        if (count >= PARALLEL_ITEMS)
+            pool.invoke(root);
+        else
+            root.compute();
+    }
+
+    /**
+     * Recomputes the boxes above one item that moved, stopping at the first
+     * node whose box does not change.
+     */
+    public void refit(int item) {
+        int node = leafOf[item];
+        if (!fitLeaf(node))
+            return;
+        while (node > 0) {
+            node = (node - 1) / 2;
+            if (!fitChildren(node))
+                return;
+        }
+    }
+
+    /** Builds, or refits, the subtree of one node as a fork/join task. */
+    private final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final boolean build;
+        private final int node, level, from, to;
+
+        Task(boolean build, int node, int level, int from, int to) {
+            this.build = build;
+            this.node = node;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            subtree(build, node, level, from, to, to - from >= PARALLEL_ITEMS);
+        }
+    }
+
+    private void subtree(boolean build, int node, int level, int from, int to, boolean parallel) {
+        if (level == depth) {
+            first[node] = from;
+            size[node] = to - from;
+            if (build) {
+                for (int k = from; k < to; k++)
+                    leafOf[order[k]] = node;
+            }
+            fitLeaf(node);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        if (build)
+            split(from, middle, to);
+        int left = 2 * node + 1;
+        if (parallel) {
+            RecursiveAction.invokeAll(new Task(build, left, level + 1, from, middle),
+                                      new Task(build, left + 1, level + 1, middle, to));
+        }
+        else {
+            subtree(build, left, level + 1, from, middle, false);
+            subtree(build, left + 1, level + 1, middle, to, false);
+        }
+        first[node] = from;
+        size[node] = to - from;
+        fitChildren(node);
+    }
+
+    /**
+     * Reorders order[from, to) so that the items before middle have centers
+     * no further along the longest side of their centers' box than those
+     * after it.
+     */
+    private void split(int from, int middle, int to) {
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        //compared by hand: Math.min and max on floats also handle NaN and -0, and are slower
+        for (int k = from; k < to; k++) {
+            float x = centers[k * 3], y = centers[k * 3 + 1], z = centers[k * 3 + 2];
+            if (x < minX)
+                minX = x;
+            if (x > maxX)
+                maxX = x;
+            if (y < minY)
+                minY = y;
+            if (y > maxY)
+                maxY = y;
+            if (z < minZ)
+                minZ = z;
+            if (z > maxZ)
+                maxZ = z;
+        }
+        int axis = 0;
+        if (maxY - minY > maxX - minX)
+            axis = 1;
+        if (maxZ - minZ > Math.max(maxX - minX, maxY - minY))
+            axis = 2;
+        select(from, middle, to - 1, axis);
+    }
+
+    /**
+     * Quickselect: moves the item whose center is nth along axis to
+     * order[nth], with no greater ones before it and no smaller ones after.
+     */
+    private void select(int lo, int nth, int hi, int axis) {
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            //median of three as the pivot
+            float a = key(lo, axis), b = key(mid, axis), c = key(hi, axis);
+            float pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key(i, axis) < pivot)
+                    i++;
+                while (key(j, axis) > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            if (nth <= j)
+                hi = j;
+            else if (nth >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private float key(int k, int axis) {
+        return centers[k * 3 + axis];
+    }
+
+    private void swap(int i, int j) {
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+        for (int a = 0; a < 3; a++) {
+            float c = centers[i * 3 + a];
+            centers[i * 3 + a] = centers[j * 3 + a];
+            centers[j * 3 + a] = c;
+        }
+    }
+
+    /** Fits a leaf's box to its items; returns true if the box changed. */
+    private boolean fitLeaf(int node) {
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for (int k = first[node], end = k + size[node]; k < end; k++) {
+            int at = order[k] * 4;
+            float x = spheres[at], y = spheres[at + 1], z = spheres[at + 2], r = spheres[at + 3];
+            if (x - r < minX)
+                minX = x - r;
+            if (x + r > maxX)
+                maxX = x + r;
+            if (y - r < minY)
+                minY = y - r;
+            if (y + r > maxY)
+                maxY = y + r;
+            if (z - r < minZ)
+                minZ = z - r;
+            if (z + r > maxZ)
+                maxZ = z + r;
+        }
+        return setBox(node, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /** Fits a node's box around its children's; returns true if the box changed. */
+    private boolean fitChildren(int node) {
+        int l = (2 * node + 1) * 6, r = l + 6;
+        return setBox(node, Math.min(boxes[l], boxes[r]), Math.min(boxes[l + 1], boxes[r + 1]),
+                Math.min(boxes[l + 2], boxes[r + 2]), Math.max(boxes[l + 3], boxes[r + 3]),
+                Math.max(boxes[l + 4], boxes[r + 4]), Math.max(boxes[l + 5], boxes[r + 5]));
+    }
+
+    private boolean setBox(int node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int at = node * 6;
+        boolean changed = boxes[at] != minX || boxes[at + 1] != minY || boxes[at + 2] != minZ
+                || boxes[at + 3] != maxX || boxes[at + 4] != maxY || boxes[at + 5] != maxZ;
+        boxes[at] = minX;
+        boxes[at + 1] = minY;
+        boxes[at + 2] = minZ;
+        boxes[at + 3] = maxX;
+        boxes[at + 4] = maxY;
+        boxes[at + 5] = maxZ;
+        return changed;
+    }
+
+    /**
+     * Puts the items whose spheres are not wholly outside the frustum into
+     * out, which must have room for every item, and returns how many there
+     * are.  Whole subtrees inside the frustum are taken without testing
+     * their items.
+     */
+    public int queryFrustum(Frustum frustum, int[] out) {
+        if (count == 0)
+            return 0;
+        int found = 0, top = 0;
+        int[] stack = this.stack;
+        stack[top++] = 0;
+        stack[top++] = Frustum.ALL_PLANES;
+        while (top > 0) {
+            int planes = stack[--top];
+            int node = stack[--top];
+            planes = frustum.cullBox(boxes, node * 6, planes);
+            if (planes == Frustum.OUTSIDE)
+                continue;
+            if (planes == 0) {
+                //wholly inside: every item below
+                System.arraycopy(order, first[node], out, found, size[node]);
+                found += size[node];
+            }
+            else if (2 * node + 1 >= nodeCount) {
+                for (int k = first[node], end = k + size[node]; k < end; k++) {
+                    int at = order[k] * 4;
+                    if (frustum.cull(spheres[at], spheres[at + 1], spheres[at + 2], spheres[at + 3], planes) != Frustum.OUTSIDE)
+                        out[found++] = order[k];
+                }
+            }
+            else {
+                stack[top++] = 2 * node + 2;
+                stack[top++] = planes;
+                stack[top++] = 2 * node + 1;
+                stack[top++] = planes;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts the items whose spheres overlap the sphere (x, y, z, radius)
+     * into out, which must have room for every item, and returns how many
+     * there are.
+     */
+    public int querySphere(float x, float y, float z, float radius, int[] out) {
+        if (count == 0)
+            return 0;
+        int found = 0, top = 0;
+        int[] stack = this.stack;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int at = node * 6;
+            //distance from the center to the nearest point of the box
+            float dx = Math.max(0, Math.max(boxes[at] - x, x - boxes[at + 3]));
+            float dy = Math.max(0, Math.max(boxes[at + 1] - y, y - boxes[at + 4]));
+            float dz = Math.max(0, Math.max(boxes[at + 2] - z, z - boxes[at + 5]));
+            if (dx*dx + dy*dy + dz*dz > radius * radius)
+                continue;
+            if (2 * node + 1 < nodeCount) {
+                stack[top++] = 2 * node + 2;
+                stack[top++] = 2 * node + 1;
+                continue;
+            }
+            for (int k = first[node], end = k + size[node]; k < end; k++) {
+                int s = order[k] * 4;
+                float ex = spheres[s] - x, ey = spheres[s + 1] - y, ez = spheres[s + 2] - z;
+                float reach = radius + spheres[s + 3];
+                if (ex*ex + ey*ey + ez*ez <= reach * reach)
+                    out[found++] = order[k];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the item whose sphere the ray from (ox, oy, oz) along
+     * (dx, dy, dz) enters first, no further than maxDistance, or -1.  The
+     * direction need not be unit length; distances are in multiples of it.
+     * See getHitDistance().
+     */
+    public int queryRay(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+        int hit = -1;
+        float nearest = maxDistance;
+        if (count == 0) {
+            hitDistance = Float.POSITIVE_INFINITY;
+            return hit;
+        }
+        float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        float dd = dx*dx + dy*dy + dz*dz;
+        int top = 0;
+        int[] stack = this.stack;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (enter(node, ox, oy, oz, ix, iy, iz) > nearest)
+                continue;
+            if (2 * node + 1 < nodeCount) {
+                //the nearer child is searched first, so it can prune the other
+                int l = 2 * node + 1, r = l + 1;
+                float tl = enter(l, ox, oy, oz, ix, iy, iz), tr = enter(r, ox, oy, oz, ix, iy, iz);
+                if (tl <= tr) {
+                    stack[top++] = r;
+                    stack[top++] = l;
+                }
+                else {
+                    stack[top++] = l;
+                    stack[top++] = r;
+                }
+                continue;
+            }
+            for (int k = first[node], end = k + size[node]; k < end; k++) {
+                int s = order[k] * 4;
+                float ex = ox - spheres[s], ey = oy - spheres[s + 1], ez = oz - spheres[s + 2];
+                float r = spheres[s + 3];
+                //|e + t d| = r
+                float b = ex*dx + ey*dy + ez*dz;
+                float c = ex*ex + ey*ey + ez*ez - r*r;
+                float discriminant = b*b - dd*c;
+                if (discriminant < 0)
+                    continue;
+                float t = (-b - (float)Math.sqrt(discriminant)) / dd;
+                if (t < 0 && c <= 0)
+                    t = 0;   // the ray starts inside the sphere
+                if (t >= 0 && t <= nearest) {
+                    nearest = t;
+                    hit = order[k];
+                }
+            }
+        }
+        hitDistance = hit < 0 ? Float.POSITIVE_INFINITY : nearest;
+        return hit;
+    }
+
+    /** Distance along the ray to the item the last queryRay() found. */
+    public float getHitDistance() {
+        return hitDistance;
+    }
+
+    /**
+     * Where the ray enters a node's box (0 if it starts inside), or
+     * infinity if it misses it or the box is behind it.
+     */
+    private float enter(int node, float ox, float oy, float oz, float ix, float iy, float iz) {
+        int at = node * 6;
+        float t1 = (boxes[at] - ox) * ix, t2 = (boxes[at + 3] - ox) * ix;
+        float near = Math.min(t1, t2), far = Math.max(t1, t2);
+        t1 = (boxes[at + 1] - oy) * iy;
+        t2 = (boxes[at + 4] - oy) * iy;
+        near = Math.max(near, Math.min(t1, t2));
+        far = Math.min(far, Math.max(t1, t2));
+        t1 = (boxes[at + 2] - oz) * iz;
+        t2 = (boxes[at + 5] - oz) * iz;
+        near = Math.max(near, Math.min(t1, t2));
+        far = Math.min(far, Math.max(t1, t2));
+        if (far < Math.max(near, 0))
+            return Float.POSITIVE_INFINITY;
+        return Math.max(near, 0);
+    }
+}
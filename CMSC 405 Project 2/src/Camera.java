@@ -1,12 +1,13 @@
 
 //Source: CMSC JOGL Example Files
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.glu.GLU;
 
 import java.awt.Component;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.nio.FloatBuffer;
 
 /**
  * A Camera object encapsulates the information needed to define a
@@ -23,13 +24,21 @@ import java.awt.event.MouseMotionListener;
  * calling methods.
  *     The camera comes along with a simulated trackball that
  * lets the user rotate the view by dragging on the drawing
- * surface.  See the installTrackball() method.
+ * surface.  See the installTrackball() method.  Drags are gathered
+ * into one rotation on the event thread and applied by the next
+ * apply(), on the render thread, so however many events arrive, the
+ * view changes once per frame.  The trackball rotation is kept on top
+ * of lookAt(), so an animated lookAt() does not undo it.
+ *     The projection and view matrices are only rebuilt when something
+ * they depend on changes, and only loaded into OpenGL when they were
+ * rebuilt.  Pass the viewport size from reshape() to setViewport() so
+ * that apply() does not have to ask OpenGL for it every frame.
  */
 public class Camera {
    
-   private double eyex, eyey, eyez = 30;
-   private double refx, refy, refz;
-   private double upx, upy = 1, upz;
+   private final Vec3 eye = new Vec3(0, 0, 30);
+   private final Vec3 ref = new Vec3();
+   private final Vec3 up = new Vec3(0, 1, 0);
    
    private double xminRequested = -5, xmaxRequested = 5;
    private double yminRequested = -5, ymaxRequested = 5;
@@ -38,7 +47,48 @@ public class Camera {
    private boolean preserveAspect = true;
    
    private double xminActual, xmaxActual, yminActual, ymaxActual;
-   private GLU glu = new GLU();
+   private double projectionScale = 1;  // element [1][1] of the projection matrix
+   private final Mat4 projection = new Mat4();
+   private final Mat4 view = new Mat4();         // the lookAt matrix
+   private final Mat4 viewProjection = new Mat4();
+   private final Frustum frustum = new Frustum();
+   private final int[] viewport = new int[4];
+   private int viewportWidth = -1, viewportHeight = -1;
+   private boolean viewportKnown;       // set by setViewport(); otherwise apply() queries it
+   private double matrixDistance = -1;  // eye to center distance the projection was built for
+   private boolean projectionDirty = true, viewDirty = true;
+   private boolean projectionLoaded, viewLoaded;  // the matrix in OpenGL is the current one
+   private final FloatBuffer projectionBuffer = Buffers.newDirectFloatBuffer(16);
+   private final FloatBuffer viewBuffer = Buffers.newDirectFloatBuffer(16);
+
+   //scratch space, so apply() and the trackball allocate nothing
+   private final Vec3 xDirection = new Vec3(), yDirection = new Vec3(), zDirection = new Vec3();
+   private final Vec3 temp = new Vec3(), spinAxis = new Vec3();
+   private final Quat rotation = new Quat();
+
+   //the trackball rotation, in view coordinates, on top of lookAt(), and
+   //the eye and up vector that result
+   private final Quat orbit = new Quat();
+   private final Vec3 viewEye = new Vec3(), viewUp = new Vec3();
+
+   //input from the event thread, guarded by inputLock
+   private final Object inputLock = new Object();
+   private final Quat pendingRotation = new Quat();
+   private boolean hasPending;
+   private long pendingSince;           // nanoTime of the oldest drag not yet applied
+   private final Vec3 spin = new Vec3(); // angular velocity in view coordinates, radians per second
+   private boolean spinning;
+   private boolean inertia;
+   private double damping = 3;          // per second
+
+   private long lastApplyNanos = -1;
+   private long appliedInputNanos = -1; // oldest drag shown by the frame being drawn
+   private final LatencyStats inputLatency = new LatencyStats();
+
+   private static final double MIN_SPIN = 0.05;            // radians per second
+   private static final double SPIN_SMOOTHING = 0.03;      // seconds
+   private static final long RELEASE_WINDOW = 50000000L;   // a release later than this after the last drag does not spin
+   private static final double MAX_SPIN_STEP = 0.1;        // seconds
    
    private TrackballMouser trackball;    // handles the mouse for the simulated trackball
    private Component trackballComponent; // if non-null, component where trackball is installed
@@ -56,6 +106,7 @@ public class Camera {
     */
    public void setOrthographic(boolean orthographic) {
       this.orthographic = orthographic;
+      projectionDirty = true;
    }
 
    public boolean getPreserveAspect() {
@@ -68,6 +119,7 @@ public class Camera {
     */
    public void setPreserveAspect(boolean preserveAspect) {
       this.preserveAspect = preserveAspect;
+      projectionDirty = true;
    }
 
    /**
@@ -91,6 +143,7 @@ public class Camera {
       ymaxRequested = ymaxActual = ymax;
       this.zmin = zmin;
       this.zmax = zmax;
+      projectionDirty = true;
    }
    
    /**
@@ -107,7 +160,21 @@ public class Camera {
     * adjusted to reflect the aspect ratio of the display area.
     */
    public double[] getLimits() {
-      return new double[] { xminRequested, xmaxRequested, yminRequested, ymaxRequested, zmin, zmax };
+      return getLimits(new double[6]);
+   }
+
+   /**
+    * Copies the view limits into limits, which must have room for 6 values,
+    * and returns it.
+    */
+   public double[] getLimits(double[] limits) {
+      limits[0] = xminRequested;
+      limits[1] = xmaxRequested;
+      limits[2] = yminRequested;
+      limits[3] = ymaxRequested;
+      limits[4] = zmin;
+      limits[5] = zmax;
+      return limits;
    }
    
    /**
@@ -118,53 +185,232 @@ public class Camera {
     * limits.
     */
    public double[] getActualXYLimits() {
-      return new double[] { xminActual, xmaxActual, yminActual, ymaxActual };
+      return getActualXYLimits(new double[4]);
+   }
+
+   /**
+    * Copies the actual xy limits into limits, which must have room for 4
+    * values, and returns it.
+    */
+   public double[] getActualXYLimits(double[] limits) {
+      limits[0] = xminActual;
+      limits[1] = xmaxActual;
+      limits[2] = yminActual;
+      limits[3] = ymaxActual;
+      return limits;
+   }
+   
+   /**
+    * Returns element [1][1] of the projection matrix set by the most recent call
+    * to apply.  Multiplied by half the viewport height, this converts a size at
+    * unit distance from the eye into pixels.
+    */
+   public double getProjectionScale() {
+      return projectionScale;
    }
    
    /**
     * Set the information for the viewing transformation.  The view will be set
-    * in the apply method with a call to
+    * in the apply method to the same matrix as
     * gluLookAt(eyeX,eyeY,eyeZ,viewCenterX,viewCenterY,viewCenterZ,viewUpX,viewUpY,viewUpZ)
     */
    public void lookAt(double eyeX, double eyeY, double eyeZ,
                         double viewCenterX, double viewCenterY, double viewCenterZ,
                         double viewUpX, double viewUpY, double viewUpZ) {
-      eyex = eyeX;
-      eyey = eyeY;
-      eyez = eyeZ;
-      refx = viewCenterX;
-      refy = viewCenterY;
-      refz = viewCenterZ;
-      upx = viewUpX;
-      upy = viewUpY;
-      upz = viewUpZ;
+      if (eye.x == eyeX && eye.y == eyeY && eye.z == eyeZ
+            && ref.x == viewCenterX && ref.y == viewCenterY && ref.z == viewCenterZ
+            && up.x == viewUpX && up.y == viewUpY && up.z == viewUpZ)
+         return;
+      eye.set(eyeX, eyeY, eyeZ);
+      ref.set(viewCenterX, viewCenterY, viewCenterZ);
+      up.set(viewUpX, viewUpY, viewUpZ);
+      viewDirty = true;
    }
 
    /**
     * Returns the view information -- the 9 parameters of lookAt(), in an array.
     */
    public double[] getViewParameters() {
-      return new double[] { eyex, eyey, eyez, refx, refy, refz, upx, upy, upz };
+      return getViewParameters(new double[9]);
+   }
+
+   /**
+    * Copies the 9 parameters of lookAt() into params and returns it.  The
+    * eye and up vector include the trackball rotation.
+    */
+   public double[] getViewParameters(double[] params) {
+      updateView();
+      params[0] = viewEye.x;
+      params[1] = viewEye.y;
+      params[2] = viewEye.z;
+      params[3] = ref.x;
+      params[4] = ref.y;
+      params[5] = ref.z;
+      params[6] = viewUp.x;
+      params[7] = viewUp.y;
+      params[8] = viewUp.z;
+      return params;
+   }
+
+   /**
+    * Undoes every trackball rotation, so the view is exactly the one given
+    * to lookAt(), and stops any spin.
+    */
+   public void resetTrackball() {
+      synchronized (inputLock) {
+         pendingRotation.identity();
+         hasPending = false;
+         spinning = false;
+         spin.set(0, 0, 0);
+      }
+      orbit.identity();
+      viewDirty = true;
+   }
+
+   /**
+    * If inertia is on, the view keeps turning after a drag is released
+    * and slows down at the damping rate.  It is off by default.
+    */
+   public void setInertia(boolean inertia) {
+      synchronized (inputLock) {
+         this.inertia = inertia;
+         if (!inertia)
+            spinning = false;
+      }
+   }
+
+   public boolean getInertia() {
+      return inertia;
+   }
+
+   /**
+    * Sets how fast a spin dies down: its speed falls by a factor of e
+    * every 1/damping seconds.  The default is 3.
+    */
+   public void setDamping(double damping) {
+      this.damping = damping;
+   }
+
+   public double getDamping() {
+      return damping;
+   }
+
+   /**
+    * Call when the frame that followed apply() has been submitted.  If the
+    * frame showed trackball input, the time from the oldest input event it
+    * showed to now is recorded in getInputLatency().
+    */
+   public void frameSubmitted() {
+      if (appliedInputNanos >= 0) {
+         inputLatency.record(System.nanoTime() - appliedInputNanos);
+         appliedInputNanos = -1;
+      }
+   }
+
+   /**
+    * Latency from trackball drag events (as the event thread received them)
+    * to the submission of the frame that showed them.
+    */
+   public LatencyStats getInputLatency() {
+      return inputLatency;
+   }
+   
+   /**
+    * Sets the size of the viewport the camera draws into, for the aspect
+    * ratio.  Call this from reshape().  Until it is called, apply() reads
+    * the viewport from OpenGL every time.
+    */
+   public void setViewport(int width, int height) {
+      viewportKnown = true;
+      viewportSize(width, height);
+   }
+
+   private void viewportSize(int width, int height) {
+      if (width != viewportWidth || height != viewportHeight) {
+         viewportWidth = width;
+         viewportHeight = height;
+         projectionDirty = true;
+      }
+   }
+
+   /**
+    * Forgets what has been loaded into OpenGL, so the next apply() loads
+    * both matrices again.  Call this from init(), when the context is new,
+    * and after anything else has loaded its own projection or view.
+    */
+   public void invalidate() {
+      projectionLoaded = false;
+      viewLoaded = false;
    }
    
    /**
-    * Apply the camera to an OpenGL context.  This method completely replaces the
-    * projection and the modelview transformation in the context.  It sets these
-    * transformations to the identity and then applies the view and projection
-    * represented by the camera.  This method is meant to be called at the begining
-    * of the display method and should replace any other means of setting the
-    * projection and view.
+    * Apply the camera to an OpenGL context.  This method replaces the
+    * projection and the modelview transformation in the context with the
+    * view and projection represented by the camera.  This method is meant
+    * to be called at the begining of the display method and should replace
+    * any other means of setting the projection and view.
+    *    A matrix is only loaded if it changed since the last call, so the
+    * rest of the frame must leave the matrix mode at GL_MODELVIEW and the
+    * modelview matrix as it found it (every push matched by a pop), or
+    * call invalidate().
     */
    public void apply(GL2 gl) {
-        int[] viewport = new int[4];
-        gl.glGetIntegerv(GL2.GL_VIEWPORT, viewport, 0);
+        if (!viewportKnown) {
+            gl.glGetIntegerv(GL2.GL_VIEWPORT, viewport, 0);
+            viewportSize(viewport[2], viewport[3]);
+        }
+        applyInput(System.nanoTime());
+        updateMatrices();
+        if (!projectionLoaded) {
+            gl.glMatrixMode(GL2.GL_PROJECTION);
+            gl.glLoadMatrixd(projection.m, 0);
+            gl.glMatrixMode(GL2.GL_MODELVIEW);
+            projectionLoaded = true;
+        }
+        if (!viewLoaded) {
+            gl.glLoadMatrixd(view.m, 0);
+            viewLoaded = true;
+        }
+   }
+
+   /**
+    * Rebuilds whichever of the projection and view matrices are out of
+    * date.  The matrices are built in Java, the same as glOrtho/glFrustum
+    * and gluLookAt would build them, so this needs no GL context and
+    * allocates nothing.  The projection depends on the distance from the
+    * eye to the view center, so it is rebuilt when that changes.  The
+    * frustum planes are rebuilt along with either matrix.
+    */
+   void updateMatrices() {
+        boolean changed = updateView();
+        if (changed) {
+            double viewDistance = norm(temp.sub(ref, eye));
+            if (viewDistance != matrixDistance) {
+                matrixDistance = viewDistance;
+                projectionDirty = true;
+            }
+        }
+        if (projectionDirty) {
+            updateProjection();
+            changed = true;
+        }
+        if (changed) {
+            viewProjection.multiply(projection, view);
+            frustum.set(viewProjection);
+            frustum.setProjection(viewEye, Math.max(0, viewportHeight) / 2.0 * projectionScale, orthographic);
+        }
+   }
+
+   private void updateProjection() {
+        projectionDirty = false;
+        projectionLoaded = false;
         xminActual = xminRequested;
         xmaxActual = xmaxRequested;
         yminActual = yminRequested;
         ymaxActual = ymaxRequested;
-        if (preserveAspect) {
-           double viewWidth = viewport[2];
-           double viewHeight = viewport[3];
+        if (preserveAspect && viewportWidth > 0 && viewportHeight > 0) {
+           double viewWidth = viewportWidth;
+           double viewHeight = viewportHeight;
            double windowWidth = xmaxActual - xminActual;
            double windowHeight = ymaxActual - yminActual;
            double aspect = viewHeight / viewWidth;
@@ -179,11 +425,10 @@ public class Camera {
                ymaxActual += extra;
            }
         }
-        gl.glMatrixMode(GL2.GL_PROJECTION);
-        gl.glLoadIdentity();
-       double viewDistance = norm(new double[] {refx-eyex, refy-eyey, refz-eyez});
+        double viewDistance = matrixDistance;
         if (orthographic) {
-            gl.glOrtho(xminActual, xmaxActual, yminActual, ymaxActual, viewDistance-zmax, viewDistance-zmin);
+            projectionScale = 2 / (ymaxActual - yminActual);
+            projection.ortho(xminActual, xmaxActual, yminActual, ymaxActual, viewDistance-zmax, viewDistance-zmin);
         }
         else {
             double near = viewDistance-zmax;
@@ -197,11 +442,122 @@ public class Camera {
             double x2 = centerx + newwidth / 2;
             double y1 = centery - newheight / 2;
             double y2 = centery + newheight / 2;
-            gl.glFrustum(x1, x2, y1, y2, near, viewDistance-zmin);
+            projectionScale = 2 * near / (y2 - y1);
+            projection.frustum(x1, x2, y1, y2, near, viewDistance-zmin);
         }
-        gl.glMatrixMode(GL2.GL_MODELVIEW);
-        gl.glLoadIdentity();
-        glu.gluLookAt(eyex, eyey, eyez, refx, refy, refz, upx, upy, upz);
+        copy(projection, projectionBuffer);
+   }
+
+   /**
+    * Rebuilds the view matrix if it is out of date, turning the lookAt()
+    * eye and up vector by the trackball rotation.  Returns true if it did.
+    */
+   private boolean updateView() {
+        if (!viewDirty)
+            return false;
+        viewDirty = false;
+        viewLoaded = false;
+        viewEye.set(eye);
+        viewUp.set(up);
+        if (orbit.w != 1) {
+            //the lookAt frame; rotate its z and y axes by the orbit, which
+            //is in view coordinates
+            zDirection.sub(eye, ref);
+            double viewDistance = norm(zDirection);
+            normalize(zDirection);
+            yDirection.set(up);
+            double upLength = norm(yDirection);
+            double proj = yDirection.dot(zDirection);
+            yDirection.addScaled(zDirection, -proj);
+            normalize(yDirection);
+            xDirection.cross(yDirection, zDirection);
+            orbit.rotate(temp.set(0, 0, 1), temp);
+            transformToViewCoords(temp, xDirection, yDirection, zDirection, viewEye);
+            viewEye.scale(viewDistance).add(viewEye, ref);
+            orbit.rotate(temp.set(0, 1, 0), temp);
+            transformToViewCoords(temp, xDirection, yDirection, zDirection, viewUp);
+            viewUp.scale(upLength);
+        }
+        view.lookAt(viewEye, ref, viewUp);
+        copy(view, viewBuffer);
+        return true;
+   }
+
+   /**
+    * Takes the rotation gathered from the trackball since the last frame,
+    * or the next step of a spin, and adds it to the orbit.
+    */
+   private void applyInput(long now) {
+        boolean rotated = false, repaint = false;
+        synchronized (inputLock) {
+            if (hasPending) {
+                rotation.set(pendingRotation);
+                pendingRotation.identity();
+                hasPending = false;
+                if (appliedInputNanos < 0)
+                    appliedInputNanos = pendingSince;
+                rotated = true;
+            }
+            else if (spinning && lastApplyNanos >= 0) {
+                double dt = Math.min(MAX_SPIN_STEP, (now - lastApplyNanos) / 1e9);
+                double speed = spin.length();
+                rotation.setAxisAngle(spinAxis.set(spin).scale(1 / speed), speed * dt);
+                spin.scale(Math.exp(-damping * dt));
+                spinning = spin.length() >= MIN_SPIN;
+                rotated = true;
+                repaint = spinning;
+            }
+        }
+        lastApplyNanos = now;
+        if (rotated) {
+            orbit.multiply(orbit, rotation).normalize();
+            viewDirty = true;
+        }
+        if (repaint && trackballComponent != null)
+            trackballComponent.repaint();   // keep drawing while it spins
+   }
+
+   private static void copy(Mat4 matrix, FloatBuffer buffer) {
+        for (int i = 0; i < 16; i++)
+            buffer.put(i, (float)matrix.m[i]);
+   }
+
+   /**
+    * The projection matrix computed by the last apply().
+    */
+   public Mat4 getProjection() {
+      return projection;
+   }
+
+   /**
+    * The view matrix computed by the last apply().
+    */
+   public Mat4 getView() {
+      return view;
+   }
+
+   /**
+    * The projection matrix of the last apply() as 16 floats, column-major,
+    * in a direct buffer that can be passed to glUniformMatrix4fv.  The
+    * buffer is reused, and its position is left at 0.
+    */
+   public FloatBuffer getProjectionBuffer() {
+      return projectionBuffer;
+   }
+
+   /**
+    * The view matrix of the last apply(), like getProjectionBuffer().
+    */
+   public FloatBuffer getViewBuffer() {
+      return viewBuffer;
+   }
+
+   /**
+    * The world-space planes of the view volume of the last apply(), for
+    * culling.
+    */
+   public Frustum getFrustum() {
+      return frustum;
    }
    
    /**
@@ -233,79 +589,75 @@ public class Camera {
        trackballComponent.addMouseListener(trackball);
    }
 
-    private double norm(double[] v) {
-        double norm2 = v[0]*v[0] + v[1]*v[1] + v[2]*v[2];
+    private double norm(Vec3 v) {
+        double norm2 = v.dot(v);
         if (Double.isNaN(norm2) || Double.isInfinite(norm2) || norm2 == 0)
             throw new NumberFormatException("Vector length zero, undefined, or infinite.");
         return Math.sqrt(norm2);
     }
 
-    private void normalize(double[] v) {
-        double norm = norm(v);
-        v[0] /= norm;
-        v[1] /= norm;
-        v[2] /= norm;
+    private void normalize(Vec3 v) {
+        v.scale(1 / norm(v));
     }
 
-    private void applyTransvection(double[] e1, double[] e2) {
-        // rotate vector e1 onto e2; must be 3D *UNIT* vectors.
-        double[] zDirection = new double[] {eyex - refx, eyey - refy, eyez - refz};
-        double viewDistance = norm(zDirection);
-        normalize(zDirection);
-        double[] yDirection = new double[] {upx, upy, upz};
-        double upLength = norm(yDirection);
-        double proj = yDirection[0]*zDirection[0] + yDirection[1]*zDirection[1] + yDirection[2]*zDirection[2];
-        yDirection[0] = yDirection[0] - proj*zDirection[0];
-        yDirection[1] = yDirection[1] - proj*zDirection[1];
-        yDirection[2] = yDirection[2] - proj*zDirection[2];
-        normalize(yDirection);
-        double[] xDirection = new double[] {yDirection[1]*zDirection[2] - yDirection[2]*zDirection[1],
-                yDirection[2]*zDirection[0] - yDirection[0]*zDirection[2],
-                yDirection[0]*zDirection[1] - yDirection[1]*zDirection[0] };
-       e1 = transformToViewCoords(e1, xDirection, yDirection, zDirection);
-       e2 = transformToViewCoords(e2, xDirection, yDirection, zDirection);
-        double[] e = new double[]{e1[0] + e2[0], e1[1] + e2[1], e1[2] + e2[2]};
-        normalize(e);
-        double[] temp = new double[3];
-        reflectInAxis(e, zDirection, temp);
-        reflectInAxis(e1, temp, zDirection);
-        reflectInAxis(e, xDirection, temp);
-        reflectInAxis(e1, temp, xDirection);
-        reflectInAxis(e, yDirection, temp);
-        reflectInAxis(e1, temp, yDirection);
-        eyex = refx + viewDistance * zDirection[0];
-        eyey = refy + viewDistance * zDirection[1];
-        eyez = refz + viewDistance * zDirection[2];
-        upx = upLength * yDirection[0];
-        upy = upLength * yDirection[1];
-        upz = upLength * yDirection[2];
+    /**
+     * Turns the view as the trackball does when the mouse moves from the
+     * point whose ray is e1 to the one whose ray is e2.  Both must be unit
+     * vectors in view coordinates.
+     */
+    void applyTransvection(Vec3 e1, Vec3 e2) {
+        rotation.setFromTo(e2, e1);
+        orbit.multiply(orbit, rotation).normalize();
+        viewDirty = true;
     }
 
-    private void reflectInAxis(double[] axis, double[] source, double[] destination) {
-        double s = 2 * (axis[0] * source[0] + axis[1] * source[1] + axis[2] * source[2]);
-        destination[0] = s * axis[0] - source[0];
-        destination[1] = s * axis[1] - source[1];
-        destination[2] = s * axis[2] - source[2];
+    private void transformToViewCoords(Vec3 v, Vec3 x, Vec3 y, Vec3 z, Vec3 w) {
+       w.set(v.x*x.x + v.y*y.x + v.z*z.x,
+             v.x*x.y + v.y*y.y + v.z*z.y,
+             v.x*x.z + v.y*y.z + v.z*z.z);
     }
-    
-    private double[] transformToViewCoords(double[] v, double[] x, double[] y, double[] z) {
-       double[] w = new double[3];
-       w[0] = v[0]*x[0] + v[1]*y[0] + v[2]*z[0];
-       w[1] = v[0]*x[1] + v[1]*y[1] + v[2]*z[1];
-       w[2] = v[0]*x[2] + v[1]*y[2] + v[2]*z[2];
-       return w;
+
+    /**
+     * Maps a point on a width x height component onto the unit trackball
+     * sphere and stores the direction to it in ray.
+     */
+    Vec3 mousePointToRay(int x, int y, int width, int height, Vec3 ray) {
+       double dx, dy, dz, norm;
+       int centerX = width/2;
+       int centerY = height/2;
+       double scale = 0.8*Math.min(centerX, centerY);
+       dx = (x - centerX);
+       dy = (centerY - y);
+       norm = Math.sqrt(dx*dx + dy*dy);
+       if (norm >= scale)
+          dz = 0;
+       else
+          dz = Math.sqrt( scale*scale - dx*dx -dy*dy );
+       double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+       return ray.set(dx/length, dy/length, dz/length);
     }
     
+    /**
+     * Runs on the event thread.  Each drag only adds its rotation to
+     * pendingRotation; apply() takes it on the render thread.
+     */
     private class TrackballMouser implements MouseListener, MouseMotionListener {
 
         private boolean dragging;
-        private double[] prevRay;
+        private Vec3 prevRay = new Vec3(), thisRay = new Vec3();
+        private final Quat delta = new Quat();
+        private long lastDragNanos;
         
         public void mousePressed(MouseEvent e) {
            if (dragging)
               return;
            dragging = true;
-           prevRay = mousePointToRay(e.getX(), e.getY());
+           mousePointToRay(e.getX(), e.getY(), prevRay);
+           lastDragNanos = System.nanoTime();
+           synchronized (inputLock) {
+              spinning = false;
+              spin.set(0, 0, 0);
+           }
            trackballComponent.addMouseMotionListener(this);
         }
 
@@ -314,31 +666,60 @@ public class Camera {
               return;
            dragging = false;
            trackballComponent.removeMouseMotionListener(this);
+           boolean spin;
+           synchronized (inputLock) {
+              //only a drag that was still moving when released keeps turning
+              spinning = inertia && System.nanoTime() - lastDragNanos < RELEASE_WINDOW
+                    && Camera.this.spin.length() >= MIN_SPIN;
+              if (!spinning)
+                 Camera.this.spin.set(0, 0, 0);
+              spin = spinning;
+           }
+           if (spin)
+              trackballComponent.repaint();
         }
 
         public void mouseDragged(MouseEvent e) {
            if (!dragging)
               return;
-           double[] thisRay = mousePointToRay(e.getX(), e.getY());
-           applyTransvection(prevRay, thisRay);
+           long now = System.nanoTime();
+           mousePointToRay(e.getX(), e.getY(), thisRay);
+           delta.setFromTo(thisRay, prevRay);
+           Vec3 swap = prevRay;
            prevRay = thisRay;
-           trackballComponent.repaint();
+           thisRay = swap;
+           boolean first;
+           synchronized (inputLock) {
+              first = !hasPending;
+              if (first)
+                 pendingSince = now;
+              pendingRotation.multiply(pendingRotation, delta);
+              hasPending = true;
+              measureSpin(now - lastDragNanos);
+           }
+           lastDragNanos = now;
+           if (first)
+              trackballComponent.repaint();   // later drags before that frame share it
+        }
+
+        /**
+         * Blends the angular velocity of the latest drag into spin, with
+         * a time constant of SPIN_SMOOTHING.
+         */
+        private void measureSpin(long nanos) {
+           double dt = nanos / 1e9;
+           double s = Math.sqrt(delta.x * delta.x + delta.y * delta.y + delta.z * delta.z);
+           if (dt <= 0 || s < 1e-12)
+              return;
+           double k = delta.angle() / s / dt;
+           double a = 1 - Math.exp(-dt / SPIN_SMOOTHING);
+           spin.set(spin.x + (delta.x * k - spin.x) * a,
+                    spin.y + (delta.y * k - spin.y) * a,
+                    spin.z + (delta.z * k - spin.z) * a);
         }
         
-        private double[] mousePointToRay(int x, int y) {
-           double dx, dy, dz, norm;
-           int centerX = trackballComponent.getWidth()/2;
-           int centerY = trackballComponent.getHeight()/2;
-           double scale = 0.8*Math.min(centerX, centerY);
-           dx = (x - centerX);
-           dy = (centerY - y);
-           norm = Math.sqrt(dx*dx + dy*dy);
-           if (norm >= scale)
-              dz = 0;
-           else
-              dz = Math.sqrt( scale*scale - dx*dx -dy*dy );
-           double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
-           return new double[] { dx/length, dy/length, dz/length };
+        private void mousePointToRay(int x, int y, Vec3 ray) {
+           Camera.this.mousePointToRay(x, y, trackballComponent.getWidth(), trackballComponent.getHeight(), ray);
         }
 
         public void mouseClicked(MouseEvent e) { }
@@ -0,0 +1,101 @@
+/*
+ * File: FramePacing.java
+ * CMSC 405
+ * Description: Frame pacing statistics for the render loop.  It records the
+ *  time between the starts of consecutive frames and keeps the frame rate,
+ *  the mean and worst interval, the jitter (standard deviation of the
+ *  interval) and how many frames missed their deadline.  A frame misses its
+ *  deadline when it starts more than half a period late.  Nothing is
+ *  allocated per frame.
+ */
+
+public class FramePacing {
+
+    private final long periodNanos;   // target time between frames, 0 if uncapped
+
+    private long windowStart = -1;
+    private long lastFrame = -1;
+    private int frames;
+    private int intervals;
+    private double mean, m2;          // running mean and sum of squares (Welford)
+    private long worst;
+    private int missed;
+
+    /**
+     * @param targetFps the frame rate the loop aims for, or 0 if it is uncapped
+     */
+    public FramePacing(int targetFps) {
+        periodNanos = targetFps > 0 ? 1000000000L / targetFps : 0;
+    }
+
+    /**
+     * Records the start of a frame at the given System.nanoTime().
+     */
+    public void frame(long now) {
+        if (windowStart < 0)
+            windowStart = now;
+        if (lastFrame >= 0) {
+            long interval = now - lastFrame;
+            intervals++;
+            double delta = interval - mean;
+            mean += delta / intervals;
+            m2 += delta * (interval - mean);
+            if (interval > worst)
+                worst = interval;
+            if (periodNanos > 0 && interval > periodNanos + periodNanos / 2)
+                missed++;
+        }
+        lastFrame = now;
+        frames++;
+    }
+
+    /**
+     * Starts a new measuring window.  The next interval is still measured
+     * from the last recorded frame.
+     */
+    public void reset() {
+        windowStart = lastFrame;
+        frames = 0;
+        intervals = 0;
+        mean = m2 = 0;
+        worst = 0;
+        missed = 0;
+    }
+
+    /** Seconds since the start of the window, as of the last frame. */
+    public double getWindowSeconds() {
+        return windowStart < 0 ? 0 : (lastFrame - windowStart) / 1e9;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public double getFps() {
+        return intervals == 0 ? 0 : 1e9 / mean;
+    }
+
+    public double getMeanMillis() {
+        return mean / 1e6;
+    }
+
+    /** Standard deviation of the frame interval, in milliseconds. */
+    public double getJitterMillis() {
+        return intervals < 2 ? 0 : Math.sqrt(m2 / (intervals - 1)) / 1e6;
+    }
+
+    public double getWorstMillis() {
+        return worst / 1e6;
+    }
+
+    /** Frames that started more than half a period late; always 0 when uncapped. */
+    public int getMissedDeadlines() {
+        return missed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f fps, %.2f ms mean, %.2f ms jitter, %.2f ms worst, %d of %d frames late",
+                getFps(), getMeanMillis(), getJitterMillis(), getWorstMillis(), missed, intervals);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * File: FrameProfiler.java
+ * CMSC 405
+ * Description: Measures where a frame's time goes.  Each named stage of the
+ *  frame (sky, herd, house, ...) is timed on the CPU with System.nanoTime and,
+ *  when the driver has timer queries, on the GPU with GL_TIME_ELAPSED.  GPU
+ *  results are collected GPU_LATENCY frames later from a ring of queries, so
+ *  the CPU never waits for them; a result that is still not ready by then is
+ *  dropped.  The last HISTORY frames are kept for the on-screen overlay
+ *  (p50/p95/p99 per stage) and for CSV export, and every stage is also
+ *  reported to Java Flight Recorder (StageEvent, GpuStageEvent).
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+import jdk.jfr.EventType;
+
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.util.gl2.GLUT;
+
+public class FrameProfiler {
+
+    /** Number of frames kept for percentiles and export. */
+    public static final int HISTORY = 512;
+    /** Frames between issuing a GPU query and reading its result. */
+    private static final int GPU_LATENCY = 4;
+    private static final int OVERLAY_REFRESH = 15;   // frames between overlay text updates
+
+    private static final EventType STAGE_EVENT = EventType.getEventType(StageEvent.class);
+    private static final EventType GPU_STAGE_EVENT = EventType.getEventType(GpuStageEvent.class);
+
+    /** Stage 0 is the whole frame, from beginFrame() to endFrame(), CPU only. */
+    public static final int FRAME = 0;
+
+    private String[] names = { "frame" };
+    private int stages = 1;
+
+    private long frame = -1;
+    private final long[] cpuStart = new long[32];
+    private float[] cpuMillis, gpuMillis;     // [stage * HISTORY + frame % HISTORY], NaN if not measured
+    private final StageEvent[] events = new StageEvent[32];
+
+    private boolean gpuTiming;
+    private int[] queries;                    // [slot * stages + stage]
+    private boolean[] issued;
+    private final long[] slotFrame = new long[GPU_LATENCY];
+    private final long[] result = new long[1];
+    private final int[] available = new int[1];
+    private int dropped;
+
+    private final float[] scratch = new float[HISTORY];
+    private String[] overlay = new String[0];
+
+    /**
+     * Registers a stage, or finds one registered earlier, and returns its
+     * index.  Stages must be registered before init().
+     */
+    public int stage(String name) {
+        for (int i = 0; i < stages; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        if (queries != null)
+            throw new IllegalStateException("Stage " + name + " registered after init()");
+        if (stages == cpuStart.length)
+            throw new IllegalStateException("Too many stages");
+        names = Arrays.copyOf(names, stages + 1);
+        names[stages] = name;
+        return stages++;
+    }
+
+    public String getName(int stage) {
+        return names[stage];
+    }
+
+    public int getStageCount() {
+        return stages;
+    }
+
+    public boolean hasGpuTiming() {
+        return gpuTiming;
+    }
+
+    /** GPU results that were not ready GPU_LATENCY frames after they were issued. */
+    public int getDroppedQueries() {
+        return dropped;
+    }
+
+    /**
+     * Allocates the history and, if the driver supports them, the timer queries.
+     */
+    public void init(GL2 gl) {
+        cpuMillis = new float[stages * HISTORY];
+        gpuMillis = new float[stages * HISTORY];
+        Arrays.fill(cpuMillis, Float.NaN);
+        Arrays.fill(gpuMillis, Float.NaN);
+        queries = new int[GPU_LATENCY * stages];
+        issued = new boolean[GPU_LATENCY * stages];
+        Arrays.fill(slotFrame, -1);
+        gpuTiming = gl.isExtensionAvailable("GL_ARB_timer_query")
+                || gl.isExtensionAvailable("GL_EXT_timer_query");
+        if (gpuTiming)
+            gl.glGenQueries(queries.length, queries, 0);
+    }
+
+    /**
+     * Starts a new frame.  Collects the GPU results of the frame that used
+     * this query slot GPU_LATENCY frames ago.
+     */
+    public void beginFrame(GL2 gl) {
+        frame++;
+        int slot = (int)(frame % GPU_LATENCY);
+        if (gpuTiming && slotFrame[slot] >= 0)
+            collect(gl, slot);
+        slotFrame[slot] = frame;
+        int h = (int)(frame % HISTORY);
+        for (int s = 0; s < stages; s++) {
+            cpuMillis[s * HISTORY + h] = Float.NaN;
+            gpuMillis[s * HISTORY + h] = Float.NaN;
+        }
+        cpuStart[FRAME] = System.nanoTime();
+    }
+
+    private void collect(GL2 gl, int slot) {
+        long old = slotFrame[slot];
+        int h = (int)(old % HISTORY);
+        for (int s = 1; s < stages; s++) {
+            int q = slot * stages + s;
+            if (!issued[q])
+                continue;
+            issued[q] = false;
+            gl.glGetQueryObjectuiv(queries[q], GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+            if (available[0] == 0) {
+                dropped++;
+                continue;
+            }
+            gl.glGetQueryObjectui64v(queries[q], GL2.GL_QUERY_RESULT, result, 0);
+            gpuMillis[s * HISTORY + h] = result[0] / 1e6f;
+            if (GPU_STAGE_EVENT.isEnabled()) {
+                GpuStageEvent event = new GpuStageEvent();
+                event.stage = names[s];
+                event.frame = old;
+                event.gpuTime = result[0];
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Starts timing a stage.  Stages must not overlap, because GPU timer
+     * queries cannot be nested.
+     */
+    public void begin(GL2 gl, int stage) {
+        if (gpuTiming) {
+            int q = (int)(frame % GPU_LATENCY) * stages + stage;
+            gl.glBeginQuery(GL2.GL_TIME_ELAPSED, queries[q]);
+            issued[q] = true;
+        }
+        if (STAGE_EVENT.isEnabled()) {
+            StageEvent event = new StageEvent();
+            event.begin();
+            events[stage] = event;
+        }
+        cpuStart[stage] = System.nanoTime();
+    }
+
+    public void end(GL2 gl, int stage) {
+        record(stage, System.nanoTime() - cpuStart[stage]);
+        if (gpuTiming)
+            gl.glEndQuery(GL2.GL_TIME_ELAPSED);
+        StageEvent event = events[stage];
+        if (event != null) {
+            events[stage] = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = names[stage];
+                event.frame = frame;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Ends the frame started by beginFrame().
+     */
+    public void endFrame() {
+        record(FRAME, System.nanoTime() - cpuStart[FRAME]);
+    }
+
+    private void record(int stage, long nanos) {
+        int i = stage * HISTORY + (int)(frame % HISTORY);
+        //a stage may run more than once in a frame
+        cpuMillis[i] = Float.isNaN(cpuMillis[i]) ? nanos / 1e6f : cpuMillis[i] + nanos / 1e6f;
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of a stage's time in
+     * milliseconds over the kept history, or NaN if it was never measured.
+     */
+    public float percentile(int stage, boolean gpu, double p) {
+        float[] data = gpu ? gpuMillis : cpuMillis;
+        int n = 0;
+        for (int i = stage * HISTORY; i < (stage + 1) * HISTORY; i++) {
+            if (!Float.isNaN(data[i]))
+                scratch[n++] = data[i];
+        }
+        if (n == 0)
+            return Float.NaN;
+        Arrays.sort(scratch, 0, n);
+        return scratch[Math.min(n - 1, (int)Math.floor(p / 100 * n))];
+    }
+
+    /**
+     * Draws a table of p50/p95/p99 per stage in the top left corner of the
+     * viewport.  The text is only rebuilt every few frames.  The enable
+     * bits and the current color are left as they were.
+     */
+    public void drawOverlay(GL2 gl, GLUT glut, int viewportHeight) {
+        if (frame % OVERLAY_REFRESH == 0 || overlay.length != stages + 1)
+            overlay = overlayText();
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT);
+        try {
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisable(GL2.GL_DEPTH_TEST);
+            gl.glColor3f(1, 1, 0);
+            for (int i = 0; i < overlay.length; i++) {
+                gl.glWindowPos2i(8, viewportHeight - 16 - 14 * i);
+                glut.glutBitmapString(GLUT.BITMAP_8_BY_13, overlay[i]);
+            }
+        }
+        finally {
+            gl.glPopAttrib();
+        }
+    }
+
+    private String[] overlayText() {
+        String[] lines = new String[stages + 1];
+        lines[0] = String.format(Locale.ROOT, "%-12s %-20s %s", "ms", "cpu p50/p95/p99",
+                gpuTiming ? "gpu p50/p95/p99" : "(no gpu timer)");
+        for (int s = 0; s < stages; s++) {
+            String gpu = gpuTiming && s != FRAME ? percentiles(s, true) : "";
+            lines[s + 1] = String.format(Locale.ROOT, "%-12s %-20s %s", names[s], percentiles(s, false), gpu);
+        }
+        return lines;
+    }
+
+    private String percentiles(int stage, boolean gpu) {
+        return String.format(Locale.ROOT, "%.2f/%.2f/%.2f",
+                percentile(stage, gpu, 50), percentile(stage, gpu, 95), percentile(stage, gpu, 99));
+    }
+
+    /**
+     * Writes the kept history as CSV, one row per frame and stage:
+     * frame,stage,cpu_ms,gpu_ms.  A time that was not measured is left empty.
+     * Frames whose GPU results are still outstanding are not written.
+     * @throws IOException if the file cannot be written.
+     */
+    public void exportCsv(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            out.println("frame,stage,cpu_ms,gpu_ms");
+            long last = gpuTiming ? frame - GPU_LATENCY : frame;
+            for (long f = Math.max(0, frame - HISTORY + 1); f <= last; f++) {
+                int h = (int)(f % HISTORY);
+                for (int s = 0; s < stages; s++) {
+                    float cpu = cpuMillis[s * HISTORY + h], gpu = gpuMillis[s * HISTORY + h];
+                    if (Float.isNaN(cpu) && Float.isNaN(gpu))
+                        continue;
+                    out.print(f);
+                    out.print(',');
+                    out.print(names[s]);
+                    out.print(',');
+                    if (!Float.isNaN(cpu))
+                        out.print(String.format(Locale.ROOT, "%.4f", cpu));
+                    out.print(',');
+                    if (!Float.isNaN(gpu))
+                        out.print(String.format(Locale.ROOT, "%.4f", gpu));
+                    out.println();
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (out.checkError())
+            throw new IOException("Could not write " + file);
+    }
+
+    public void dispose(GL2 gl) {
+        if (gpuTiming && queries != null)
+            gl.glDeleteQueries(queries.length, queries, 0);
+        queries = null;
+        gpuTiming = false;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * File: Frustum.java
+ * CMSC 405
+ * Description: The six planes of the camera's view volume in world
+ *  coordinates, taken from the rows of projection * view, and bounding
+ *  sphere and box tests against them.  The tests work on a bit mask of the
+ *  planes that still have to be checked: a sphere found wholly inside a plane
+ *  clears its bit, so the children of a node that is inside every plane are
+ *  not tested at all.  It also knows the eye and the screen scale, so it can tell how
+ *  many pixels a bounding sphere covers for picking a LevelOfDetail, and it
+ *  counts the objects drawn, culled and drawn at each level in the current
+ *  frame.
+ */
+
+public class Frustum {
+
+    public static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5;
+    /** Mask of every plane, to start a test from the root of the scene. */
+    public static final int ALL_PLANES = 0x3f;
+    /** Returned by cull() for a sphere that is wholly outside. */
+    public static final int OUTSIDE = -1;
+
+    // a, b, c, d of each plane, normalized, with the inside where ax+by+cz+d >= 0
+    private final double[] planes = new double[24];
+
+    private double eyeX, eyeY, eyeZ;
+    private double pixelScale;        // pixels per unit at distance 1 (perspective) or anywhere (orthographic)
+    private boolean orthographic;
+    private float lodBias = 1;
+
+    private int visible, culled;
+    private final int[] levels = new int[LevelOfDetail.LEVELS];
+
+    /**
+     * Sets the planes from a combined projection * view matrix (Gribb and
+     * Hartmann's method).
+     */
+    public void set(Mat4 viewProjection) {
+        double[] m = viewProjection.m;
+        for (int i = 0; i < 6; i++) {
+            int row = i / 2;                  // x, y or z row of the matrix
+            double sign = (i % 2 == 0) ? 1 : -1;
+            double a = m[3] + sign * m[row];
+            double b = m[7] + sign * m[4 + row];
+            double c = m[11] + sign * m[8 + row];
+            double d = m[15] + sign * m[12 + row];
+            double length = Math.sqrt(a*a + b*b + c*c);
+            planes[i*4] = a / length;
+            planes[i*4 + 1] = b / length;
+            planes[i*4 + 2] = c / length;
+            planes[i*4 + 3] = d / length;
+        }
+    }
+
+    /**
+     * Sets what projectedRadius() needs: the eye, and the viewport height
+     * in pixels times half of element [1][1] of the projection matrix.
+     */
+    public void setProjection(Vec3 eye, double pixelScale, boolean orthographic) {
+        eyeX = eye.x;
+        eyeY = eye.y;
+        eyeZ = eye.z;
+        this.pixelScale = pixelScale;
+        this.orthographic = orthographic;
+    }
+
+    /**
+     * Sets the quality bias for levels of detail: projected sizes are
+     * multiplied by it, so 2 keeps fine meshes out to twice the distance
+     * and 0.5 switches to coarse ones sooner.  The default is 1.
+     */
+    public void setLodBias(float lodBias) {
+        this.lodBias = lodBias;
+    }
+
+    public float getLodBias() {
+        return lodBias;
+    }
+
+    /**
+     * Returns the radius in pixels, times the LOD bias, of a sphere
+     * (x, y, z, radius) on screen.  A sphere around the eye is infinitely
+     * big.
+     */
+    public float projectedRadius(float x, float y, float z, float radius) {
+        if (orthographic)
+            return (float)(radius * pixelScale) * lodBias;
+        double dx = x - eyeX, dy = y - eyeY, dz = z - eyeZ;
+        double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        if (distance <= radius)
+            return Float.POSITIVE_INFINITY;
+        return (float)(radius * pixelScale / distance) * lodBias;
+    }
+
+    /**
+     * Returns the a, b, c and d of one plane, such as Frustum.LEFT, in out.
+     */
+    public double[] getPlane(int plane, double[] out) {
+        System.arraycopy(planes, plane * 4, out, 0, 4);
+        return out;
+    }
+
+    /**
+     * Tests a sphere (x, y, z, radius) against the planes in the mask.
+     * @return OUTSIDE if the sphere is wholly outside one of them, otherwise
+     *   the mask without the planes the sphere is wholly inside; 0 means it
+     *   is inside the frustum.  A sphere with a negative radius is unbounded
+     *   and gets the mask back unchanged.
+     */
+    public int cull(float[] sphere, int mask) {
+        float r = sphere[3];
+        if (r < 0 || mask == 0)
+            return mask;
+        for (int i = 0; i < 6; i++) {
+            int bit = 1 << i;
+            if ((mask & bit) == 0)
+                continue;
+            double distance = planes[i*4] * sphere[0] + planes[i*4 + 1] * sphere[1]
+                    + planes[i*4 + 2] * sphere[2] + planes[i*4 + 3];
+            if (distance < -r)
+                return OUTSIDE;
+            if (distance >= r)
+                mask &= ~bit;
+        }
+        return mask;
+    }
+
+    /**
+     * The same test for the sphere (x, y, z, r).
+     */
+    public int cull(float x, float y, float z, float r, int mask) {
+        if (r < 0 || mask == 0)
+            return mask;
+        for (int i = 0; i < 6; i++) {
+            int bit = 1 << i;
+            if ((mask & bit) == 0)
+                continue;
+            double distance = planes[i*4] * x + planes[i*4 + 1] * y + planes[i*4 + 2] * z + planes[i*4 + 3];
+            if (distance < -r)
+                return OUTSIDE;
+            if (distance >= r)
+                mask &= ~bit;
+        }
+        return mask;
+    }
+
+    /**
+     * The same test for the box with corners (min x, y, z) and (max x, y, z)
+     * at boxes[at] to boxes[at + 5]: outside a plane if its corner furthest
+     * along the plane's normal is, inside if the corner least far is.
+     */
+    public int cullBox(float[] boxes, int at, int mask) {
+        for (int i = 0; i < 6; i++) {
+            int bit = 1 << i;
+            if ((mask & bit) == 0)
+                continue;
+            double a = planes[i*4], b = planes[i*4 + 1], c = planes[i*4 + 2], d = planes[i*4 + 3];
+            double far = a * boxes[at + (a >= 0 ? 3 : 0)] + b * boxes[at + (b >= 0 ? 4 : 1)]
+                    + c * boxes[at + (c >= 0 ? 5 : 2)] + d;
+            if (far < 0)
+                return OUTSIDE;
+            double near = a * boxes[at + (a >= 0 ? 0 : 3)] + b * boxes[at + (b >= 0 ? 1 : 4)]
+                    + c * boxes[at + (c >= 0 ? 2 : 5)] + d;
+            if (near >= 0)
+                mask &= ~bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Clears the counts for a new frame.
+     */
+    public void resetCounts() {
+        visible = culled = 0;
+        for (int i = 0; i < levels.length; i++)
+            levels[i] = 0;
+    }
+
+    /**
+     * Counts one object, or one cow of the herd, drawn at a level of detail.
+     */
+    public void countLevel(int level) {
+        levels[level]++;
+    }
+
+    /**
+     * Counts n objects drawn at a level of detail.
+     */
+    public void countLevel(int level, int n) {
+        levels[level] += n;
+    }
+
+    /** Objects drawn at a level of detail since resetCounts(). */
+    public int getLevelCount(int level) {
+        return levels[level];
+    }
+
+    public void countVisible() {
+        visible++;
+    }
+
+    public void countCulled(int objects) {
+        culled += objects;
+    }
+
+    /** Objects drawn since resetCounts(). */
+    public int getVisible() {
+        return visible;
+    }
+
+    /** Objects skipped because they were outside, since resetCounts(). */
+    public int getCulled() {
+        return culled;
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * File: GLCommandLog.java
+ * CMSC 405
+ * Description: A compact binary log of GL calls, written by GLRecorder and
+ *  replayed by replay().  The first time a method appears it is defined by
+ *  name and parameter types; after that each call is the method's number
+ *  followed by its arguments.  Ints and longs are stored as variable-length
+ *  zigzag numbers, so the small enums and counts that make up most calls
+ *  take a byte or two.  Arrays and NIO buffers are stored by value from
+ *  their position to their limit.
+ *      Object names (buffer ids, programs) are replayed as they were
+ *  recorded, so a log replays into the context it came from, or one set up
+ *  the same way, or into a NoOpGL for counting.
+ *
+ *  java GLCommandLog FILE   replays FILE into a no-op GL and prints its counts
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL4bc;
+
+public final class GLCommandLog {
+
+    private static final int MAGIC = 0x474C5231;   // "GLR1"
+    private static final int DEFINE = 0;           // a method definition follows
+
+    //tags for object arguments
+    private static final int NULL = 0, INTS = 1, FLOATS = 2, DOUBLES = 3, BYTES = 4, SHORTS = 5, LONGS = 6,
+            STRING = 7, STRINGS = 8, BYTE_BUFFER = 9, FLOAT_BUFFER = 10, INT_BUFFER = 11,
+            DOUBLE_BUFFER = 12, SHORT_BUFFER = 13, LONG_BUFFER = 14;
+
+    private GLCommandLog() {
+    }
+
+    /**
+     * Writes calls to a stream.
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Map<Method,Integer> ids = new HashMap<Method,Integer>();
+        private long calls;
+
+        /**
+         * @throws IOException if the header cannot be written.
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * Appends one call.
+         * @throws IOException if the stream fails.
+         * @throws IllegalArgumentException if an argument has a type the log cannot hold.
+         */
+        public void write(Method method, Object[] args) throws IOException {
+            Integer id = ids.get(method);
+            if (id == null) {
+                id = ids.size() + 1;
+                ids.put(method, id);
+                writeVarLong(out, DEFINE);
+                out.writeUTF(method.getName());
+                Class<?>[] types = method.getParameterTypes();
+                writeVarLong(out, types.length);
+                for (Class<?> type : types)
+                    out.writeUTF(type.getName());
+            }
+            writeVarLong(out, id);
+            Class<?>[] types = method.getParameterTypes();
+            for (int i = 0; i < types.length; i++)
+                writeValue(out, types[i], args[i]);
+            calls++;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Issues every call in the log on gl.
+     * @return the number of calls replayed
+     * @throws IOException if the log is damaged or names a method gl does not have.
+     */
+    public static long replay(InputStream in, GL2 gl) throws IOException {
+        //GLRecorder logs GL4bc methods, which every desktop GL implements
+        Class<?> api = gl instanceof GL4bc ? GL4bc.class : GL2.class;
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC)
+            throw new IOException("Not a GL command log");
+        List<Method> methods = new ArrayList<Method>();
+        methods.add(null);   // ids start at 1
+        long calls = 0;
+        while (true) {
+            long id;
+            try {
+                id = readVarLong(data);
+            }
+            catch (EOFException e) {
+                return calls;
+            }
+            if (id == DEFINE) {
+                String name = data.readUTF();
+                Class<?>[] types = new Class<?>[(int)readVarLong(data)];
+                for (int i = 0; i < types.length; i++)
+                    types[i] = typeFor(data.readUTF());
+                try {
+                    methods.add(api.getMethod(name, types));
+                }
+                catch (NoSuchMethodException e) {
+                    throw new IOException(api.getSimpleName() + " has no method " + name, e);
+                }
+                continue;
+            }
+            if (id >= methods.size())
+                throw new IOException("Undefined method " + id);
+            Method method = methods.get((int)id);
+            Class<?>[] types = method.getParameterTypes();
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; i++)
+                args[i] = readValue(data, types[i]);
+            try {
+                method.invoke(gl, args);
+            }
+            catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+            catch (InvocationTargetException e) {
+                throw new IOException("Replaying " + method.getName() + " failed", e.getCause());
+            }
+            calls++;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java GLCommandLog FILE");
+            return;
+        }
+        GLRecorder recorder = new GLRecorder();
+        GL2 gl = recorder.wrap(NoOpGL.create(600, 600));
+        recorder.beginFrame();
+        long calls;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            calls = replay(in, gl);
+        }
+        finally {
+            in.close();
+        }
+        recorder.endFrame();
+        System.out.println(calls + " calls: " + recorder.summary());
+    }
+
+    private static Class<?> typeFor(String name) throws IOException {
+        switch (name) {
+        case "int": return int.class;
+        case "long": return long.class;
+        case "short": return short.class;
+        case "byte": return byte.class;
+        case "boolean": return boolean.class;
+        case "char": return char.class;
+        case "float": return float.class;
+        case "double": return double.class;
+        default:
+            try {
+                return Class.forName(name);
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Unknown parameter type " + name, e);
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+        if (type == int.class)
+            writeVarLong(out, zigzag((Integer)value));
+        else if (type == long.class)
+            writeVarLong(out, zigzag((Long)value));
+        else if (type == short.class)
+            writeVarLong(out, zigzag((Short)value));
+        else if (type == byte.class)
+            out.writeByte((Byte)value);
+        else if (type == boolean.class)
+            out.writeBoolean((Boolean)value);
+        else if (type == char.class)
+            out.writeChar((Character)value);
+        else if (type == float.class)
+            out.writeFloat((Float)value);
+        else if (type == double.class)
+            out.writeDouble((Double)value);
+        else
+            writeObject(out, value);
+    }
+
+    private static Object readValue(DataInputStream in, Class<?> type) throws IOException {
+        if (type == int.class)
+            return (int)unzigzag(readVarLong(in));
+        if (type == long.class)
+            return unzigzag(readVarLong(in));
+        if (type == short.class)
+            return (short)unzigzag(readVarLong(in));
+        if (type == byte.class)
+            return in.readByte();
+        if (type == boolean.class)
+            return in.readBoolean();
+        if (type == char.class)
+            return in.readChar();
+        if (type == float.class)
+            return in.readFloat();
+        if (type == double.class)
+            return in.readDouble();
+        return readObject(in);
+    }
+
+    private static void writeObject(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof int[]) {
+            int[] a = (int[])value;
+            out.writeByte(INTS);
+            writeVarLong(out, a.length);
+            for (int v : a)
+                writeVarLong(out, zigzag(v));
+        }
+        else if (value instanceof float[]) {
+            float[] a = (float[])value;
+            out.writeByte(FLOATS);
+            writeVarLong(out, a.length);
+            for (float v : a)
+                out.writeFloat(v);
+        }
+        else if (value instanceof double[]) {
+            double[] a = (double[])value;
+            out.writeByte(DOUBLES);
+            writeVarLong(out, a.length);
+            for (double v : a)
+                out.writeDouble(v);
+        }
+        else if (value instanceof byte[]) {
+            byte[] a = (byte[])value;
+            out.writeByte(BYTES);
+            writeVarLong(out, a.length);
+            out.write(a);
+        }
+        else if (value instanceof short[]) {
+            short[] a = (short[])value;
+            out.writeByte(SHORTS);
+            writeVarLong(out, a.length);
+            for (short v : a)
+                out.writeShort(v);
+        }
+        else if (value instanceof long[]) {
+            long[] a = (long[])value;
+            out.writeByte(LONGS);
+            writeVarLong(out, a.length);
+            for (long v : a)
+                out.writeLong(v);
+        }
+        else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String)value);
+        }
+        else if (value instanceof String[]) {
+            String[] a = (String[])value;
+            out.writeByte(STRINGS);
+            writeVarLong(out, a.length);
+            for (String s : a)
+                writeString(out, s);
+        }
+        else if (value instanceof Buffer) {
+            writeBuffer(out, (Buffer)value);
+        }
+        else {
+            throw new IllegalArgumentException("Cannot log an argument of type " + value.getClass().getName());
+        }
+    }
+
+    //from position to limit; the buffer itself is not moved
+    private static void writeBuffer(DataOutputStream out, Buffer buffer) throws IOException {
+        int n = buffer.remaining();
+        if (buffer instanceof ByteBuffer) {
+            ByteBuffer b = ((ByteBuffer)buffer).duplicate();
+            out.writeByte(BYTE_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeByte(b.get());
+        }
+        else if (buffer instanceof FloatBuffer) {
+            FloatBuffer b = ((FloatBuffer)buffer).duplicate();
+            out.writeByte(FLOAT_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeFloat(b.get());
+        }
+        else if (buffer instanceof IntBuffer) {
+            IntBuffer b = ((IntBuffer)buffer).duplicate();
+            out.writeByte(INT_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeInt(b.get());
+        }
+        else if (buffer instanceof DoubleBuffer) {
+            DoubleBuffer b = ((DoubleBuffer)buffer).duplicate();
+            out.writeByte(DOUBLE_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeDouble(b.get());
+        }
+        else if (buffer instanceof ShortBuffer) {
+            ShortBuffer b = ((ShortBuffer)buffer).duplicate();
+            out.writeByte(SHORT_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeShort(b.get());
+        }
+        else if (buffer instanceof LongBuffer) {
+            LongBuffer b = ((LongBuffer)buffer).duplicate();
+            out.writeByte(LONG_BUFFER);
+            writeVarLong(out, n);
+            for (int i = 0; i < n; i++)
+                out.writeLong(b.get());
+        }
+        else {
+            throw new IllegalArgumentException("Cannot log a " + buffer.getClass().getName());
+        }
+    }
+
+    private static Object readObject(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == NULL)
+            return null;
+        if (tag == STRING)
+            return readString(in);
+        int n = (int)readVarLong(in);
+        switch (tag) {
+        case INTS: {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++)
+                a[i] = (int)unzigzag(readVarLong(in));
+            return a;
+        }
+        case FLOATS: {
+            float[] a = new float[n];
+            for (int i = 0; i < n; i++)
+                a[i] = in.readFloat();
+            return a;
+        }
+        case DOUBLES: {
+            double[] a = new double[n];
+            for (int i = 0; i < n; i++)
+                a[i] = in.readDouble();
+            return a;
+        }
+        case BYTES: {
+            byte[] a = new byte[n];
+            in.readFully(a);
+            return a;
+        }
+        case SHORTS: {
+            short[] a = new short[n];
+            for (int i = 0; i < n; i++)
+                a[i] = in.readShort();
+            return a;
+        }
+        case LONGS: {
+            long[] a = new long[n];
+            for (int i = 0; i < n; i++)
+                a[i] = in.readLong();
+            return a;
+        }
+        case STRINGS: {
+            String[] a = new String[n];
+            for (int i = 0; i < n; i++)
+                a[i] = readString(in);
+            return a;
+        }
+        case BYTE_BUFFER: {
+            ByteBuffer b = direct(n);
+            for (int i = 0; i < n; i++)
+                b.put(in.readByte());
+            b.flip();
+            return b;
+        }
+        case FLOAT_BUFFER: {
+            FloatBuffer b = direct(n * 4).asFloatBuffer();
+            for (int i = 0; i < n; i++)
+                b.put(in.readFloat());
+            b.flip();
+            return b;
+        }
+        case INT_BUFFER: {
+            IntBuffer b = direct(n * 4).asIntBuffer();
+            for (int i = 0; i < n; i++)
+                b.put(in.readInt());
+            b.flip();
+            return b;
+        }
+        case DOUBLE_BUFFER: {
+            DoubleBuffer b = direct(n * 8).asDoubleBuffer();
+            for (int i = 0; i < n; i++)
+                b.put(in.readDouble());
+            b.flip();
+            return b;
+        }
+        case SHORT_BUFFER: {
+            ShortBuffer b = direct(n * 2).asShortBuffer();
+            for (int i = 0; i < n; i++)
+                b.put(in.readShort());
+            b.flip();
+            return b;
+        }
+        case LONG_BUFFER: {
+            LongBuffer b = direct(n * 8).asLongBuffer();
+            for (int i = 0; i < n; i++)
+                b.put(in.readLong());
+            b.flip();
+            return b;
+        }
+        default:
+            throw new IOException("Bad argument tag " + tag);
+        }
+    }
+
+    private static ByteBuffer direct(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    //writeUTF is limited to 64K, which shader sources can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int)readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int)(v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int)v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Bad variable-length number");
+    }
+}
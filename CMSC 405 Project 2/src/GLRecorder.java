@@ -0,0 +1,278 @@
+/*
+ * File: GLRecorder.java
+ * CMSC 405
+ * Description: A GL2 wrapper that watches what a frame sends to the driver.
+ *  wrap() returns a ForwardingGL that forwards every call to the real GL (or
+ *  to a NoOpGL when there is no GPU) and counts it by kind: vertex data,
+ *  glBegin/glEnd pairs, matrix operations, state changes and draw calls.  The
+ *  counts of the last complete frame can be checked against budgets, and a
+ *  frame's calls can be written to a GLCommandLog for replay.  Install it
+ *  with drawable.setGL(recorder.wrap(gl)) and bracket each frame with
+ *  beginFrame() and endFrame().
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jogamp.opengl.GL2;
+
+public class GLRecorder {
+
+    /**
+     * The kinds of GL call that are counted.
+     */
+    public enum Category {
+        /** glVertex, glNormal, glColor and glTexCoord */
+        VERTEX,
+        /** glBegin, so one per glBegin/glEnd pair */
+        BEGIN_END,
+        /** matrix stack and transform calls */
+        MATRIX,
+        /** enables, bindings, pointers, programs, uniforms, lights and materials */
+        STATE,
+        /** glDrawArrays, glDrawElements and their variants */
+        DRAW,
+        /** every other gl call */
+        OTHER
+    }
+
+    private static final Category[] CATEGORIES = Category.values();
+    /** The category ordinal of each gl call, by its ForwardingGL number. */
+    private static final byte[] CATEGORY_OF = new byte[ForwardingGL.getMethodCount()];
+    static {
+        for (int i = 0; i < CATEGORY_OF.length; i++)
+            CATEGORY_OF[i] = (byte)classify(ForwardingGL.getMethodName(i)).ordinal();
+    }
+
+    private GL2 target;
+
+    private final long[] current = new long[CATEGORIES.length];
+    private final long[] last = new long[CATEGORIES.length];
+    private final long[] budgets = new long[CATEGORIES.length];
+    private long frames;
+
+    private GLCommandLog.Writer log;
+    private File pendingLog;          // log the next frame to this file
+    private boolean frameLog;         // the open log covers only the current frame
+    private IOException logError;     // the first write to the log that failed
+
+    public GLRecorder() {
+        Arrays.fill(budgets, -1);
+    }
+
+    /**
+     * Returns a GL2 that counts every call and forwards it to target.
+     * getGL() and getGL2() on the result return the wrapper, so code that
+     * asks the drawable for its GL keeps going through it.
+     */
+    public GL2 wrap(GL2 target) {
+        this.target = target;
+        return new Recorder(target);
+    }
+
+    public GL2 getTarget() {
+        return target;
+    }
+
+    /** The wrapper: counts each gl call, and logs it while recording. */
+    private class Recorder extends ForwardingGL {
+
+        Recorder(GL2 target) {
+            super(target);
+        }
+
+        @Override
+        protected boolean called(int method) {
+            current[CATEGORY_OF[method]]++;
+            //after a failed write, the rest of the recording is not logged
+            return log != null && logError == null;
+        }
+
+        @Override
+        protected void logged(int method, Object... args) {
+            //a failed write is kept for endFrame() or stopRecording() to
+            //throw, rather than failing the GL call
+            try {
+                log.write(ForwardingGL.getMethod(method), args);
+            }
+            catch (IOException e) {
+                logError = e;
+            }
+            catch (IllegalArgumentException e) {
+                //an argument the log cannot hold, such as a PointerBuffer
+                logError = new IOException("Cannot log " + ForwardingGL.getMethodName(method), e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "GLRecorder(" + target + ")";
+        }
+    }
+
+    /**
+     * Returns the category of the gl call with the given name.
+     */
+    static Category classify(String name) {
+        if (name.startsWith("glVertex") && !name.startsWith("glVertexAttrib") && !name.startsWith("glVertexPointer")
+                || name.startsWith("glNormal3") || name.startsWith("glColor3") || name.startsWith("glColor4")
+                || name.startsWith("glTexCoord2") || name.startsWith("glTexCoord3"))
+            return Category.VERTEX;
+        if (name.equals("glBegin"))
+            return Category.BEGIN_END;
+        if (name.equals("glEnd"))
+            return Category.OTHER;
+        if (name.startsWith("glDraw") || name.startsWith("glMultiDraw") || name.startsWith("glCallList"))
+            return Category.DRAW;
+        if (name.equals("glMatrixMode") || name.equals("glLoadIdentity")
+                || name.startsWith("glPushMatrix") || name.startsWith("glPopMatrix")
+                || name.startsWith("glLoadMatrix") || name.startsWith("glMultMatrix")
+                || name.startsWith("glTranslate") || name.startsWith("glRotate") || name.startsWith("glScale")
+                || name.equals("glOrtho") || name.equals("glFrustum"))
+            return Category.MATRIX;
+        if (name.startsWith("glEnable") || name.startsWith("glDisable") || name.startsWith("glBind")
+                || name.equals("glUseProgram") || name.startsWith("glUniform")
+                || name.endsWith("Pointer") || name.startsWith("glVertexAttribDivisor")
+                || name.startsWith("glLight") || name.startsWith("glMaterial") || name.startsWith("glColorMaterial")
+                || name.startsWith("glBlend") || name.startsWith("glDepth") || name.startsWith("glCullFace")
+                || name.startsWith("glPointSize") || name.startsWith("glLineWidth") || name.startsWith("glShadeModel")
+                || name.startsWith("glClearColor") || name.startsWith("glActiveTexture"))
+            return Category.STATE;
+        return Category.OTHER;
+    }
+
+    /**
+     * Starts counting a new frame.  Opens the log if a recording of this
+     * frame was asked for.
+     * @throws IOException if the log file cannot be created.
+     */
+    public void beginFrame() throws IOException {
+        Arrays.fill(current, 0);
+        if (pendingLog != null) {
+            File file = pendingLog;
+            pendingLog = null;
+            startRecording(new FileOutputStream(file));
+            frameLog = true;
+        }
+    }
+
+    /**
+     * Ends the frame: its counts become the ones returned by getCount(),
+     * and a log started for the frame is closed.  So is any log a call of
+     * the frame could not be written to.
+     * @throws IOException if the log cannot be written.
+     */
+    public void endFrame() throws IOException {
+        System.arraycopy(current, 0, last, 0, current.length);
+        frames++;
+        if (frameLog || logError != null)
+            stopRecording();
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of calls of a category in the last complete frame.
+     */
+    public long getCount(Category category) {
+        return last[category.ordinal()];
+    }
+
+    /**
+     * Returns the number of calls of a category so far in the current frame.
+     */
+    public long getCurrentCount(Category category) {
+        return current[category.ordinal()];
+    }
+
+    /**
+     * Sets the most calls of a category one frame may make, or -1 for no limit.
+     */
+    public void setBudget(Category category, long max) {
+        budgets[category.ordinal()] = max;
+    }
+
+    /**
+     * Returns a description of each budget the last frame went over; the
+     * list is empty if every budget was kept.
+     */
+    public List<String> overBudget() {
+        List<String> over = new ArrayList<String>();
+        for (Category c : CATEGORIES) {
+            long budget = budgets[c.ordinal()];
+            if (budget >= 0 && last[c.ordinal()] > budget)
+                over.add(c + ": " + last[c.ordinal()] + " calls, budget " + budget);
+        }
+        return over;
+    }
+
+    /**
+     * @throws AssertionError if the last frame went over any budget.
+     */
+    public void assertWithinBudget() {
+        List<String> over = overBudget();
+        if (!over.isEmpty())
+            throw new AssertionError("Frame " + (frames - 1) + " over budget: " + over);
+    }
+
+    /**
+     * Writes every call of the next frame to the given file.
+     */
+    public void recordNextFrame(File file) {
+        pendingLog = file;
+    }
+
+    /**
+     * Starts writing every call to out, until stopRecording().
+     * @throws IOException if the log header cannot be written.
+     */
+    public void startRecording(OutputStream out) throws IOException {
+        if (log != null)
+            stopRecording();
+        log = new GLCommandLog.Writer(out);
+    }
+
+    /**
+     * @throws IOException if the log cannot be finished, or a call could
+     *   not be written to it.
+     */
+    public void stopRecording() throws IOException {
+        GLCommandLog.Writer w = log;
+        log = null;
+        frameLog = false;
+        try {
+            if (w != null)
+                w.close();
+        }
+        finally {
+            throwLogError();
+        }
+    }
+
+    private void throwLogError() throws IOException {
+        IOException e = logError;
+        logError = null;
+        if (e != null)
+            throw e;
+    }
+
+    /**
+     * Returns the counts of the last frame, like "draw 40, state 180, ...".
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Category c : CATEGORIES) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(c.name().toLowerCase().replace('_', '/')).append(' ').append(last[c.ordinal()]);
+        }
+        return sb.toString();
+    }
+}
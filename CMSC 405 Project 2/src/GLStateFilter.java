@@ -0,0 +1,359 @@
+/*
+ * File: GLStateFilter.java
+ * CMSC 405
+ * Description: A GL2 wrapper that drops state changes which change nothing.
+ *  wrap() returns a ForwardingGL that shadows the current color, the clear
+ *  color, the common enable bits and client arrays, the front-and-back
+ *  emission, specular and shininess, the bound array, element and uniform
+ *  buffers and the current program, and forwards a call only if it sets
+ *  something different.  Everything else passes straight through.  What is
+ *  shadowed is forgotten at beginFrame(), since the toolkit may draw with the
+ *  same context between frames, and whenever a call could change it behind
+ *  the filter's back (glPopAttrib, deleting a buffer or program, drawing
+ *  with a color array, a glColor variant that is not shadowed).  Install it with drawable.setGL(filter.wrap(gl)).
+ */
+
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL3;
+
+public class GLStateFilter {
+
+    /** Capabilities whose glEnable/glDisable state is shadowed. */
+    private static final int[] CAPS = {
+        GL2.GL_LIGHTING, GL2.GL_LIGHT0, GL2.GL_LIGHT1, GL2.GL_LIGHT2, GL2.GL_LIGHT3,
+        GL2.GL_LIGHT4, GL2.GL_LIGHT5, GL2.GL_LIGHT6, GL2.GL_LIGHT7,
+        GL2.GL_DEPTH_TEST, GL2.GL_NORMALIZE, GL2.GL_COLOR_MATERIAL, GL2.GL_CULL_FACE,
+        GL2.GL_BLEND, GL2.GL_POINT_SPRITE, GL3.GL_PROGRAM_POINT_SIZE
+    };
+    /** Client arrays whose glEnableClientState/glDisableClientState state is shadowed. */
+    private static final int[] ARRAYS = { GL2.GL_VERTEX_ARRAY, GL2.GL_NORMAL_ARRAY, GL2.GL_COLOR_ARRAY };
+    /** Buffer targets whose binding is shadowed. */
+    private static final int[] TARGETS = { GL2.GL_ARRAY_BUFFER, GL2.GL_ELEMENT_ARRAY_BUFFER, GL2.GL_UNIFORM_BUFFER };
+    /** Material parameters shadowed for GL_FRONT_AND_BACK. */
+    private static final int[] MATERIALS = { GL2.GL_EMISSION, GL2.GL_SPECULAR, GL2.GL_SHININESS };
+
+    private static final byte UNKNOWN = 0, ON = 1, OFF = 2;
+    private static final int COLOR_ARRAY = 2;    // index of GL_COLOR_ARRAY in ARRAYS
+
+    // what each gl call that is not overridden below does to the shadow, by
+    // its ForwardingGL number
+    private static final byte OTHER = 0, DRAW = 1, FORGET_BUFFERS = 2, FORGET_PROGRAM = 3, FORGET_ALL = 4,
+            FORGET_COLOR = 5;
+    private static final byte[] EFFECTS = new byte[ForwardingGL.getMethodCount()];
+    static {
+        for (int i = 0; i < EFFECTS.length; i++) {
+            String name = ForwardingGL.getMethodName(i);
+            if (name.startsWith("glDraw") || name.startsWith("glMultiDraw") || name.startsWith("glCallList"))
+                EFFECTS[i] = DRAW;
+            else if (name.equals("glDeleteBuffers"))
+                EFFECTS[i] = FORGET_BUFFERS;
+            else if (name.equals("glDeleteProgram"))
+                EFFECTS[i] = FORGET_PROGRAM;
+            else if (name.equals("glPopAttrib") || name.equals("glPopClientAttrib"))
+                EFFECTS[i] = FORGET_ALL;
+            //glColor3fv, glColor4ub, glColorP3ui and the rest set the color too
+            else if ((name.startsWith("glColor3") || name.startsWith("glColor4") || name.startsWith("glColorP"))
+                    && !name.equals("glColor3f") && !name.equals("glColor3d") && !name.equals("glColor4f"))
+                EFFECTS[i] = FORGET_COLOR;
+        }
+    }
+
+    private GL2 target;
+
+    private final float[] color = new float[4];
+    private boolean colorKnown;
+    private final float[] clearColor = new float[4];
+    private boolean clearColorKnown;
+    private final byte[] caps = new byte[CAPS.length];
+    private final byte[] arrays = new byte[ARRAYS.length];
+    private final int[] buffers = new int[TARGETS.length];
+    private final boolean[] buffersKnown = new boolean[TARGETS.length];
+    private final float[][] materials = new float[MATERIALS.length][4];
+    private final boolean[] materialsKnown = new boolean[MATERIALS.length];
+    private int program;
+    private boolean programKnown;
+
+    private int filtered, lastFiltered;
+    private int passed, lastPassed;
+
+    /**
+     * Returns a GL2 that filters redundant state changes and forwards the
+     * rest to target.  getGL() and getGL2() on the result return the
+     * wrapper, so code that asks the drawable for its GL keeps going
+     * through it.
+     */
+    public GL2 wrap(GL2 target) {
+        this.target = target;
+        forget();
+        return new Filter(target);
+    }
+
+    public GL2 getTarget() {
+        return target;
+    }
+
+    /**
+     * Starts a frame: keeps the last frame's counts and forgets the
+     * shadowed state.
+     */
+    public void beginFrame() {
+        lastFiltered = filtered;
+        lastPassed = passed;
+        filtered = passed = 0;
+        forget();
+    }
+
+    /** Calls dropped in the last complete frame. */
+    public int getFiltered() {
+        return lastFiltered;
+    }
+
+    /** Calls forwarded in the last complete frame. */
+    public int getPassed() {
+        return lastPassed;
+    }
+
+    /**
+     * Forgets everything shadowed, so the next change of each kind is sent.
+     */
+    public void forget() {
+        colorKnown = clearColorKnown = programKnown = false;
+        Arrays.fill(caps, UNKNOWN);
+        Arrays.fill(arrays, UNKNOWN);
+        Arrays.fill(buffersKnown, false);
+        Arrays.fill(materialsKnown, false);
+    }
+
+    /** The wrapper: the shadowed calls are overridden, the rest only counted. */
+    private class Filter extends ForwardingGL {
+
+        Filter(GL2 target) {
+            super(target);
+        }
+
+        @Override
+        protected boolean called(int method) {
+            passed++;
+            switch (EFFECTS[method]) {
+            case DRAW:
+                //drawing from a color array leaves the current color undefined
+                if (arrays[COLOR_ARRAY] != OFF)
+                    colorKnown = false;
+                break;
+            case FORGET_BUFFERS:
+                Arrays.fill(buffersKnown, false);
+                break;
+            case FORGET_PROGRAM:
+                programKnown = false;
+                break;
+            case FORGET_ALL:
+                forget();
+                break;
+            case FORGET_COLOR:
+                colorKnown = false;
+                break;
+            default:
+                break;
+            }
+            return false;
+        }
+
+        @Override
+        public void glColor3f(float r, float g, float b) {
+            if (color(r, g, b, 1))
+                super.glColor3f(r, g, b);
+        }
+
+        @Override
+        public void glColor3d(double r, double g, double b) {
+            if (color((float)r, (float)g, (float)b, 1))
+                super.glColor3d(r, g, b);
+        }
+
+        @Override
+        public void glColor4f(float r, float g, float b, float a) {
+            if (color(r, g, b, a))
+                super.glColor4f(r, g, b, a);
+        }
+
+        @Override
+        public void glClearColor(float r, float g, float b, float a) {
+            if (clearColorKnown && clearColor[0] == r && clearColor[1] == g && clearColor[2] == b && clearColor[3] == a) {
+                filtered++;
+                return;
+            }
+            clearColor[0] = r;
+            clearColor[1] = g;
+            clearColor[2] = b;
+            clearColor[3] = a;
+            clearColorKnown = true;
+            super.glClearColor(r, g, b, a);
+        }
+
+        @Override
+        public void glEnable(int cap) {
+            if (toggle(caps, CAPS, cap, true))
+                super.glEnable(cap);
+        }
+
+        @Override
+        public void glDisable(int cap) {
+            if (toggle(caps, CAPS, cap, false))
+                super.glDisable(cap);
+        }
+
+        @Override
+        public void glEnableClientState(int array) {
+            if (toggle(arrays, ARRAYS, array, true))
+                super.glEnableClientState(array);
+        }
+
+        @Override
+        public void glDisableClientState(int array) {
+            if (toggle(arrays, ARRAYS, array, false))
+                super.glDisableClientState(array);
+        }
+
+        @Override
+        public void glMaterialfv(int face, int name, float[] values, int offset) {
+            int m = indexOf(MATERIALS, name);
+            boolean shininess = name == GL2.GL_SHININESS;
+            if (m < 0 || material(face, m, values[offset], shininess ? 0 : values[offset + 1],
+                    shininess ? 0 : values[offset + 2], shininess ? 0 : values[offset + 3]))
+                super.glMaterialfv(face, name, values, offset);
+        }
+
+        @Override
+        public void glMaterialf(int face, int name, float value) {
+            int m = indexOf(MATERIALS, name);
+            if (m < 0 || material(face, m, value, 0, 0, 0))
+                super.glMaterialf(face, name, value);
+        }
+
+        @Override
+        public void glMateriali(int face, int name, int value) {
+            int m = indexOf(MATERIALS, name);
+            if (m < 0 || material(face, m, value, 0, 0, 0))
+                super.glMateriali(face, name, value);
+        }
+
+        @Override
+        public void glBindBuffer(int bufferTarget, int buffer) {
+            int t = indexOf(TARGETS, bufferTarget);
+            if (t >= 0 && buffersKnown[t] && buffers[t] == buffer) {
+                filtered++;
+                return;
+            }
+            if (t >= 0) {
+                buffers[t] = buffer;
+                buffersKnown[t] = true;
+            }
+            super.glBindBuffer(bufferTarget, buffer);
+        }
+
+        //glBindBufferBase/Range also bind the generic target, and their indexed
+        //binding is not shadowed, so they are always sent
+
+        @Override
+        public void glBindBufferBase(int bufferTarget, int index, int buffer) {
+            bound(bufferTarget, buffer);
+            super.glBindBufferBase(bufferTarget, index, buffer);
+        }
+
+        @Override
+        public void glBindBufferRange(int bufferTarget, int index, int buffer, long offset, long size) {
+            bound(bufferTarget, buffer);
+            super.glBindBufferRange(bufferTarget, index, buffer, offset, size);
+        }
+
+        @Override
+        public void glUseProgram(int id) {
+            if (programKnown && program == id) {
+                filtered++;
+                return;
+            }
+            program = id;
+            programKnown = true;
+            super.glUseProgram(id);
+        }
+
+        @Override
+        public String toString() {
+            return "GLStateFilter(" + target + ")";
+        }
+    }
+
+    /**
+     * Shadows a new current color.
+     * @return true if the call must be sent
+     */
+    private boolean color(float r, float g, float b, float a) {
+        if (colorKnown && color[0] == r && color[1] == g && color[2] == b && color[3] == a) {
+            filtered++;
+            return false;
+        }
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        color[3] = a;
+        colorKnown = true;
+        return true;
+    }
+
+    private void bound(int bufferTarget, int buffer) {
+        int t = indexOf(TARGETS, bufferTarget);
+        if (t >= 0) {
+            buffers[t] = buffer;
+            buffersKnown[t] = true;
+        }
+    }
+
+    /**
+     * Shadows an enable bit or client array.
+     * @return true if the call must be sent
+     */
+    private boolean toggle(byte[] state, int[] names, int name, boolean on) {
+        int i = indexOf(names, name);
+        if (i < 0)
+            return true;
+        byte wanted = on ? ON : OFF;
+        if (state[i] == wanted) {
+            filtered++;
+            return false;
+        }
+        state[i] = wanted;
+        return true;
+    }
+
+    /**
+     * Shadows material parameter MATERIALS[m]; shininess has only v0.
+     * @return true if the call must be sent
+     */
+    private boolean material(int face, int m, float v0, float v1, float v2, float v3) {
+        if (face != GL2.GL_FRONT_AND_BACK) {
+            materialsKnown[m] = false;   // only one side changes
+            return true;
+        }
+        float[] shadow = materials[m];
+        if (materialsKnown[m] && shadow[0] == v0 && shadow[1] == v1 && shadow[2] == v2 && shadow[3] == v3) {
+            filtered++;
+            return false;
+        }
+        shadow[0] = v0;
+        shadow[1] = v1;
+        shadow[2] = v2;
+        shadow[3] = v3;
+        materialsKnown[m] = true;
+        return true;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -14,7 +14,15 @@
 import java.awt.*;
 import java.awt.event.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.*;
 
@@ -27,708 +35,849 @@ public class GlorbaksCows extends JPanel implements GLEventListener {
     //serialized ID
     private static final long serialVersionUID = 1L;
 
-    //main - set up window
-    public static void main(String[] args) {
+    private static final long STRESS_STAGE_NANOS = 5000000000L;
+    private static final long LATENCY_REPORT_NANOS = 5000000000L;
+    //room for the lights' uniform block and the matrices of 1k moving cows;
+    //a bigger herd grows the stream's regions
+    private static final long STREAM_REGION_BYTES = 64 * 1024;
+
+    //the original animation advanced one frame per 30ms timer tick and
+    //started over after 400 frames
+    private static final double FRAME_SECONDS = 0.03;
+    private static final double LOOP_SECONDS = 400 * FRAME_SECONDS;
+
+    //where the stress herds are scattered, and the fence of a wandering herd
+    private static final float PASTURE_MIN_X = -60, PASTURE_MAX_X = 55;
+    private static final float PASTURE_MIN_Z = -50, PASTURE_MAX_Z = 60;
+    //how far from the spot beneath the ufo a cow counts as under it
+    private static final float UFO_REACH = 6;
+
+    //the kinds of object a pasture file can place, see pasture.scene
+    private static final int GRASS = 0, HOUSE = 1, COW = 2, MIRRORED_COW = 3,
+            HERD_COW = 4, MIRRORED_HERD_COW = 5, PLANET = 6;
+    private static final String[] PASTURE_KINDS = {
+        "grass", "house", "cow", "mirrored-cow", "herd-cow", "mirrored-herd-cow", "planet"
+    };
+
+    //main - set up window, see Options for the command line
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        if (options.outputDirectory != null) {
+            //no window: render the animation loop to PNG files
+            System.setProperty("java.awt.headless", "true");
+            GlorbaksCows scene = new GlorbaksCows(options);
+            OfflineRenderer renderer = new OfflineRenderer(options.width, options.height,
+                    options.frames, options.outputDirectory, options.workers);
+            renderer.render(scene, scene::seekFrame);
+            return;
+        }
         JFrame window = new JFrame("Glorbaks Cows");
-        GlorbaksCows panel = new GlorbaksCows();
+        GlorbaksCows panel = new GlorbaksCows(options);
         window.setContentPane(panel);
         window.pack();
         window.setLocation(50,50);
         window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         window.setVisible(true);
+        panel.display.requestFocusInWindow();
     }
 
     private GLJPanel display;
-    private Timer animationTimer;
+    private RenderLoop loop;
 
-    private int frameNumber = 0;  // The current frame number for an animation.
+    //the simulation clock advances in fixed steps; frames are drawn at a
+    //time interpolated between the last two steps
+    private double previousTime, simulationTime;
+    private double animationTime;   // the time being drawn, in seconds
 
     private Camera camera;
 
     private GLUT glut = new GLUT();
-    
-    private int frameCounter = 0;
+
+    private final MeshCache meshes;  // retained meshes, mapped or tessellated, uploaded in init()
+
+    private GroupNode scene = new GroupNode();  // everything in the world, built once
+
+    private Timeline timeline = new Timeline(LOOP_SECONDS);  // moves the animated nodes
+    private Vec3Track cameraTarget;
+    private final double[] target = new double[3];
+
+    private final SceneFile pasture;  // where the grass, house, cows and planets go
+    private Herd herd = new Herd();
+    private MeshNode herdNode;
+    private TransformNode ufo;      // cullSummary() counts the cows beneath it
+    private final boolean wander;   // the herd grazes and wanders, unless --still-herd
+    private StaticBatchNode staticBatch;
+    private final boolean cull;
+
+    //times each stage of the frame; P shows the overlay, C writes a CSV
+    private FrameProfiler profiler = new FrameProfiler();
+    private int setupStage = profiler.stage("setup");
+    private boolean showProfile;
+    private volatile boolean exportProfile;
+    private File profileCsv;       // where the CSV goes
+    private boolean exportOnExit;   // --profile-csv was given
+
+    //counts the GL calls of each frame when --gl-stats is given; R logs a frame
+    private GLRecorder recorder;
+    private volatile boolean recordFrame;
+    private long glStatsReported;
+    private int[] cowsBeneath = new int[0];   // cullSummary's scratch, grown with the herd
+
+    //drops state changes that change nothing, with --state-filter
+    private GLStateFilter stateFilter;
+
+    //the lights and a moving herd's matrices, written anew every frame
+    private final StreamBuffer stream;
+
+    private Starfield starfield;
+    private LightManager lights = new LightManager();
+    private Lighting lighting = new Lighting(lights);
+    private int redLight, greenLight, blueLight;
+    //with --glow the ufo, the planets and the meteors are lights too
+    private final boolean glow;
+    private final List<SceneNode> glowNodes = new ArrayList<SceneNode>();
+    private final List<Integer> glowLights = new ArrayList<Integer>();
+    private int viewportHeight = 600;
+
+    private int[] stressSizes;     // extra herd sizes still to be measured, or null
+    private boolean reportLatency;
+    private long lastLatencyReport;
+
+    private int stressStage = -1;
+    private long stressStageStart;
+    private int stressFrames;
+    private long stressDisplayNanos;
 
   /*
    * Default Constructor
    */
     public GlorbaksCows() {
+        this(new Options());
+    }
+
+  /*
+   * Constructor for the given command line options.  Each entry of
+   * options.herdSizes is shown for a few seconds and its frame rate is printed.
+   */
+    public GlorbaksCows(Options options) {
+        meshes = new MeshCache(options.meshes);
+        camera = new Camera();
+        camera.lookAt(12,10,35, -3.4,2,3.4, -.2,3,-.2);
+        camera.setScale(28);
+        camera.setInertia(options.inertia);
+        reportLatency = options.pacing;
+        cull = options.cull;
+        camera.getFrustum().setLodBias(options.lodBias);
+        stressSizes = options.herdSizes;
+        exportOnExit = options.profileCsv != null;
+        profileCsv = exportOnExit ? options.profileCsv : new File("frame-profile.csv");
+        if (options.glStats)
+            recorder = new GLRecorder();
+        if (options.stateFilter)
+            stateFilter = new GLStateFilter();
+        stream = new StreamBuffer(options.streamRegions, STREAM_REGION_BYTES);
+        starfield = new Starfield(options.starSeed, options.starCount);
+        starfield.setTwinkle(options.twinkle);
+        lighting.setShadersEnabled(options.shaders);
+        glow = options.glow;
+        wander = options.wander;
+        herd.setPasture(PASTURE_MIN_X, PASTURE_MIN_Z, PASTURE_MAX_X, PASTURE_MAX_Z);
+        if (options.herdThreads > 0)
+            herd.setPool(new ForkJoinPool(options.herdThreads));
+        herd.setCulling(cull);
+        pasture = loadPasture(options.scene);
+        addLights();
+        buildScene();
+        addMeteorLights();
+        lights.registerAll(scene);
+        if (!options.window)
+            return;   // headless, frames are drawn by an OfflineRenderer or a benchmark
         GLCapabilities caps = new GLCapabilities(null);
         display = new GLJPanel(caps);
         display.setPreferredSize( new Dimension(600,600) );
         display.addGLEventListener(this);
         setLayout(new BorderLayout());
         add(display,BorderLayout.CENTER);
-        camera = new Camera();
-        camera.lookAt(12,10,35, -3.4,2,3.4, -.2,3,-.2);
-        camera.setScale(28);
         camera.installTrackball(display);
-        animationTimer = new Timer(30, new ActionListener() {
-            public void actionPerformed(ActionEvent evt) {
-                frameNumber++;
-                
-                display.repaint();
+        display.setFocusable(true);
+        display.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent evt) {
+                if (evt.getKeyCode() == KeyEvent.VK_P)
+                    showProfile = !showProfile;
+                else if (evt.getKeyCode() == KeyEvent.VK_C)
+                    exportProfile = true;   // written from display(), where the profiler lives
+                else if (evt.getKeyCode() == KeyEvent.VK_R)
+                    recordFrame = true;
+            }
+        });
+        loop = new RenderLoop(display, options.loopDriver, options.targetFps, FRAME_SECONDS, dt -> {
+            previousTime = simulationTime;
+            simulationTime += dt;
+            if (wander && herd.size() > 0) {
+                herd.step(dt);
+                updateHerdBounds();
             }
         });
-        animationTimer.setInitialDelay(500);
-        animationTimer.start();
+        loop.setReporting(options.pacing);
+        loop.start();
     }
     
     /*
-     * Method: lights
-     * creates the colored lights and provides the transforms for them.
-     */
-    private void lights(GL2 gl) {
-
-        gl.glColor3d(0.5,0.5,0.5);
-        
-        float red[] = { 0.5F, 0, 0, 1 };
-        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_EMISSION, red, 0);  
-        gl.glEnable(GL2.GL_LIGHT1);
-
-        gl.glPushMatrix();
-        gl.glRotated(-frameNumber, 0, 1, 0);
-        gl.glTranslated(10, 7, 0);
-        gl.glPopMatrix();
-        
-        
-        float green[] = {0, 0.5F, 0, 1 };
-        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_EMISSION, green, 0); 
-        gl.glEnable(GL2.GL_LIGHT2);
-
-        gl.glPushMatrix();
-        gl.glRotated((frameNumber+100)*0.8743, 0, 1, 0);
-        gl.glTranslated(9, 8, 0);
-
-        gl.glPopMatrix();
-        
-        
-        float blue[] = { 0, 0, 0.5F, 1 };
-        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_EMISSION, blue, 0); 
-        gl.glEnable(GL2.GL_LIGHT3);
-
-        gl.glPushMatrix();
-        gl.glRotated((frameNumber-100)*1.3057, 0, 1, 0);
-        gl.glTranslated(9.5, 7.5, 0);
-
-        gl.glPopMatrix();
-        
-          }
-
-    //array for the colors
-    private float[] colorArrayForHue(double hue) {
-        Color c = Color.getHSBColor((float)hue, 1, 0.6F);
-        return new float[] { c.getRed()/255.0F, c.getGreen()/255.0F, c.getBlue()/255.0F, 1 };
+     * Method: addLights
+     * a white headlight and red, green and blue lights that
+     * circle the scene, each at its own speed
+     */
+    private void addLights() {
+        lights.setGlobalAmbient(0.15f, 0.15f, 0.15f);
+        int white = lights.addLight();
+        lights.setPosition(white, 0, 0, 1, 0);
+        lights.setFollowsCamera(white, true);
+        lights.setDiffuse(white, 0.5f, 0.5f, 0.5f);
+        redLight = lights.addLight();
+        lights.setDiffuse(redLight, 0.5f, 0, 0);
+        lights.setAmbient(redLight, 0.1f, 0, 0);
+        greenLight = lights.addLight();
+        lights.setDiffuse(greenLight, 0, 0.5f, 0);
+        lights.setAmbient(greenLight, 0, 0.1f, 0);
+        blueLight = lights.addLight();
+        lights.setDiffuse(blueLight, 0, 0, 0.5f);
+        lights.setAmbient(blueLight, 0, 0, 0.1f);
     }
 
     /*
-     * Method: drawCylinder
-     * draws a cylinder and determines it's color
-     */
-    private void drawCylinder(GL2 gl) {
-        
-        gl.glBegin(GL2.GL_TRIANGLE_STRIP);
-       
-        for (int i = 0; i <= 64; i++) {
-            double angle = 2*Math.PI/64 * i;
-            double x = Math.cos(angle);
-            double y = Math.sin(angle);
-            
-            gl.glColor3d(1, 1, 1);
-
-            gl.glNormal3d( x, y, 0 );  // Normal for both vertices at this angle.
-            gl.glVertex3d( x, y, 1 );  // Vertex on the top edge.
-            gl.glVertex3d( x, y, -1 ); // Vertex on the bottom edge.
+     * Method: addGlow
+     * with --glow, makes a light that sits at a node's origin
+     * and fades with distance
+     */
+    private void addGlow(SceneNode node, float r, float g, float b) {
+        if (!glow)
+            return;
+        int light = lights.addLight();
+        lights.setDiffuse(light, r, g, b);
+        lights.setAttenuation(light, 1, 0, 0.02f);
+        glowNodes.add(node);
+        glowLights.add(light);
+    }
+
+    /*
+     * Method: addMeteorLights
+     * with --glow, a dim white light at every star
+     */
+    private void addMeteorLights() {
+        if (!glow)
+            return;
+        float[] star = new float[3];
+        for (int k = 0; k < starfield.getCount(); k++) {
+            starfield.getStar(k, star);
+            int light = lights.addLight();
+            lights.setPosition(light, star[0], star[1], star[2], 1);
+            lights.setDiffuse(light, 0.3f, 0.3f, 0.3f);
+            lights.setAttenuation(light, 1, 0, 0.05f);
         }
-        gl.glEnd();
-        gl.glNormal3d( 0, 0, 1);
-        gl.glBegin(GL2.GL_TRIANGLE_FAN);  // Draw the top, in the plane z = 1.
-        gl.glColor3d(1,1,0);  // ambient and diffuse for center
-        gl.glVertex3d( 0, 0, 1);
-        
-        //top of cylinder color
-        for (int i = 0; i <= 64; i++) {
-           double angle = 2*Math.PI/64 * i;
-           double x = Math.cos(angle);
-           double y = Math.sin(angle);
-            gl.glColor3fv(colorArrayForHue(i/64.0), 0);
-            gl.glVertex3d( x, y, 1 );
+    }
+
+    /*
+     * Method: moveLights
+     * places the colored lights for the current time, each
+     * turned about the y-axis from a point beside it, and
+     * moves the glowing lights to their nodes
+     */
+    private void moveLights() {
+        double frameNumber = animationTime / FRAME_SECONDS;
+        orbit(redLight, -frameNumber, 10, 7);
+        orbit(greenLight, (frameNumber+100)*0.8743, 9, 8);
+        orbit(blueLight, (frameNumber-100)*1.3057, 9.5, 7.5);
+        for (int i = 0; i < glowNodes.size(); i++) {
+            float[] world = glowNodes.get(i).getWorld();
+            lights.setPosition(glowLights.get(i), world[12], world[13], world[14], 1);
         }
-        
-        gl.glEnd();
-        
-        
-       gl.glNormal3f( 0, 0, -1 );  
-        gl.glBegin(GL2.GL_TRIANGLE_FAN);  // Draw the bottom, in the plane z = -1
-        gl.glColor3d(1,1,1);  // ambient and diffuse for center
-        gl.glVertex3d( 0, 0, -1);
-        for (int i = 64; i >= 0; i--) {
-            double angle = 2*Math.PI/64 * i;
-            double x = Math.cos(angle);
-            double y = Math.sin(angle);
-            gl.glColor3fv(colorArrayForHue(i/64.0), 0);
-            gl.glVertex3d( x, y, -1 );
+    }
+
+    /*
+     * Method: orbit
+     * puts a light at rotateY(degrees) * (x, y, 0)
+     */
+    private void orbit(int light, double degrees, double x, double y) {
+        double a = Math.toRadians(degrees);
+        lights.setPosition(light, (float)(x * Math.cos(a)), (float)y, (float)(-x * Math.sin(a)), 1);
+    }
+
+    /*
+     * Method: buildScene
+     * builds the scene graph once and the timeline that
+     * animates it.  Static objects get their final transform
+     * here; nodes that move get a timeline channel.
+     */
+    private void buildScene() {
+        //curved meshes come at every level of detail
+        Renderable[][] cowParts = meshes.getLevels(MeshCache.COW_PARTS);
+
+        //camera, pans along with the ufo then holds
+        cameraTarget = new Vec3Track()
+                .key(0, -11, 0, 3, Track.Interpolation.LINEAR)
+                .key(75 * FRAME_SECONDS, 64, 0, 3, Track.Interpolation.STEP);
+
+        //each top level group is timed as one stage of the frame
+        //sky
+        stage("sky").add(new MeshNode(this::drawSky));
+
+        //what never moves, the grass, the house and the resting cows, is
+        //merged into one world-space mesh and drawn with one call;
+        //the pasture file says where they go, and where the planets,
+        //each with a cow riding on it, and the herd's cows are
+        staticBatch = stage("static").add(new StaticBatchNode());
+        GroupNode planets = stage("planets");
+        addPasture(planets, cowParts);
+
+        //the pasture's herd cows, or those added by --stress
+        herdNode = stage("herd").add(new MeshNode(this::drawCows));
+        updateHerdBounds();
+
+        //ufo, swoops down along a parabola then parks by the house
+        ufo = stage("ufo").add(new TransformNode());
+        addGlow(ufo, 0.8f, 0.8f, 0.6f);
+        ufo.add(new TransformNode().scale(3, 3, 0.5))
+           .add(new MeshNode(levels(meshes.getLevels(MeshCache.UFO))));
+        timeline.animate(ufo)
+                .translation(swoop(-35, 40, 0, 65, 3, 2))
+                .rotation(spin(1, 1, 1, 160, 1));
+
+        //alien, rides along with the ufo
+        TransformNode alien = stage("alien").add(new TransformNode());
+        TransformNode alienBody = alien.add(new TransformNode().rotate(90, 1, 1, 0).scale(.7));
+        alienBody.add(new MeshNode(levels(meshes.getLevels(MeshCache.ALIEN_BODY))));
+        alienBody.add(new TransformNode().translate(-2, -3, 0).scale(.5))
+                 .add(new MeshNode(levels(meshes.getLevels(MeshCache.ALIEN_HEAD))));
+        timeline.animate(alien).translation(swoop(-34, 42, -2, 0, -1, 0));
+
+        //cow through window, gone once it is inside the house
+        TransformNode fallingCow = stage("falling cow").add(new TransformNode());
+        fallingCow.add(new MeshNode(cowParts));
+        Vec3Track fall = new Vec3Track();
+        for (int f = 0; f <= 40; f += 4) {
+            fall.key(f * FRAME_SECONDS, -62 + (f*f/16.0 + 75)/2, 38 + (-f - 44)/2.0, 11 - f/5.0,
+                     Track.Interpolation.SMOOTH);
         }
-        
-        gl.glEnd();
-        
+        timeline.animate(fallingCow)
+                .translation(fall)
+                .rotation(spin(1, 1, 0, 0, 2))
+                .visibility(new VisibilityTrack().key(0, true).key(39 * FRAME_SECONDS, false));
     }
-    /**
-     * Draws the scene.
+
+    /*
+     * Method: stage
+     * adds a top level group that the profiler times as one stage
      */
-    public void display(GLAutoDrawable drawable) {    
-        // called when the panel needs to be drawn
+    private StageNode stage(String name) {
+        return scene.add(new StageNode(profiler, name));
+    }
 
-        GL2 gl = drawable.getGL().getGL2();
+    /*
+     * Method: swoop
+     * the ufo's flight: a parabola from (x,y,z) for the first 80
+     * frames, then a jump to (x,y,z) + park, where it stays
+     */
+    private Vec3Track swoop(double x, double y, double z, double parkX, double parkY, double parkZ) {
+        Vec3Track track = new Vec3Track();
+        for (int f = 0; f <= 80; f += 4) {
+            track.key(f * FRAME_SECONDS, x + (f*f/11.0 + 25)/4, y + (-f - 30)/2.0, z + 12,
+                      f < 80 ? Track.Interpolation.SMOOTH : Track.Interpolation.STEP);
+        }
+        track.key(81 * FRAME_SECONDS, x + parkX, y + parkY, z + parkZ, Track.Interpolation.STEP);
+        return track;
+    }
 
-        gl.glClearColor(0,0,0,0);
-        gl.glClear( GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT ); 
-        //applies the camera to the gl
-        camera.apply(gl);
-        /*if (frameNumber < 13){
-            frameCounter = 0;
-        }*/
-        if((frameNumber >=0) && (frameNumber <= 75)) {
-           frameCounter = frameNumber -1;
-//           camera.lookAt(12,10,35, centerX,2,3.4, -.2,3,-.2);
+    /*
+     * Method: spin
+     * a steady rotation about an axis that starts at the given
+     * angle and turns the given number of degrees per frame
+     */
+    private RotationTrack spin(double ax, double ay, double az, double start, double degreesPerFrame) {
+        return new RotationTrack(ax, ay, az)
+                .key(0, start, Track.Interpolation.LINEAR)
+                .key(LOOP_SECONDS, start + 400 * degreesPerFrame, Track.Interpolation.LINEAR);
+    }
 
+    /*
+     * Method: levels
+     * one single-part set for each level of a mesh, for a MeshNode
+     */
+    private static Renderable[][] levels(Mesh[] meshLevels) {
+        Renderable[][] parts = new Renderable[meshLevels.length][];
+        for (int level = 0; level < meshLevels.length; level++)
+            parts[level] = new Renderable[] { meshLevels[level] };
+        return parts;
+    }
+
+    /*
+     * Method: addPlanet
+     * adds a spinning hue sphere with a spinning cow on top of it.
+     * Splats carry their cow lower down (height 4) than planets (5.4).
+     */
+    private void addPlanet(GroupNode parent, double x, double y, double z, double scale,
+                           double spinOffset, double ax, double ay, double az,
+                           double cowHeight, double cowScale,
+                           float r, float g, float b, double hueOffset, Renderable[][] cowParts) {
+        TransformNode spin = parent.add(new TransformNode().translate(x, y, z).scale(scale))
+                                  .add(new TransformNode());
+        //the sphere is tessellated and colored once, then cached
+        spin.add(new MeshNode(levels(meshes.hueSphereLevels(2, 24, 12, r, g, b, hueOffset))));
+        addGlow(spin, r, g, b);
+        TransformNode cowSpin = spin.add(new TransformNode().translate(0, 0, cowHeight).scale(cowScale))
+                                    .add(new TransformNode());
+        cowSpin.add(new MeshNode(cowParts));
+        timeline.animate(spin).rotation(spin(ax, ay, az, spinOffset, 1));
+        timeline.animate(cowSpin).rotation(spin(1, 0, 0, 90, 1));
+    }
+
+    /*
+     * Method: loadPasture
+     * reads the pasture from a scene file, or the pasture.scene
+     * next to this class if file is null
+     */
+    private static SceneFile loadPasture(File file) {
+        SceneFile pasture = new SceneFile();
+        try {
+            if (file != null) {
+                pasture.read(file);
+                return pasture;
+            }
+            InputStream in = GlorbaksCows.class.getResourceAsStream("pasture.scene");
+            if (in == null)
+                throw new IllegalStateException("pasture.scene is not on the class path");
+            try {
+                pasture.read(in);
+            }
+            finally {
+                in.close();
+            }
+            return pasture;
         }
-       /* else if(frameNumber > 150) {
-            frameCounter = 1;
-        }*/
-        else if(frameNumber > 400) {
-            frameCounter = 0;
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not load the pasture", e);
         }
+    }
 
-        camera.lookAt(12,10,35, frameCounter-10,0, 3, -.2,4,1);
-        //applies te lights to the gl
-        lights(gl);
-    //    float zero[] = { 0, 0, 0, 1 };
-
-        gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, new float[] { 0.15F, 0.15F, 0.15F, 1 }, 0 );
-       
-        //draw sky
-        gl.glPushMatrix();
-        drawSky(gl);
-        gl.glPopMatrix();
-        
-        //draw grass
-        gl.glPushMatrix();
-        drawGrass(gl);
-        gl.glPopMatrix();
-        
-        gl.glPushMatrix();
-        gl.glTranslated(0, 0, 9);
-        drawCows(gl);
-        gl.glPopMatrix();
-        
-        //house with window
-        gl.glPushMatrix();
-        gl.glTranslated(14, 0, 2);
-        gl.glRotated(150, 0, 1, 0);
-        drawHouse(gl);
-        gl.glPopMatrix();
-        
-        //ufo
-        gl.glPushMatrix();
-        gl.glTranslated(-35, 40, 0);
-        if((frameNumber >=0) && (frameNumber <=80)){
-            gl.glTranslated((Math.pow(frameNumber, 2)/11+25)/4, (-frameNumber-30)/2, 12);
+    /*
+     * Method: addPasture
+     * builds what the pasture file places: the grass, houses and
+     * resting cows into the static batch, the planets into their
+     * group and the herd cows into the herd
+     */
+    private void addPasture(GroupNode planets, Renderable[][] cowParts) {
+        //what each kind is, looked up once rather than for every object
+        int[] kinds = new int[pasture.getKindCount()];
+        for (int k = 0; k < kinds.length; k++) {
+            kinds[k] = Arrays.asList(PASTURE_KINDS).indexOf(pasture.getKindName(k));
+            if (kinds[k] < 0)
+                throw new IllegalArgumentException("The pasture has an unknown kind " + pasture.getKindName(k));
         }
-        //replays the animation
-        if(frameNumber > 400) {
-            frameNumber = 0;
+        Renderable[] cow = cowMeshes(MeshCache.COW_PARTS);
+        Renderable[] mirroredCow = cowMeshes(MeshCache.OPPOSITE_COW_PARTS);
+        float[] v = pasture.getValues();
+        for (int i = 0; i < pasture.getCount(); i++) {
+            int kind = kinds[pasture.getKind(i)];
+            int s = pasture.getStart(i), n = pasture.getValueCount(i);
+            switch (kind) {
+            case GRASS:
+                place(i, v, s, n).add(new MeshNode(meshes.get(MeshCache.GRASS)));
+                break;
+            case HOUSE:
+                TransformNode house = place(i, v, s, n);
+                house.add(new TransformNode().translate(1.5, 0, 0).rotate(90, 0, 1, 0))
+                     .add(new MeshNode(meshes.get(MeshCache.WINDOW)));
+                house.add(new MeshNode(meshes.get(MeshCache.HOUSE)));
+                break;
+            case COW:
+            case MIRRORED_COW:
+                place(i, v, s, n).add(new MeshNode(kind == COW ? cow : mirroredCow));
+                break;
+            case HERD_COW:
+            case MIRRORED_HERD_COW:
+                checkValues(i, n, 3, 6);
+                herd.addCow(v[s], v[s + 1], v[s + 2], n > 5 ? v[s + 5] : 1,
+                        n > 3 ? v[s + 3] : 0, n > 4 ? v[s + 4] : 0, kind == MIRRORED_HERD_COW);
+                break;
+            case PLANET:
+                checkValues(i, n, 14, 14);
+                addPlanet(planets, v[s], v[s + 1], v[s + 2], v[s + 3], v[s + 4],
+                          v[s + 5], v[s + 6], v[s + 7], v[s + 8], v[s + 9],
+                          v[s + 10], v[s + 11], v[s + 12], v[s + 13], cowParts);
+                break;
+            }
         }
-        if((frameNumber >80) && (frameNumber <400)) {
-            gl.glTranslated(65, 3, 2);
+    }
+
+    /*
+     * Method: place
+     * adds a transform to the static batch for an object placed by
+     * x y z [yaw [pitch [scale | sx sy sz]]], which is
+     * translate * rotateY(yaw) * rotateX(pitch) * scale, as in Herd
+     */
+    private TransformNode place(int object, float[] v, int s, int n) {
+        checkValues(object, n, 3, 8);
+        if (n == 7)
+            throw new IllegalArgumentException("Pasture object " + object + " has 7 numbers; a scale is 1 or 3");
+        TransformNode node = new TransformNode().translate(v[s], v[s + 1], v[s + 2]);
+        if (n > 3)
+            node.rotate(v[s + 3], 0, 1, 0);
+        if (n > 4)
+            node.rotate(v[s + 4], 1, 0, 0);
+        if (n == 6)
+            node.scale(v[s + 5]);
+        else if (n == 8)
+            node.scale(v[s + 5], v[s + 6], v[s + 7]);
+        return staticBatch.add(node);
+    }
+
+    private void checkValues(int object, int n, int min, int max) {
+        if (n < min || n > max) {
+            String kind = pasture.getKindName(pasture.getKind(object));
+            throw new IllegalArgumentException("Pasture object " + object + " (" + kind + ") has " + n
+                    + " numbers, not " + (min == max ? "" + min : min + " to " + max));
         }
-        gl.glRotated(160+frameNumber, 1, 1, 1);
-        gl.glScaled(3, 3, 0.5);
-        drawCylinder(gl);
-        gl.glPopMatrix(); 
-        
-        //alien
-        gl.glPushMatrix();
-        gl.glTranslated(-34, 42, -2);
-        if((frameNumber >=0) && (frameNumber <=80)){
-            gl.glTranslated((Math.pow(frameNumber, 2)/11+25)/4, (-frameNumber-30)/2, 12);
+    }
+
+    /*
+     * Method: cowMeshes
+     * the meshes of one cow, shared by every resting cow
+     */
+    private Renderable[] cowMeshes(String[] names) {
+        Renderable[] parts = new Renderable[names.length];
+        for (int i = 0; i < names.length; i++)
+            parts[i] = meshes.get(names[i]);
+        return parts;
+    }
+
+    /*
+     * Method: writeProfile
+     * writes the profiler's recent frames to the CSV file
+     */
+    private void writeProfile() {
+        try {
+            profiler.exportCsv(profileCsv);
+            System.out.println("Frame profile written to " + profileCsv);
         }
-        //replays the animation
-        if(frameNumber > 400) {
-            frameNumber = 0;
+        catch (IOException e) {
+            System.err.println("Could not write frame profile: " + e.getMessage());
         }
-        if((frameNumber >80) && (frameNumber <400)) {
-            gl.glTranslated(0, -1, 0);
+    }
+
+    /*
+     * Method: beginGLStats
+     * starts counting the frame's GL calls, and logging them
+     * to frame.glr if R was pressed
+     */
+    private void beginGLStats() {
+        if (recordFrame) {
+            recordFrame = false;
+            if (recorder == null)
+                System.out.println("Run with --gl-stats to record GL calls");
+            else
+                recorder.recordNextFrame(new File("frame.glr"));
         }
-        gl.glRotated(90, 1, 1, 0);
-        gl.glScaled(.7, .7, .7);
-        drawAlien(gl);
-        gl.glPopMatrix();
-        
-        //cow through window
-        gl.glPushMatrix();
-        gl.glTranslated(-62, 38, 11);
-        gl.glTranslated(((Math.pow(frameNumber, 2))/16+75)/2, (-frameNumber-44)/2, -frameNumber/5);
-        if(frameNumber >= 39) {
-            gl.glTranslated(-100,  -100,  -100);
+        if (recorder == null)
+            return;
+        try {
+            recorder.beginFrame();
         }
-        if(frameNumber == 400) {
-            frameNumber = 0;
+        catch (IOException e) {
+            System.err.println("Could not record frame: " + e.getMessage());
         }
-        gl.glRotated(frameNumber*2, 1, 1, 0);
-        drawCow(gl);
-        gl.glPopMatrix();
-
     }
-    
+
     /*
-     * Method: drawSky
-     * draws the sky using hierarchical structure,
-     * also uses random to generate the meteor shower
+     * Method: endGLStats
+     * finishes the frame's GL call counts and prints them
+     * every five seconds
      */
-    public void drawSky(GL2 gl2) {
-        Random rand = new Random();
-        int r, s, t;
-        for(int i = -200; i < 200; i++) {
-            r = rand.nextInt(20);
-            s = rand.nextInt(20);
-            t = rand.nextInt(20);
-            gl2.glPushMatrix();
-            gl2.glTranslated(i+r, i+s, i+t);
-            gl2.glScaled(.3, .3, .3);
-            drawSpot(gl2);
-            gl2.glPopMatrix();
+    private void endGLStats() {
+        if (recorder == null)
+            return;
+        try {
+            recorder.endFrame();
+        }
+        catch (IOException e) {
+            System.err.println("Could not record frame: " + e.getMessage());
+        }
+        long now = System.nanoTime();
+        if (now - glStatsReported >= 5000000000L) {
+            glStatsReported = now;
+            System.out.println("GL calls per frame: " + recorder.summary() + "; " + stateSummary() + "; "
+                    + cullSummary() + "; " + streamSummary());
         }
     }
-    
+
     /*
-     * Method: drawBack
-     * draws the background sky
+     * Method: getMeshCache
+     * the meshes the scene is built from, for baking them
      */
-    public void drawBack(GL2 gl2) {
-        gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-        gl2.glVertex3d(-1, -1, 1);
-        gl2.glVertex3d(1, -1, 1);
-        gl2.glVertex3d(1, 1, 1);
-        gl2.glVertex3d(-1, 1, 1);
-        gl2.glEnd();
-    }
-    
-    /*  
-     * Method: drawGrass
-     * draws the grass shape
-     */
-    public void drawGrass(GL2 gl2) {
-        gl2.glPushMatrix();
-        gl2.glColor3d(0, 1, 0);
-        gl2.glTranslated(-5, 10,5);
-        gl2.glRotated(90, 1, 0, 0);
-        gl2.glScaled(65, 65, 16);
-        drawFlat(gl2);
-        gl2.glPopMatrix();
-        
-        //magenta
-        gl2.glPushMatrix();
-        gl2.glTranslated(40, 10, 7);
-        gl2.glScaled(3, 3, 3);
-        gl2.glRotated(frameNumber+189, 1, 0, 1);
-        drawSplat(gl2, 1, 0,1);
-        gl2.glPopMatrix();
-        
-        //green
-        gl2.glPushMatrix();
-        gl2.glTranslated(50, 10, 7);
-        gl2.glScaled(2, 2, 2);
-        gl2.glRotated(frameNumber+89, 1, 0, 0);
-        drawPlanet(gl2, 0, 1, 0);
-        gl2.glPopMatrix();
-        
-        //blue
-        gl2.glPushMatrix();
-        gl2.glTranslated(60, 8, 5);
-        gl2.glScaled(2, 2,2);
-        gl2.glRotated(frameNumber+89, 0, 1, 1);
-        drawSplat(gl2, 1, 0, 0);
-        gl2.glPopMatrix();
-        
-        //pink
-        gl2.glPushMatrix();
-        gl2.glTranslated(57, 1, 2);
-        gl2.glScaled(4, 4, 4);
-        gl2.glRotated(frameNumber+89, 0, 1, 0);
-        drawPlanet(gl2, 0, 1, 1);
-        gl2.glPopMatrix();
-        
+    MeshCache getMeshCache() {
+        return meshes;
     }
-    
+
     /*
-     * Method: drawSplat
-     * draws a sphere with a cow
-     */
-    public void drawSplat(GL2 gl2, int colorParamR, int colorParamG, int colorParamB) {
-        gl2.glNormal3d( 0, 0, 1);
-        gl2.glBegin(GL2.GL_TRIANGLE_FAN);  // Draw the top, in the plane z = 1.
-        gl2.glColor3d(colorParamR,colorParamG, colorParamB);  // ambient and diffuse for center
-        gl2.glVertex3d( 0, 0, 1);
-        //drawEye(gl2);
-        for (int i = 0; i <= 64; i++) {
-            glut.glutSolidSphere(2, 24, 12); 
-            gl2.glColor3fv(colorArrayForHue(i+colorParamR+colorParamG/64.0), 0);
-            
-        }
-        
-        gl2.glEnd();
-        
-        gl2.glPushMatrix();
-        gl2.glTranslated(0, 0, 4);
-        gl2.glScaled(.3, .3, .3);
-        gl2.glRotated(frameNumber+90, 1, 0, 0);
-        drawCow(gl2);
-        gl2.glPopMatrix();
+     * Method: stateSummary
+     * how many calls the state filter dropped in the last
+     * complete frame
+     */
+    public String stateSummary() {
+        if (stateFilter == null)
+            return "state filter off";
+        return "redundant state changes dropped " + stateFilter.getFiltered()
+                + " of " + (stateFilter.getFiltered() + stateFilter.getPassed());
     }
-    
+
     /*
-     * Method: drawPlanet
-     * draws a sphere with an eye
-     */
-    public void drawPlanet(GL2 gl2, int colorParamR, int colorParamG, int colorParamB) {
-        gl2.glNormal3d( 0, 0, 1);
-        gl2.glBegin(GL2.GL_TRIANGLE_FAN);  // Draw the top, in the plane z = 1.
-        gl2.glColor3d(colorParamR,colorParamG, colorParamB);  // ambient and diffuse for center
-        gl2.glVertex3d( 0, 0, 1);
-        
-        for (int i = 0; i <= 64; i++) {
-           glut.glutSolidSphere(2, 24, 12); 
-           gl2.glColor3fv(colorArrayForHue(i/64.0), 0);
-         }
-        
-        gl2.glEnd();
-        
-        gl2.glPushMatrix();
-        gl2.glTranslated(0, 0, 5.4);
-        gl2.glScaled(.5, .5, .5);
-        gl2.glRotated(frameNumber+90, 1, 0, 0);
-        drawCow(gl2);
-        gl2.glPopMatrix();
+     * Method: streamSummary
+     * how the per-frame data is streamed, and how often a frame
+     * waited for the GPU to finish with its part of the stream
+     */
+    public String streamSummary() {
+        return stream.summary();
     }
-    
+
     /*
-     * Method: drawFlat
-     * draws a grass plain
+     * Method: cullSummary
+     * how many scene objects the last frame drew and culled,
+     * and how many cows are within UFO_REACH of the ground
+     * beneath the ufo
      */
-    public void drawFlat(GL2 gl2) {
-        gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-        gl2.glVertex3d(-1, -1, 1);
-        gl2.glVertex3d(1, -1, 1);
-        gl2.glVertex3d(1, 1, 1);
-        gl2.glVertex3d(-1, 1, 1);
-        gl2.glEnd();
+    public String cullSummary() {
+        Frustum frustum = camera.getFrustum();
+        float[] at = ufo.getWorld();
+        if (cowsBeneath.length < herd.size())
+            cowsBeneath = new int[herd.size()];
+        int beneath = herd.findCows(at[12], 0, at[14], UFO_REACH, cowsBeneath);
+        return "objects visible " + frustum.getVisible() + ", culled " + frustum.getCulled()
+                + ", detail levels " + frustum.getLevelCount(0) + "/" + frustum.getLevelCount(1) + "/" + frustum.getLevelCount(2)
+                + ", lights " + lights.getCount() + " (" + lights.getUploads() + " parameters sent)"
+                + ", cows under the ufo " + beneath;
     }
-    
+
     /*
-     * Method: drawCows
-     * draws the cows using hierarchical structure
-     * to call the drawCow method for each cow in the grass
+     * Method: seekFrame
+     * jumps to the given frame of the original 30ms-per-frame
+     * animation; used instead of the render loop when headless
      */
-    public void drawCows(GL2 gl2) {
-       //cow 3
-       gl2.glPushMatrix();
-       drawCow(gl2);
-       gl2.glPopMatrix();
-      
-       //cow 2
-       gl2.glPushMatrix();
-       gl2.glTranslated(-16, 0, -2.5);
-       gl2.glScaled(.3, .3, .3);
-       drawCow(gl2);
-       gl2.glPopMatrix();
-       
-       //cow 1
-       gl2.glPushMatrix();
-       gl2.glTranslated(-5, 0, 3);
-       gl2.glScaled(1.2, 1.2, 1.2);
-       drawCow(gl2);
-       gl2.glPopMatrix();
-       
-       //cow 4
-       gl2.glPushMatrix();
-       gl2.glTranslated(-13, 0, 1);
-       gl2.glScaled(.8, .8, .8);
-       oppositeCow(gl2);
-       gl2.glPopMatrix();
-       
-       //cow 5
-       gl2.glPushMatrix();
-       gl2.glTranslated(23, 0, 5);
-       gl2.glScaled(.5, .5, .5);
-       drawCow(gl2);
-       gl2.glPopMatrix();
-       
-       
-     //cow 6
-       gl2.glPushMatrix();
-       gl2.glTranslated(29, 0, 5);
-       gl2.glScaled(.8, .8, .8);
-       gl2.glRotated(20, 1, 0, 0);
-       drawCow(gl2);
-       gl2.glPopMatrix();
-
-   }
-    
-    /*
-     * Method: oppositeCow
-     * draws cows for the opposite direction.
-     */
-    public void oppositeCow(GL2 gl2) {
-        gl2.glColor3f(0.5f, 0.35f, 0.05f);
-        glut.glutSolidSphere(2, 24, 12);
-
-        //head
-        gl2.glPushMatrix();
-        gl2.glTranslated(2.5, 1, 0);
-        glut.glutSolidSphere(1, 12, 12);
-        gl2.glPopMatrix();
-       
-        gl2.glPushMatrix();
-        gl2.glTranslated(0, 1, 2.4);
-        gl2.glScaled(.5,  .5,  .5); 
-        drawSpot(gl2);
-        gl2.glPopMatrix();
-        
-        gl2.glTranslated(0, -.2, 0);
-        drawLegs(gl2);
-        gl2.glEnd();
+    public void seekFrame(int frame) {
+        previousTime = simulationTime = frame * FRAME_SECONDS;
     }
-    
+
     /*
-     * Method: drawCow
-     * inner method used to draw 
-     * calls drawSpot and uses glut solid spheres
-     * to draw individual cows
-     */
-    public void drawCow(GL2 gl2) {
-        gl2.glColor3f(0.5f, 0.35f, 0.05f);
-        glut.glutSolidSphere(2, 24, 12);
-        gl2.glPushMatrix();
-        gl2.glTranslated(-2, 1, 0);
-        glut.glutSolidSphere(1, 12, 12);
-        gl2.glPopMatrix();
-        
-       
-        gl2.glPushMatrix();
-        gl2.glTranslated(.02, .12, 2.63);
-        gl2.glScaled(.5,  .5,  .5); 
-        drawSpot(gl2);
-        gl2.glPopMatrix();
-        
-        gl2.glPushMatrix();
-        gl2.glTranslated(.42, .22, 2.69);
-        gl2.glScaled(.7,  .7,  .7); 
-        drawSpot(gl2);
-        gl2.glPopMatrix();
-        
-        drawLegs(gl2);
-        gl2.glEnd();
+     * Method: animate
+     * moves the camera and the animated scene nodes to where
+     * they are at the current time.  alpha is how far the frame
+     * is between the last two simulation steps.
+     */
+    private void animate(double alpha) {
+        animationTime = previousTime + (simulationTime - previousTime) * alpha;
+        timeline.evaluate(animationTime);
+        cameraTarget.evaluate(timeline.localTime(animationTime), target);
+        camera.lookAt(12,10,35, target[0],target[1],target[2], -.2,4,1);
+        herd.interpolate((float)alpha);
     }
-    
-    /*
-     * Method: drawSpot
-     * draws a spot for the cows
+
+    /**
+     * Draws the scene.
      */
-    public void drawSpot(GL2 gl2) {
-        gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-        gl2.glColor3d(1,1,1);
-        gl2.glVertex3d( 0, 0, -1);
-        for (int i = 64; i >= 0; i--) {
-            double angle = 2*Math.PI/64 * i;
-            double x = Math.cos(angle);
-            double y = Math.sin(angle);
-            gl2.glVertex3d( x, y, -1 );
+    public void display(GLAutoDrawable drawable) {    
+        // called when the panel needs to be drawn
+        long frameStart = System.nanoTime();
+
+        GL2 gl = drawable.getGL().getGL2();
+        beginGLStats();
+        if (stateFilter != null)
+            stateFilter.beginFrame();
+        profiler.beginFrame(gl);
+        profiler.begin(gl, setupStage);
+
+        gl.glClearColor(0,0,0,0);
+        gl.glClear( GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT ); 
+        animate(loop == null ? 0 : loop.advance());
+        //applies the camera to the gl
+        camera.apply(gl);
+        meshes.begin(gl);
+        //only the nodes that moved get new world matrices
+        scene.update();
+        //sends the lights, picks each object's and binds the lighting shader
+        moveLights();
+        lighting.begin(gl, camera.getView());
+        profiler.end(gl, setupStage);
+        Frustum frustum = camera.getFrustum();
+        frustum.resetCounts();
+        scene.render(gl, frustum, cull ? Frustum.ALL_PLANES : 0);
+
+        lighting.end(gl);
+        meshes.end(gl);
+        //after the last draw that reads this frame's streamed data
+        stream.endFrame(gl);
+        profiler.endFrame();
+        if (showProfile)
+            profiler.drawOverlay(gl, glut, viewportHeight);
+        if (exportProfile) {
+            exportProfile = false;
+            writeProfile();
         }
-        gl2.glEnd();
+        endGLStats();
+        camera.frameSubmitted();
+        if (reportLatency)
+            reportInputLatency();
+
+        if (stressSizes != null)
+            updateStress(System.nanoTime() - frameStart);
     }
-    
+
     /*
-     * Method: drawAlien
-     * draws an alien using glut spheres
-     */
-    public void drawAlien(GL2 gl2) {
-        gl2.glPushMatrix();
-        gl2.glColor3f(.98f, .625f, .12f);
-        glut.glutSolidSphere(2, 24, 12);
-        gl2.glPopMatrix();
-        
-        gl2.glPushMatrix();
-        gl2.glColor3f(.98f, .625f, .12f);
-        gl2.glTranslated(-2, -3, 0);
-        gl2.glScaled(.5, .5, .5);
-        glut.glutSolidSphere(1, 12, 6);
-        gl2.glPopMatrix();
-        
+     * Method: reportInputLatency
+     * prints how long trackball drags took to reach the screen, every
+     * few seconds while there are any
+     */
+    private void reportInputLatency() {
+        long now = System.nanoTime();
+        if (now - lastLatencyReport < LATENCY_REPORT_NANOS)
+            return;
+        lastLatencyReport = now;
+        LatencyStats latency = camera.getInputLatency();
+        if (latency.getCount() > 0) {
+            System.out.println("trackball latency: " + latency);
+            latency.reset();
+        }
     }
-    
+
     /*
-     * Method: drawLeg
-     * inner method to draw the basic leg shape by calling
-     * drawSquare
-     */
-    public void drawLeg(GL2 gl2, double x, double y, double z) {
-        gl2.glPushMatrix();
-        gl2.glColor3f(0.5f, 0.35f, 0.05f);
-        gl2.glTranslated(x, y, z);
-        gl2.glScaled(1, 2.3, 1);
-        drawSquare(gl2);
-        gl2.glPopMatrix();
+     * Method: updateStress
+     * counts frames for the current stress herd size, prints the
+     * frame rate when its time is up and moves on to the next size
+     */
+    private void updateStress(long displayNanos) {
+        long now = System.nanoTime();
+        if (stressStage >= 0 && now - stressStageStart < STRESS_STAGE_NANOS) {
+            stressFrames++;
+            stressDisplayNanos += displayNanos;
+            return;
+        }
+        if (stressStage >= 0) {
+            double seconds = (now - stressStageStart) / 1e9;
+            System.out.printf("%,d cows (%s): %.1f fps, %.2f ms per display()%n",
+                    herd.size(), herd.isInstanced() ? "instanced" : "fallback",
+                    stressFrames / seconds, stressDisplayNanos / 1e6 / Math.max(1, stressFrames));
+        }
+        stressStage++;
+        if (stressStage == stressSizes.length) {
+            stressSizes = null;
+            return;
+        }
+        herd.clear();
+        Random rand = new Random(405);
+        for (int i = 0; i < stressSizes[stressStage]; i++) {
+            herd.addCow(PASTURE_MIN_X + rand.nextDouble()*(PASTURE_MAX_X - PASTURE_MIN_X), 0,
+                    PASTURE_MIN_Z + rand.nextDouble()*(PASTURE_MAX_Z - PASTURE_MIN_Z),
+                    0.3 + rand.nextDouble()*0.9, rand.nextDouble()*360, rand.nextBoolean());
+        }
+        updateHerdBounds();
+        stressStageStart = System.nanoTime();
+        stressFrames = 0;
+        stressDisplayNanos = 0;
     }
     
     /*
-     * Method: drawLegs
-     * uses hierarchical modeling to create the legs of the cows
-     */
-    public void drawLegs(GL2 gl2) {
-        //front right
-        drawLeg(gl2, -.8, -1.8, -1.8);
-        //back right
-        drawLeg(gl2, .9, -1.8,-1.8);
-        //front left
-        drawLeg(gl2, -.8, -1.5, 1);
-        //back left
-        drawLeg(gl2, .9, -1.5, 1);
+     * Method: drawSky
+     * draws the meteor shower, which is generated once
+     * from a seed in init and kept on the GPU
+     */
+    public void drawSky(GL2 gl2) {
+        starfield.draw(gl2, (float)animationTime, viewportHeight, (float)camera.getProjectionScale());
+        //the stars leave no program bound
+        lighting.use(gl2);
     }
     
     /*
-     * Method: drawSquare
-     * method to draw a basic square shape
+     * Method: drawBack
+     * draws the background sky
      */
-    private void drawSquare(GL2 gl2) {
+    public void drawBack(GL2 gl2) {
         gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-        gl2.glVertex3d(-0.5, -0.5, 0.5);
-        gl2.glVertex3d(0.5, -0.5, 0.5);
-        gl2.glVertex3d(0.5, 0.5, 0.5);
-        gl2.glVertex3d(-0.5, 0.5, 0.5);
+        gl2.glVertex3d(-1, -1, 1);
+        gl2.glVertex3d(1, -1, 1);
+        gl2.glVertex3d(1, 1, 1);
+        gl2.glVertex3d(-1, 1, 1);
         gl2.glEnd();
     }
     
     /*
-     * Method: drawHouse
-     * uses 2d arrays to create the points of the
-     * house object. Uses hierarchical modeling to
-     * put a square on the house for a window.
-     */
-    public void drawHouse(GL2 gl2) {
-      //2d array to contain vertex points
-        double [][] vertices = {
-        { 2, -1, 2 },
-        { 2, -1, -2 },
-        { 2, 1, -2 },
-        { 2, 1, 2 },
-        { 1.5, 1.5, 0 },
-        { -1.5, 1.5, 0 },
-        { -2, -1, 2 },
-        { -2, 1, 2 },
-        { -2, 1, -2 },
-        { -2, -1, -2 }
-     };
-    //2d array to contain face points
-    int [][] faces = {
-            { 0, 1, 2, 3 },
-            { 3, 2, 4 },
-            { 7, 3, 4, 5 },
-            { 2, 8, 5, 4 },
-            { 5, 8, 7 },
-            { 0, 3, 7, 6 },
-            { 0, 6, 9, 1 },
-            { 2, 1, 9, 8 },
-            { 6, 7, 8, 9 }
-         };
-     //2d array to contain face colors
-     double[][] faceColors = {
-            { 1, .8, .8 },
-            { .7, .7, 1 },
-            { 0, 0, 1 },
-            { 0, 0, .7 },
-            { .7, .7, 1 },
-            { 1, 0, 0 },
-            { .4, .4, .4 },
-            { 1, 0, 0 },
-            { 1, .8, .8 }
-         };
-         
-            gl2.glPushMatrix();
-            gl2.glRotated(85, 0, 1, 0);
-            gl2.glScaled(4,4,4);
-
-            int i,j;
-            //draw the house using heirarchical modeling and a for loop
-           for (i = 0; i < faces.length; i++) {
-               gl2.glPushMatrix();
-               gl2.glColor3d(1,1,1);
-               gl2.glTranslatef(1.5f, 0f, 0f);
-               gl2.glScaled(1,1, 1);
-               gl2.glRotated(90, 0, 1, 0);
-               drawSquare(gl2);
-               gl2.glPopMatrix();
-               gl2.glColor3dv(faceColors[i], 0 );
-               gl2.glBegin(GL2.GL_TRIANGLE_FAN);
-            for (j = 0; j < faces[i].length; j++) {
-                    int vertexNum = faces[i][j];
-                    gl2.glVertex3dv(vertices[vertexNum], 0 );
-                }
-                gl2.glEnd();
-                
-            }
-          gl2.glPopMatrix();
-        
-      }
+     * Method: updateHerdBounds
+     * gives the herd's scene node a sphere around every cow,
+     * so the whole herd can be culled
+     */
+    private void updateHerdBounds() {
+        float cowRadius = 0;
+        for (String part : MeshCache.COW_PARTS)
+            cowRadius = Math.max(cowRadius, meshes.get(part).getRadius());
+        for (String part : MeshCache.OPPOSITE_COW_PARTS)
+            cowRadius = Math.max(cowRadius, meshes.get(part).getRadius());
+        float[] b = herd.getBounds(cowRadius, new float[4]);
+        herdNode.setBounds(b[0], b[1], b[2], b[3]);
+    }
 
+    /*
+     * Method: drawCows
+     * draws the whole herd in the grass, one instanced
+     * draw call for each part of a cow
+     */
+    public void drawCows(GL2 gl2) {
+        herd.setLightCount(lights.getEnabledCount());
+        herd.draw(gl2, meshes, camera.getFrustum());
+        lighting.use(gl2);
+    }
     
     /**
      * Initialization, including setting up a camera and light
      * configuration
      */
     public void init(GLAutoDrawable drawable) {
+        if (recorder != null)
+            drawable.setGL(recorder.wrap(drawable.getGL().getGL2()));
+        //outside the recorder, so it counts only what gets through
+        if (stateFilter != null)
+            drawable.setGL(stateFilter.wrap(drawable.getGL().getGL2()));
         GL2 gl = drawable.getGL().getGL2();
         gl.glClearColor(0, 0, 0, 1);  
         gl.glEnable(GL2.GL_DEPTH_TEST); 
-        gl.glEnable(GL2.GL_LIGHTING);
-        gl.glEnable(GL2.GL_LIGHT0);
-        gl.glEnable(GL2.GL_NORMALIZE);
-        gl.glEnable(GL2.GL_COLOR_MATERIAL);
-        gl.glLightModeli(GL2.GL_LIGHT_MODEL_LOCAL_VIEWER, 1);
-        gl.glMateriali(GL2.GL_FRONT_AND_BACK, GL2.GL_SHININESS, 32);
-
-        float dim[] = { 0.5F, 0.5F, 0.5F, 1 };
-        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, dim, 0);
-        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, dim, 0);
-
-        float red[] =  { 0.5F, 0, 0, 1};
-        float reda[] = { 0.1F, 0, 0, 1};
-        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_AMBIENT, reda, 0);
-        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, red, 0);
-        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, red, 0);
-
-        float gr[] = { 0, 0.5F, 0, 1 };
-        float gra[] = { 0, 0.1F, 0, 1 };
-        gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_AMBIENT, gra, 0);
-        gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_DIFFUSE, gr, 0);
-        gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_SPECULAR, gr, 0);
-
-        float bl[] = {0, 0, 0.5F, 1};
-        float bla[] = {0, 0, 0.1F, 1};
-        gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_AMBIENT, bla, 0);
-        gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_DIFFUSE, bl, 0);
-        gl. glLightfv(GL2.GL_LIGHT3, GL2.GL_SPECULAR, bl, 0);
+        //a new context has neither of the camera's matrices yet
+        camera.invalidate();
+        //every primitive was built once; keep it on the GPU
+        meshes.upload(gl);
+        profiler.init(gl);
+        stream.init(gl);
+        lighting.init(gl, stream);
+        herd.init(gl, lighting, stream);
+        starfield.init(gl);
     }
     
     /**
      * allows the panel to be reshaped
      */
     public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        viewportHeight = height;
+        camera.setViewport(width, height);
     }
 
     /**
      * This is called before the GLJPanel is destroyed. 
      */
     public void dispose(GLAutoDrawable drawable) {
+        if (loop != null)
+            loop.stop();
+        GL2 gl = drawable.getGL().getGL2();
+        if (exportOnExit)
+            writeProfile();
+        profiler.dispose(gl);
+        meshes.dispose(gl);
+        herd.dispose(gl);
+        staticBatch.dispose(gl);
+        lighting.dispose(gl);
+        stream.dispose(gl);
+        starfield.dispose(gl);
     }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+/*
+ * File: GpuStageEvent.java
+ * CMSC 405
+ * Description: Flight Recorder event for the GPU time of one stage of a frame,
+ *  from a GL_TIME_ELAPSED query (see FrameProfiler).  The results arrive a few
+ *  frames late, so the event is committed when the query is collected.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("cmsc405.GpuFrameStage")
+@Label("GPU Frame Stage")
+@Category("CMSC 405")
+@Description("GPU time spent drawing one stage of a frame")
+class GpuStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Frame")
+    long frame;
+
+    @Label("GPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long gpuTime;
+}
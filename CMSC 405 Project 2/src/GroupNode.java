@@ -0,0 +1,93 @@
+/*
+ * File: GroupNode.java
+ * CMSC 405
+ * Description: A scene graph node with children and no transform of its own.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jogamp.opengl.GL2;
+
+public class GroupNode extends SceneNode {
+
+    private static final float[] IDENTITY = new float[] { 1,0,0,0, 0,1,0,0, 0,0,1,0, 0,0,0,1 };
+
+    protected final List<SceneNode> children = new ArrayList<SceneNode>();
+    private int drawables;
+
+    /**
+     * Adds a child and returns it, so that building a tree can be chained.
+     */
+    public <T extends SceneNode> T add(T child) {
+        children.add(child);
+        child.dirty = true;
+        return child;
+    }
+
+    public List<SceneNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * Updates the whole tree below this node, treating it as the root.
+     * @return the number of world matrices that were recomputed
+     */
+    public int update() {
+        return update(IDENTITY, false);
+    }
+
+    public int update(float[] parentWorld, boolean parentChanged) {
+        boolean changed = parentChanged || dirty;
+        if (changed) {
+            System.arraycopy(parentWorld, 0, world, 0, 16);
+            dirty = false;
+        }
+        return updateChildren(changed);
+    }
+
+    /**
+     * Updates the children and, if any of their bounds changed, rebuilds
+     * this node's bounds as the sphere around all of theirs.
+     */
+    protected int updateChildren(boolean changed) {
+        int updated = 0;
+        int drawables = 0;
+        boolean moved = false;
+        for (int i = 0; i < children.size(); i++) {
+            SceneNode child = children.get(i);
+            updated += child.update(world, changed);
+            drawables += child.getDrawableCount();
+            if (child.boundsChanged) {
+                child.boundsChanged = false;
+                moved = true;
+            }
+        }
+        this.drawables = drawables;
+        if (moved) {
+            System.arraycopy(children.get(0).bounds, 0, bounds, 0, 4);
+            for (int i = 1; i < children.size(); i++)
+                Matrices.unionSphere(bounds, children.get(i).bounds);
+            boundsChanged = true;
+        }
+        return updated;
+    }
+
+    public int getDrawableCount() {
+        return drawables;
+    }
+
+    public void render(GL2 gl, Frustum frustum, int planes) {
+        if (!isVisible())
+            return;
+        if (frustum != null) {
+            planes = frustum.cull(bounds, planes);
+            if (planes == Frustum.OUTSIDE) {
+                frustum.countCulled(drawables);
+                return;
+            }
+        }
+        for (int i = 0; i < children.size(); i++)
+            children.get(i).render(gl, frustum, planes);
+    }
+}
@@ -0,0 +1,821 @@
+/*
+ * File: Herd.java
+ * CMSC 405
+ * Description: A herd of cows drawn with instanced rendering.  Each cow is a
+ *  position, scale, yaw, pitch and a mirrored flag (mirrored cows are drawn
+ *  with oppositeCow's layout).  The per-cow transforms are packed into one
+ *  instance buffer, and every cow sub-mesh is drawn for the whole herd with a
+ *  single glDrawElementsInstanced call.  When instancing or GLSL is not
+ *  available the herd falls back to one glMultMatrixf per cow.  Each cow has
+ *  its own LevelOfDetail, picked every frame from its size on screen; the
+ *  instance data is grouped by mirroring and level, and only rebuilt when a
+ *  cow changes level or the herd moves.  A still herd keeps its instance
+ *  data in its own buffer; a moving one writes it to a StreamBuffer every
+ *  frame, so no frame overwrites data an earlier one is still drawing.
+ *      step() lets the cows graze and wander.  Every per-cow value lives in
+ *  a primitive array, and step(), the level of detail pass and the writing
+ *  of the instance data each split the herd into chunks of consecutive cows
+ *  that run as fork/join tasks on a worker pool.  The instance data is
+ *  grouped with a counting sort: each chunk counts its cows per group, the
+ *  counts become each chunk's first slot in every group, and each chunk
+ *  then writes its cows' rows straight to their slots.
+ *      Cows out of view are left out of the instance data.  A
+ *  BoundingVolumeHierarchy over the cows' bounding spheres finds the ones in
+ *  the frustum; it is refitted after each step and rebuilt now and then, as
+ *  the cows wander off from where it grouped them.  findCows() asks it which
+ *  cows are near a point.
+ */
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+public class Herd {
+
+    /** Three rows of the cow's model matrix, 4 floats each. */
+    private static final int FLOATS_PER_INSTANCE = 12;
+    private static final int INSTANCE_STRIDE = FLOATS_PER_INSTANCE * Buffers.SIZEOF_FLOAT;
+
+    private static final String VERTEX_SHADER =
+        "#version 120\n" +
+        "attribute vec4 instanceRow0;\n" +
+        "attribute vec4 instanceRow1;\n" +
+        "attribute vec4 instanceRow2;\n" +
+        "uniform int lightCount;\n" +
+        "varying vec4 color;\n" +
+        "void main() {\n" +
+        "    vec4 world = vec4(dot(instanceRow0, gl_Vertex), dot(instanceRow1, gl_Vertex), dot(instanceRow2, gl_Vertex), 1.0);\n" +
+        "    vec3 normal = vec3(dot(instanceRow0.xyz, gl_Normal), dot(instanceRow1.xyz, gl_Normal), dot(instanceRow2.xyz, gl_Normal));\n" +
+        "    vec4 eye = gl_ModelViewMatrix * world;\n" +
+        "    vec3 n = normalize(gl_NormalMatrix * normal);\n" +
+        "    vec3 c = gl_FrontMaterial.emission.rgb + gl_LightModel.ambient.rgb * gl_Color.rgb;\n" +
+        "    for (int i = 0; i < 8; i++) {\n" +
+        "        if (i < lightCount) {\n" +
+        "            vec4 p = gl_LightSource[i].position;\n" +
+        "            vec3 l = p.w == 0.0 ? p.xyz : p.xyz - eye.xyz;\n" +
+        "            float d = length(l);\n" +
+        "            float fade = p.w == 0.0 ? 1.0 : 1.0 / (gl_LightSource[i].constantAttenuation\n" +
+        "                + gl_LightSource[i].linearAttenuation * d + gl_LightSource[i].quadraticAttenuation * d * d);\n" +
+        "            c += fade * (gl_LightSource[i].ambient.rgb * gl_Color.rgb\n" +
+        "               + gl_LightSource[i].diffuse.rgb * gl_Color.rgb * max(dot(n, l / d), 0.0));\n" +
+        "        }\n" +
+        "    }\n" +
+        "    color = vec4(c, 1.0);\n" +
+        "    gl_Position = gl_ProjectionMatrix * eye;\n" +
+        "}\n";
+
+    private static final String FRAGMENT_SHADER =
+        "#version 120\n" +
+        "varying vec4 color;\n" +
+        "void main() {\n" +
+        "    gl_FragColor = color;\n" +
+        "}\n";
+
+    /** Per-pixel version, for Lighting.FRAGMENT_SHADER and its light buffer. */
+    private static final String LIT_VERTEX_SHADER =
+        "#version 120\n" +
+        "attribute vec4 instanceRow0;\n" +
+        "attribute vec4 instanceRow1;\n" +
+        "attribute vec4 instanceRow2;\n" +
+        "varying vec3 eyePosition;\n" +
+        "varying vec3 eyeNormal;\n" +
+        "varying vec3 color;\n" +
+        "void main() {\n" +
+        "    vec4 world = vec4(dot(instanceRow0, gl_Vertex), dot(instanceRow1, gl_Vertex), dot(instanceRow2, gl_Vertex), 1.0);\n" +
+        "    vec3 normal = vec3(dot(instanceRow0.xyz, gl_Normal), dot(instanceRow1.xyz, gl_Normal), dot(instanceRow2.xyz, gl_Normal));\n" +
+        "    vec4 eye = gl_ModelViewMatrix * world;\n" +
+        "    eyePosition = eye.xyz;\n" +
+        "    eyeNormal = gl_NormalMatrix * normal;\n" +
+        "    color = gl_Color.rgb;\n" +
+        "    gl_Position = gl_ProjectionMatrix * eye;\n" +
+        "}\n";
+
+    /** Cows in each task of the parallel passes. */
+    private static final int CHUNK = 4096;
+
+    // wandering, see step(): how fast a cow of scale 1 walks in units per
+    // second, how fast it turns at most in degrees per second, and the
+    // chance that a new spell is spent walking rather than grazing
+    private static final float WALK_SPEED = 1.5f;
+    private static final float MAX_TURN = 60;
+    private static final float WALKING = 0.3f;
+
+    // One entry per cow.  Angles are in degrees, as for glRotated.
+    private float[] x = new float[16], y = new float[16], z = new float[16];
+    private float[] scale = new float[16], yaw = new float[16], pitch = new float[16];
+    private boolean[] mirrored = new boolean[16];
+    private byte[] level = new byte[16];          // -1 until the cow is first drawn with a frustum
+    // where each cow was before the last step, for drawing in between
+    private float[] lastX = new float[16], lastZ = new float[16], lastYaw = new float[16];
+    // the cow's walking speed (0 while it grazes) and turn rate, the seconds
+    // left until it picks new ones, and its own random number state
+    private float[] speed = new float[16], turn = new float[16], spell = new float[16];
+    private int[] random = new int[16];
+    private int count;
+    private float cowRadius = -1;                 // bounding radius of a cow at scale 1
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean fenced;                       // cows outside the pasture turn back
+    private float fenceMinX, fenceMinZ, fenceMaxX, fenceMaxZ;
+    private boolean moving;                       // step() has run since clear()
+    private float alpha = 1;                      // how far between the last two steps to draw
+    // per chunk: its count and then first slot in each group, whether a
+    // cow changed level, and a box (min x, y, z, max x, y, z, max scale)
+    // around its cows before and after the last step
+    private int[] chunkSlots = new int[0];
+    private boolean[] chunkChanged = new boolean[0];
+    private float[] chunkBoxes = new float[0];
+    private final float[] box = new float[7];     // the same for the whole herd
+    private boolean boxCurrent;                   // box is from the last step and nothing was added since
+
+    // steps after which the tree is built again rather than refitted
+    private static final int TREE_REFITS = 64;
+    // the cows' bounding spheres, for culling them one by one and for findCows()
+    private final BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy();
+    private boolean culling = true;
+    private boolean treeBuilt;                    // built over the current cows
+    private boolean treeMoved;                    // the cows stepped since it was fitted
+    private int treeRefits;
+    // the cows in view this frame and last, and how many cows the instance data holds
+    private int[] visible = new int[0], lastVisible = new int[0];
+    private int visibleCount, lastVisibleCount = -1;
+    private int instances;
+
+    private boolean dirty = true;       // instance data must be rebuilt and uploaded
+    // the instance data holds one contiguous range per group; group
+    // mirrored * LEVELS + level holds the cows with that flag and level
+    private static final int GROUPS = 2 * LevelOfDetail.LEVELS;
+    private final int[] groupStart = new int[GROUPS], groupCount = new int[GROUPS];
+    private FloatBuffer instanceData;
+    private int instanceBuffer;
+    private StreamBuffer stream;
+    // what the instance rows are read from this frame: instanceBuffer at
+    // 0, or the stream at the offset of this frame's data
+    private int drawBuffer;
+    private long drawOffset;
+
+    private boolean instancing;         // false if we are using the fallback path
+    private ShaderProgram program;
+    private final int[] rowAttributes = new int[3];
+    private int lightCountUniform;
+    private int lightCount = 4;
+
+    private final float[] matrix = new float[16];  // scratch matrix for the fallback path
+
+    /**
+     * Adds a cow standing upright and returns its index.
+     * @param yaw rotation about the y-axis, in degrees
+     * @param mirrored if true the cow is drawn facing the other way, as in oppositeCow
+     */
+    public int addCow(double x, double y, double z, double scale, double yaw, boolean mirrored) {
+        return addCow(x, y, z, scale, yaw, 0, mirrored);
+    }
+
+    /**
+     * Adds a cow and returns its index.  The cow's transform is
+     * translate(x,y,z) * rotateY(yaw) * rotateX(pitch) * scale(scale).
+     */
+    public int addCow(double x, double y, double z, double scale, double yaw, double pitch, boolean mirrored) {
+        if (count == this.x.length) {
+            int n = count * 2;
+            this.x = Arrays.copyOf(this.x, n);
+            this.y = Arrays.copyOf(this.y, n);
+            this.z = Arrays.copyOf(this.z, n);
+            this.scale = Arrays.copyOf(this.scale, n);
+            this.yaw = Arrays.copyOf(this.yaw, n);
+            this.pitch = Arrays.copyOf(this.pitch, n);
+            this.mirrored = Arrays.copyOf(this.mirrored, n);
+            this.level = Arrays.copyOf(this.level, n);
+            lastX = Arrays.copyOf(lastX, n);
+            lastZ = Arrays.copyOf(lastZ, n);
+            lastYaw = Arrays.copyOf(lastYaw, n);
+            speed = Arrays.copyOf(speed, n);
+            turn = Arrays.copyOf(turn, n);
+            spell = Arrays.copyOf(spell, n);
+            random = Arrays.copyOf(random, n);
+        }
+        this.x[count] = lastX[count] = (float)x;
+        this.y[count] = (float)y;
+        this.z[count] = lastZ[count] = (float)z;
+        this.scale[count] = (float)scale;
+        this.yaw[count] = lastYaw[count] = (float)yaw;
+        this.pitch[count] = (float)pitch;
+        this.mirrored[count] = mirrored;
+        this.level[count] = -1;
+        //the cow grazes until its first step picks a spell
+        speed[count] = turn[count] = spell[count] = 0;
+        //seeded from the index, so the herd moves the same on any number of threads
+        random[count] = (count + 1) * 0x9E3779B9 | 1;
+        dirty = true;
+        boxCurrent = false;
+        treeBuilt = false;
+        return count++;
+    }
+
+    /**
+     * Removes every cow.
+     */
+    public void clear() {
+        count = 0;
+        dirty = true;
+        moving = false;
+        boxCurrent = false;
+        treeBuilt = false;
+        alpha = 1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Sets how many of GL_LIGHT0.. the instancing shader takes into account
+     * when the lighting is not shaded.
+     */
+    public void setLightCount(int lightCount) {
+        this.lightCount = lightCount;
+    }
+
+    public boolean isInstanced() {
+        return instancing;
+    }
+
+    /**
+     * Sets the pool that runs the parallel passes; the common pool by default.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        tree.setPool(pool);
+    }
+
+    /**
+     * Sets whether draw() leaves out the cows outside the frustum; on by default.
+     */
+    public void setCulling(boolean culling) {
+        this.culling = culling;
+    }
+
+    /**
+     * Fences the pasture: step() turns cows that are outside the rectangle
+     * back towards its middle.
+     */
+    public void setPasture(float minX, float minZ, float maxX, float maxZ) {
+        fenceMinX = minX;
+        fenceMinZ = minZ;
+        fenceMaxX = maxX;
+        fenceMaxZ = maxZ;
+        fenced = true;
+    }
+
+    /** True if the cows have moved since the herd was filled. */
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Sets out to a sphere (x, y, z, radius) around every cow, in herd
+     * coordinates, for a cow whose meshes fit in cowRadius at scale 1.
+     */
+    public float[] getBounds(float cowRadius, float[] out) {
+        if (count == 0) {
+            out[0] = out[1] = out[2] = out[3] = 0;
+            return out;
+        }
+        if (boxCurrent) {
+            //around the box that step() found, which holds every cow
+            //wherever it is drawn between the last two steps
+            float dx = box[3] - box[0], dy = box[4] - box[1], dz = box[5] - box[2];
+            out[0] = (box[0] + box[3]) / 2;
+            out[1] = (box[1] + box[4]) / 2;
+            out[2] = (box[2] + box[5]) / 2;
+            out[3] = (float)Math.sqrt(dx*dx + dy*dy + dz*dz) / 2 + cowRadius * box[6];
+            return out;
+        }
+        float minX = x[0], maxX = x[0], minY = y[0], maxY = y[0], minZ = z[0], maxZ = z[0];
+        for (int i = 1; i < count; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+            minZ = Math.min(minZ, z[i]);
+            maxZ = Math.max(maxZ, z[i]);
+        }
+        float cx = (minX + maxX) / 2, cy = (minY + maxY) / 2, cz = (minZ + maxZ) / 2;
+        float r = 0;
+        for (int i = 0; i < count; i++) {
+            float dx = x[i] - cx, dy = y[i] - cy, dz = z[i] - cz;
+            r = Math.max(r, (float)Math.sqrt(dx*dx + dy*dy + dz*dz) + cowRadius * scale[i]);
+        }
+        out[0] = cx;
+        out[1] = cy;
+        out[2] = cz;
+        out[3] = r;
+        return out;
+    }
+
+    /**
+     * Creates the instance buffer and the instancing shader.  If the context
+     * cannot do instanced drawing the herd uses the fallback path instead.
+     * When the lighting is shaded, the cows are lit per pixel from its light
+     * buffer; otherwise from GL_LIGHT0.. (see setLightCount).  A moving
+     * herd's instance data goes through stream.
+     */
+    public void init(GL2 gl, Lighting lighting, StreamBuffer stream) {
+        this.stream = stream;
+        instancing = gl.hasGLSL()
+                && gl.isFunctionAvailable("glDrawElementsInstanced")
+                && gl.isFunctionAvailable("glVertexAttribDivisor");
+        if (instancing) {
+            try {
+                if (lighting.isShaded()) {
+                    program = new ShaderProgram(gl, LIT_VERTEX_SHADER, Lighting.FRAGMENT_SHADER);
+                    lighting.attach(gl, program);
+                }
+                else {
+                    program = new ShaderProgram(gl, VERTEX_SHADER, FRAGMENT_SHADER);
+                }
+                for (int r = 0; r < 3; r++)
+                    rowAttributes[r] = program.attribute(gl, "instanceRow" + r);
+                lightCountUniform = program.uniform(gl, "lightCount");
+            }
+            catch (GLException e) {
+                System.err.println("Instanced herd disabled: " + e.getMessage());
+                instancing = false;
+            }
+        }
+        if (instancing) {
+            int[] id = new int[1];
+            gl.glGenBuffers(1, id, 0);
+            instanceBuffer = id[0];
+        }
+        dirty = true;
+    }
+
+    /**
+     * Moves the herd on by one step of dt seconds.  Each cow spends spells
+     * of a few seconds either grazing on the spot or walking forwards
+     * while it slowly turns, and picks the next spell at random when one
+     * runs out.  A cow outside the fence (see setPasture) walks back in.
+     */
+    public void step(double dt) {
+        if (count == 0)
+            return;
+        final float seconds = (float)dt;
+        int chunks = chunks();
+        if (chunkBoxes.length < chunks * 7)
+            chunkBoxes = new float[chunks * 7];
+        parallel(count, (chunk, from, to) -> stepChunk(chunk, from, to, seconds));
+        box[0] = box[1] = box[2] = Float.POSITIVE_INFINITY;
+        box[3] = box[4] = box[5] = box[6] = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < chunks; c++) {
+            for (int k = 0; k < 3; k++) {
+                box[k] = Math.min(box[k], chunkBoxes[c * 7 + k]);
+                box[3 + k] = Math.max(box[3 + k], chunkBoxes[c * 7 + 3 + k]);
+            }
+            box[6] = Math.max(box[6], chunkBoxes[c * 7 + 6]);
+        }
+        boxCurrent = true;
+        moving = true;
+        treeMoved = true;
+        alpha = 0;
+        dirty = true;
+    }
+
+    private void stepChunk(int chunk, int from, int to, float dt) {
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX, maxScale = maxX;
+        float middleX = (fenceMinX + fenceMaxX) / 2, middleZ = (fenceMinZ + fenceMaxZ) / 2;
+        for (int i = from; i < to; i++) {
+            float px = x[i], pz = z[i], a = yaw[i] % 360;
+            lastX[i] = px;
+            lastZ[i] = pz;
+            lastYaw[i] = a;
+            float left = spell[i] - dt;
+            if (left <= 0) {
+                int r = next(random[i]);
+                boolean walk = unit(r) < WALKING;
+                r = next(r);
+                float u = unit(r);
+                r = next(r);
+                float v = unit(r);
+                random[i] = r;
+                if (walk) {
+                    speed[i] = WALK_SPEED * (0.5f + 0.5f * u);
+                    turn[i] = (2 * v - 1) * MAX_TURN / 2;
+                    left = 1 + 3 * v;
+                }
+                else {
+                    speed[i] = turn[i] = 0;
+                    left = 2 + 6 * u;
+                }
+            }
+            spell[i] = left;
+            float walking = speed[i], turning = turn[i];
+            if (fenced && (px < fenceMinX || px > fenceMaxX || pz < fenceMinZ || pz > fenceMaxZ)) {
+                //turn as fast as a cow can towards the middle, and walk
+                float dx = middleX - px, dz = middleZ - pz;
+                float toward = (float)Math.toDegrees(mirrored[i] ? Math.atan2(-dz, dx) : Math.atan2(dz, -dx));
+                float off = toward - a;
+                off -= 360 * Math.round(off / 360);
+                turning = Math.max(-MAX_TURN, Math.min(MAX_TURN, off / dt));
+                walking = Math.max(walking, WALK_SPEED / 2);
+            }
+            a += turning * dt;
+            if (walking > 0) {
+                //a cow faces -x in its own coordinates, a mirrored one +x
+                double radians = Math.toRadians(a);
+                float d = walking * scale[i] * dt;
+                if (mirrored[i])
+                    d = -d;
+                x[i] = px - (float)Math.cos(radians) * d;
+                z[i] = pz + (float)Math.sin(radians) * d;
+            }
+            yaw[i] = a;
+            minX = Math.min(minX, Math.min(px, x[i]));
+            maxX = Math.max(maxX, Math.max(px, x[i]));
+            minZ = Math.min(minZ, Math.min(pz, z[i]));
+            maxZ = Math.max(maxZ, Math.max(pz, z[i]));
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxScale = Math.max(maxScale, scale[i]);
+        }
+        float[] b = chunkBoxes;
+        int base = chunk * 7;
+        b[base] = minX;
+        b[base + 1] = minY;
+        b[base + 2] = minZ;
+        b[base + 3] = maxX;
+        b[base + 4] = maxY;
+        b[base + 5] = maxZ;
+        b[base + 6] = maxScale;
+    }
+
+    /** The next state of a cow's xorshift random number generator. */
+    private static int next(int r) {
+        r ^= r << 13;
+        r ^= r >>> 17;
+        r ^= r << 5;
+        return r;
+    }
+
+    /** A random state as a number in [0, 1). */
+    private static float unit(int r) {
+        return (r >>> 8) * (1f / (1 << 24));
+    }
+
+    /**
+     * Sets how far between the last two steps the cows are drawn, from 0
+     * at the one before to 1 at the last.
+     */
+    public void interpolate(float alpha) {
+        if (moving && alpha != this.alpha) {
+            this.alpha = alpha;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the three model matrix rows of cow i to data at instance slot,
+     * where the cow is between the last two steps.
+     */
+    private void instanceRows(int i, FloatBuffer data, int slot) {
+        float t = alpha;
+        float px = lastX[i] + (x[i] - lastX[i]) * t;
+        float pz = lastZ[i] + (z[i] - lastZ[i]) * t;
+        double a = Math.toRadians(lastYaw[i] + (yaw[i] - lastYaw[i]) * t);
+        double b = Math.toRadians(pitch[i]);
+        float s = scale[i];
+        float ca = (float)Math.cos(a), sa = (float)Math.sin(a);
+        float cb = (float)Math.cos(b), sb = (float)Math.sin(b);
+        int at = slot * FLOATS_PER_INSTANCE;
+        data.put(at, s*ca).put(at + 1, s*sa*sb).put(at + 2, s*sa*cb).put(at + 3, px);
+        data.put(at + 4, 0).put(at + 5, s*cb).put(at + 6, -s*sb).put(at + 7, y[i]);
+        data.put(at + 8, -s*sa).put(at + 9, s*ca*sb).put(at + 10, s*ca*cb).put(at + 11, pz);
+    }
+
+    /**
+     * Picks each cow's level of detail from its size on screen (if frustum
+     * is not null; the cows are taken to be in world coordinates), groups
+     * the cows and, if anything changed, rewrites the instance data: the
+     * upright cows first, then the mirrored ones, each from the finest level
+     * to the coarsest, so every group is one contiguous range.  With a
+     * frustum and culling on, only the cows in view are written.
+     */
+    void prepare(MeshCache meshes, final Frustum frustum) {
+        if (frustum != null && cowRadius < 0) {
+            for (String part : MeshCache.COW_PARTS)
+                cowRadius = Math.max(cowRadius, meshes.get(part).getRadius());
+            for (String part : MeshCache.OPPOSITE_COW_PARTS)
+                cowRadius = Math.max(cowRadius, meshes.get(part).getRadius());
+            treeBuilt = false;
+        }
+        final int[] items;
+        int n;
+        if (frustum != null && culling) {
+            findVisible(frustum);
+            items = visible;
+            n = visibleCount;
+        }
+        else {
+            if (instances != count)
+                dirty = true;
+            lastVisibleCount = -1;
+            items = null;
+            n = count;
+        }
+        if (frustum == null && !dirty)
+            return;
+        int chunks = chunks(n);
+        if (chunkChanged.length < chunks) {
+            chunkSlots = new int[chunks * GROUPS];
+            chunkChanged = new boolean[chunks];
+        }
+        parallel(n, (chunk, from, to) -> countChunk(chunk, from, to, items, frustum));
+        //each chunk's count in a group becomes its first slot there
+        int start = 0;
+        for (int g = 0; g < GROUPS; g++) {
+            groupStart[g] = start;
+            for (int c = 0; c < chunks; c++) {
+                int k = chunkSlots[c * GROUPS + g];
+                chunkSlots[c * GROUPS + g] = start;
+                start += k;
+            }
+            groupCount[g] = start - groupStart[g];
+        }
+        if (frustum != null) {
+            for (int c = 0; c < chunks; c++)
+                dirty |= chunkChanged[c];
+            for (int l = 0; l < LevelOfDetail.LEVELS; l++)
+                frustum.countLevel(l, groupCount[l] + groupCount[LevelOfDetail.LEVELS + l]);
+        }
+        if (!dirty)
+            return;
+        if (instanceData == null || instanceData.capacity() < count * FLOATS_PER_INSTANCE)
+            instanceData = Buffers.newDirectFloatBuffer(Math.max(16, count) * FLOATS_PER_INSTANCE);
+        final FloatBuffer data = instanceData;
+        data.clear();   // the last frame's limit may have left out cows now in view
+        parallel(n, (chunk, from, to) -> writeChunk(chunk, from, to, items, data));
+        data.position(0).limit(n * FLOATS_PER_INSTANCE);
+        instances = n;
+    }
+
+    /**
+     * Sets visible to the cows whose spheres are in the frustum, and dirty
+     * if they are not the ones that were last frame.
+     */
+    private void findVisible(Frustum frustum) {
+        updateTree();
+        boolean grown = visible.length < count;
+        if (grown) {
+            visible = new int[count];
+            lastVisible = new int[count];
+        }
+        int[] swap = lastVisible;
+        lastVisible = visible;
+        visible = swap;
+        //new arrays no longer hold last frame's cows, so nothing can match them
+        lastVisibleCount = grown ? -1 : visibleCount;
+        visibleCount = tree.queryFrustum(frustum, visible);
+        frustum.countCulled(count - visibleCount);
+        boolean same = visibleCount == lastVisibleCount;
+        for (int k = 0; same && k < visibleCount; k++)
+            same = visible[k] == lastVisible[k];
+        if (!same)
+            dirty = true;
+    }
+
+    /**
+     * Builds the tree over the cows, or refits it if they have stepped.
+     */
+    private void updateTree() {
+        if (treeBuilt && !treeMoved)
+            return;
+        boolean refit = treeBuilt && treeRefits < TREE_REFITS;
+        if (!refit)
+            tree.setCount(count);
+        parallel(count, (chunk, from, to) -> fitSpheres(from, to));
+        if (refit) {
+            tree.refit();
+            treeRefits++;
+        }
+        else {
+            tree.build();
+            treeRefits = 0;
+        }
+        treeBuilt = true;
+        treeMoved = false;
+    }
+
+    private void fitSpheres(int from, int to) {
+        float radius = Math.max(0, cowRadius);
+        for (int i = from; i < to; i++) {
+            //big enough for wherever the cow is drawn between the last two steps
+            float dx = x[i] - lastX[i], dz = z[i] - lastZ[i];
+            tree.setSphere(i, x[i], y[i], z[i], radius * scale[i] + (float)Math.sqrt(dx*dx + dz*dz));
+        }
+    }
+
+    /**
+     * Puts the cows whose bounding spheres reach within radius of
+     * (x, y, z) into out, which must have room for every cow, and returns
+     * how many there are.
+     */
+    public int findCows(float x, float y, float z, float radius, int[] out) {
+        if (count == 0)
+            return 0;
+        updateTree();
+        return tree.querySphere(x, y, z, radius, out);
+    }
+
+    private void countChunk(int chunk, int from, int to, int[] items, Frustum frustum) {
+        int base = chunk * GROUPS;
+        Arrays.fill(chunkSlots, base, base + GROUPS, 0);
+        boolean changed = false;
+        for (int k = from; k < to; k++) {
+            int i = items == null ? k : items[k];
+            int l = level[i];
+            if (frustum != null) {
+                int picked = LevelOfDetail.select(frustum.projectedRadius(x[i], y[i], z[i], cowRadius * scale[i]), l);
+                if (picked != l) {
+                    level[i] = (byte)picked;
+                    l = picked;
+                    changed = true;
+                }
+            }
+            chunkSlots[base + group(i, l)]++;
+        }
+        chunkChanged[chunk] = changed;
+    }
+
+    private void writeChunk(int chunk, int from, int to, int[] items, FloatBuffer data) {
+        int base = chunk * GROUPS;
+        for (int k = from; k < to; k++) {
+            int i = items == null ? k : items[k];
+            instanceRows(i, data, chunkSlots[base + group(i, level[i])]++);
+        }
+    }
+
+    private int group(int i, int level) {
+        return (mirrored[i] ? LevelOfDetail.LEVELS : 0) + Math.max(0, level);
+    }
+
+    private int chunks() {
+        return chunks(count);
+    }
+
+    private static int chunks(int items) {
+        return (items + CHUNK - 1) / CHUNK;
+    }
+
+    /** One pass over the cows (or visible cows) from, inclusive, to to, exclusive. */
+    private interface ChunkPass {
+        void run(int chunk, int from, int to);
+    }
+
+    /**
+     * Runs a pass over every chunk of items cows on the pool, or on this
+     * thread if there is only one chunk.
+     */
+    private void parallel(int items, ChunkPass pass) {
+        int chunks = chunks(items);
+        if (chunks == 1)
+            pass.run(0, 0, items);
+        else if (chunks > 1)
+            pool.invoke(new Chunks(pass, items, 0, chunks));
+    }
+
+    /** Splits a range of chunks in halves down to single chunks. */
+    private static final class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ChunkPass pass;
+        private final int items, first, last;
+
+        Chunks(ChunkPass pass, int items, int first, int last) {
+            this.pass = pass;
+            this.items = items;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                pass.run(first, first * CHUNK, Math.min(items, (first + 1) * CHUNK));
+                return;
+            }
+            int middle = (first + last) >>> 1;
+            invokeAll(new Chunks(pass, items, first, middle), new Chunks(pass, items, middle, last));
+        }
+    }
+
+    /**
+     * Draws the whole herd at the finest level with the current modelview
+     * transform.  The MeshCache arrays must be enabled (see MeshCache.begin).
+     */
+    public void draw(GL2 gl, MeshCache meshes) {
+        draw(gl, meshes, null);
+    }
+
+    /**
+     * Draws the whole herd, each cow at the level of detail that suits its
+     * size in the frustum's view (or as last time, if frustum is null).
+     */
+    public void draw(GL2 gl, MeshCache meshes, Frustum frustum) {
+        if (count == 0)
+            return;
+        prepare(meshes, frustum);
+        if (instancing && moving) {
+            //every frame, even if unchanged: the stream's region for an
+            //earlier frame is soon written over
+            drawOffset = stream.write(gl, GL2.GL_ARRAY_BUFFER, instanceData, 16);
+            drawBuffer = stream.getBuffer();
+        }
+        else if (instancing && dirty) {
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, instanceBuffer);
+            gl.glBufferData(GL2.GL_ARRAY_BUFFER, (long)instances * INSTANCE_STRIDE, instanceData, GL2.GL_DYNAMIC_DRAW);
+            drawBuffer = instanceBuffer;
+            drawOffset = 0;
+        }
+        dirty = false;
+        if (instancing)
+            drawInstanced(gl, meshes);
+        else
+            drawEach(gl, meshes);
+    }
+
+    private void drawInstanced(GL2 gl, MeshCache meshes) {
+        program.use(gl);
+        if (lightCountUniform >= 0)   // only the unshaded program has it
+            gl.glUniform1i(lightCountUniform, lightCount);
+        for (int r = 0; r < 3; r++) {
+            gl.glEnableVertexAttribArray(rowAttributes[r]);
+            gl.glVertexAttribDivisor(rowAttributes[r], 1);
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            drawGroup(gl, meshes, g < LevelOfDetail.LEVELS ? MeshCache.COW_PARTS : MeshCache.OPPOSITE_COW_PARTS,
+                      g % LevelOfDetail.LEVELS, groupStart[g], groupCount[g]);
+        }
+        for (int r = 0; r < 3; r++) {
+            gl.glVertexAttribDivisor(rowAttributes[r], 0);
+            gl.glDisableVertexAttribArray(rowAttributes[r]);
+        }
+        gl.glUseProgram(0);
+    }
+
+    private void drawGroup(GL2 gl, MeshCache meshes, String[] parts, int partLevel, int first, int instances) {
+        if (instances == 0)
+            return;
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, drawBuffer);
+        for (int r = 0; r < 3; r++) {
+            long offset = drawOffset + ((long)first * FLOATS_PER_INSTANCE + r * 4) * Buffers.SIZEOF_FLOAT;
+            gl.glVertexAttribPointer(rowAttributes[r], 4, GL2.GL_FLOAT, false, INSTANCE_STRIDE, offset);
+        }
+        for (String part : parts) {
+            Mesh mesh = meshes.getLevels(part)[partLevel];
+            mesh.bind(gl);
+            mesh.drawInstanced(gl, instances);
+        }
+    }
+
+    /**
+     * Fallback for contexts without instancing: one matrix and four draws per cow.
+     */
+    private void drawEach(GL2 gl, MeshCache meshes) {
+        float[] m = matrix;
+        FloatBuffer data = instanceData;
+        int g = 0;
+        for (int i = 0; i < instances; i++) {
+            while (i >= groupStart[g] + groupCount[g])
+                g++;
+            int base = i * FLOATS_PER_INSTANCE;
+            for (int r = 0; r < 3; r++) {
+                m[r] = data.get(base + r*4);
+                m[4 + r] = data.get(base + r*4 + 1);
+                m[8 + r] = data.get(base + r*4 + 2);
+                m[12 + r] = data.get(base + r*4 + 3);
+            }
+            m[3] = m[7] = m[11] = 0;
+            m[15] = 1;
+            gl.glPushMatrix();
+            gl.glMultMatrixf(m, 0);
+            for (String part : g < LevelOfDetail.LEVELS ? MeshCache.COW_PARTS : MeshCache.OPPOSITE_COW_PARTS)
+                meshes.getLevels(part)[g % LevelOfDetail.LEVELS].draw(gl);
+            gl.glPopMatrix();
+        }
+    }
+
+    public void dispose(GL2 gl) {
+        if (program != null) {
+            program.dispose(gl);
+            program = null;
+        }
+        if (instanceBuffer != 0) {
+            gl.glDeleteBuffers(1, new int[] { instanceBuffer }, 0);
+            instanceBuffer = 0;
+        }
+    }
+}
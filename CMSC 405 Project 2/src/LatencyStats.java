@@ -0,0 +1,73 @@
+/*
+ * File: LatencyStats.java
+ * CMSC 405
+ * Description: Statistics for a latency that is sampled now and then, such
+ *  as the time from a trackball drag to the frame that shows it.  It keeps
+ *  the count, mean and worst sample of the current window and the last
+ *  SAMPLES samples for percentiles.  Recording allocates nothing.
+ */
+
+import java.util.Arrays;
+
+public class LatencyStats {
+
+    /** Number of recent samples kept for percentiles. */
+    public static final int SAMPLES = 256;
+
+    private final long[] samples = new long[SAMPLES];
+    private final long[] sorted = new long[SAMPLES];
+    private int count;
+    private double mean;
+    private long worst;
+
+    /**
+     * Records one latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[count % SAMPLES] = nanos;
+        count++;
+        mean += (nanos - mean) / count;
+        if (nanos > worst)
+            worst = nanos;
+    }
+
+    /**
+     * Starts a new window.
+     */
+    public synchronized void reset() {
+        count = 0;
+        mean = 0;
+        worst = 0;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized double getMeanMillis() {
+        return mean / 1e6;
+    }
+
+    public synchronized double getWorstMillis() {
+        return worst / 1e6;
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of the window's last SAMPLES
+     * samples in milliseconds, or NaN if there are none.
+     */
+    public synchronized double percentileMillis(double p) {
+        int n = Math.min(count, SAMPLES);
+        if (n == 0)
+            return Double.NaN;
+        System.arraycopy(samples, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        return sorted[Math.min(n - 1, (int)Math.floor(p / 100 * n))] / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d samples, %.2f ms mean, %.2f ms p50, %.2f ms p95, %.2f ms worst",
+                count, getMeanMillis(), percentileMillis(50), percentileMillis(95), getWorstMillis());
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * File: LevelOfDetail.java
+ * CMSC 405
+ * Description: Picks a tessellation level from how big an object is on
+ *  screen.  Level 0 is the finest.  An object moves to a finer level only
+ *  once its projected radius is HYSTERESIS above that level's threshold, and
+ *  to a coarser one only once it is HYSTERESIS below, so an object sitting
+ *  near a threshold does not pop back and forth between levels.
+ */
+
+public final class LevelOfDetail {
+
+    /** Number of tessellation levels kept for each primitive. */
+    public static final int LEVELS = 3;
+
+    /** Smallest projected radius, in pixels, drawn at each level. */
+    private static final float[] MIN_PIXELS = { 48, 16, 0 };
+    private static final float HYSTERESIS = 0.2f;
+
+    private LevelOfDetail() {
+    }
+
+    /**
+     * Returns the level for an object whose bounding sphere is the given
+     * number of pixels in radius on screen.
+     * @param current the object's level last frame, or -1 if it has none
+     */
+    public static int select(float pixels, int current) {
+        if (current < 0) {
+            int level = 0;
+            while (pixels < MIN_PIXELS[level])
+                level++;
+            return level;
+        }
+        int level = current;
+        while (level > 0 && pixels >= MIN_PIXELS[level - 1] * (1 + HYSTERESIS))
+            level--;
+        while (level < LEVELS - 1 && pixels < MIN_PIXELS[level] * (1 - HYSTERESIS))
+            level++;
+        return level;
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * File: LightManager.java
+ * CMSC 405
+ * Description: Holds any number of lights in plain arrays and, for the
+ *  fixed-function path, gives each scene object the few that light it most.
+ *  Every frame each registered object ranks the lights by how bright they are
+ *  at its bounding sphere, after attenuation, and keeps the best
+ *  lightsPerObject of them; with many objects the ranking runs in parallel.
+ *  When an object is drawn its lights are bound to GL_LIGHT0.. and only the
+ *  parameters that differ from what those slots already hold are sent.  The
+ *  shader path (Lighting) reads the same arrays.
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.jogamp.opengl.GL2;
+
+public class LightManager {
+
+    /** Lights fixed function can have on at once. */
+    public static final int MAX_PER_OBJECT = 8;
+    /** Lights dimmer than this at an object are left off for it. */
+    private static final float MIN_INFLUENCE = 1f / 256;
+    /** Below this many objects the ranking runs on the calling thread. */
+    private static final int PARALLEL_OBJECTS = 64;
+    private static final int OBJECTS_PER_TASK = 16;
+
+    // One entry per light: 4 floats for the position, colors and
+    // attenuation, and versions bumped whenever the position or any of
+    // the others changes.
+    private float[] position = new float[64], diffuse = new float[64], ambient = new float[64];
+    private float[] attenuation = new float[64];   // constant, linear, quadratic, unused
+    private boolean[] followsCamera = new boolean[16];
+    private int[] positionVersion = new int[16], colorVersion = new int[16];
+    private int count;
+    private final float[] globalAmbient = { 0.2f, 0.2f, 0.2f, 1 };
+    private boolean globalAmbientChanged = true;
+
+    // One entry per object: its node and its chosen lights, brightest first.
+    private SceneNode[] objects = new SceneNode[16];
+    private int objectCount;
+    private int lightsPerObject = MAX_PER_OBJECT;
+    private int[] selected = new int[16 * MAX_PER_OBJECT];
+    private float[] influence = new float[16 * MAX_PER_OBJECT];
+    private int[] selectedCount = new int[16];
+    // per light, for the current ranking: brightest channel, and the
+    // distance past which it is dimmer than MIN_INFLUENCE (infinite if never)
+    private float[] brightness = new float[16], range = new float[16];
+
+    // What GL_LIGHT0.. hold now, on the fixed-function path.
+    private boolean fixedFunction;
+    private final int[] boundLight = new int[MAX_PER_OBJECT];
+    private final int[] boundColor = new int[MAX_PER_OBJECT];
+    private final int[] boundPosition = new int[MAX_PER_OBJECT];
+    private final int[] boundView = new int[MAX_PER_OBJECT];
+    private int enabled;
+    private final double[] lastView = new double[16];
+    private int viewVersion;
+    private int uploads;
+
+    /**
+     * Adds a light, black, at the origin and unattenuated, and returns its
+     * index.
+     */
+    public int addLight() {
+        if (count == followsCamera.length) {
+            int n = count * 2;
+            position = Arrays.copyOf(position, 4 * n);
+            diffuse = Arrays.copyOf(diffuse, 4 * n);
+            ambient = Arrays.copyOf(ambient, 4 * n);
+            attenuation = Arrays.copyOf(attenuation, 4 * n);
+            followsCamera = Arrays.copyOf(followsCamera, n);
+            positionVersion = Arrays.copyOf(positionVersion, n);
+            colorVersion = Arrays.copyOf(colorVersion, n);
+        }
+        int i = count++;
+        set(position, positionVersion, i, 0, 0, 0, 1);
+        set(diffuse, colorVersion, i, 0, 0, 0, 1);
+        set(ambient, colorVersion, i, 0, 0, 0, 1);
+        set(attenuation, colorVersion, i, 1, 0, 0, 0);
+        followsCamera[i] = false;
+        positionVersion[i]++;
+        colorVersion[i]++;
+        return i;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Sets where a light is, as glLightfv(GL_POSITION) would: w = 1 for a
+     * point light, w = 0 for a direction.
+     */
+    public void setPosition(int light, float x, float y, float z, float w) {
+        set(position, positionVersion, light, x, y, z, w);
+    }
+
+    public void setDiffuse(int light, float r, float g, float b) {
+        set(diffuse, colorVersion, light, r, g, b, 1);
+    }
+
+    public void setAmbient(int light, float r, float g, float b) {
+        set(ambient, colorVersion, light, r, g, b, 1);
+    }
+
+    /**
+     * Sets how a point light fades with distance d, as
+     * 1 / (constant + linear*d + quadratic*d*d).
+     */
+    public void setAttenuation(int light, float constant, float linear, float quadratic) {
+        set(attenuation, colorVersion, light, constant, linear, quadratic, 0);
+    }
+
+    /**
+     * Makes a light's position eye coordinates rather than world
+     * coordinates, so it moves with the camera like a headlight.
+     */
+    public void setFollowsCamera(int light, boolean follows) {
+        if (followsCamera[light] != follows) {
+            followsCamera[light] = follows;
+            positionVersion[light]++;
+        }
+    }
+
+    public boolean followsCamera(int light) {
+        return followsCamera[light];
+    }
+
+    /** Sets the ambient light that reaches every surface. */
+    public void setGlobalAmbient(float r, float g, float b) {
+        globalAmbient[0] = r;
+        globalAmbient[1] = g;
+        globalAmbient[2] = b;
+        globalAmbientChanged = true;
+    }
+
+    public float[] getGlobalAmbient() {
+        return globalAmbient;
+    }
+
+    /** Light i's position is at 4*i in this array; likewise the others. */
+    float[] positions() {
+        return position;
+    }
+
+    float[] diffuseColors() {
+        return diffuse;
+    }
+
+    float[] ambientColors() {
+        return ambient;
+    }
+
+    float[] attenuations() {
+        return attenuation;
+    }
+
+    /**
+     * Stores four values of light i, bumping one of its versions if they
+     * changed, so lights set to what they already are cost nothing.
+     */
+    private static void set(float[] array, int[] versions, int i, float a, float b, float c, float d) {
+        int k = 4 * i;
+        if (array[k] == a && array[k+1] == b && array[k+2] == c && array[k+3] == d)
+            return;
+        array[k] = a;
+        array[k+1] = b;
+        array[k+2] = c;
+        array[k+3] = d;
+        versions[i]++;
+    }
+
+    /**
+     * Sets how many lights each object gets, from 1 to MAX_PER_OBJECT.
+     */
+    public void setLightsPerObject(int n) {
+        if (n < 1 || n > MAX_PER_OBJECT)
+            throw new IllegalArgumentException("Lights per object must be 1 to " + MAX_PER_OBJECT);
+        lightsPerObject = n;
+    }
+
+    public int getLightsPerObject() {
+        return lightsPerObject;
+    }
+
+    /**
+     * Registers every node below root that draws (the leaves), so each
+     * binds its own lights.
+     */
+    public void registerAll(SceneNode root) {
+        if (root instanceof StaticBatchNode || !(root instanceof GroupNode)) {
+            register(root);
+            return;
+        }
+        for (SceneNode child : ((GroupNode)root).getChildren())
+            registerAll(child);
+    }
+
+    /**
+     * Registers one node; its render() then calls bind() for its lights.
+     */
+    public void register(SceneNode node) {
+        if (objectCount == objects.length) {
+            int n = objectCount * 2;
+            objects = Arrays.copyOf(objects, n);
+            selectedCount = Arrays.copyOf(selectedCount, n);
+            selected = Arrays.copyOf(selected, n * MAX_PER_OBJECT);
+            influence = Arrays.copyOf(influence, n * MAX_PER_OBJECT);
+        }
+        objects[objectCount] = node;
+        node.setLights(this, objectCount);
+        objectCount++;
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * Says whether bind() sets GL_LIGHT0.. (true) or does nothing because a
+     * shader lights the scene, and forgets what the light slots held, as
+     * after a new context.
+     */
+    public void setFixedFunction(boolean fixedFunction) {
+        this.fixedFunction = fixedFunction;
+        Arrays.fill(boundLight, -1);
+        enabled = 0;
+        globalAmbientChanged = true;
+        viewVersion++;
+    }
+
+    /**
+     * Ranks the lights for every object, after the scene's bounds are
+     * updated.  The modelview must be the view, which is passed in too so
+     * light positions are only sent again when it changed.
+     */
+    public void beginFrame(GL2 gl, Mat4 view) {
+        uploads = 0;
+        if (!fixedFunction)
+            return;
+        if (globalAmbientChanged) {
+            gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, globalAmbient, 0);
+            globalAmbientChanged = false;
+            uploads++;
+        }
+        if (!Arrays.equals(view.m, lastView)) {
+            System.arraycopy(view.m, 0, lastView, 0, 16);
+            viewVersion++;
+        }
+        selectAll();
+    }
+
+    /**
+     * Picks the lights of every object, in parallel tasks of
+     * OBJECTS_PER_TASK objects when there are many.
+     */
+    void selectAll() {
+        prepare();
+        if (objectCount < PARALLEL_OBJECTS) {
+            selectRange(0, objectCount);
+            return;
+        }
+        int tasks = (objectCount + OBJECTS_PER_TASK - 1) / OBJECTS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(t ->
+                selectRange(t * OBJECTS_PER_TASK, Math.min(objectCount, (t + 1) * OBJECTS_PER_TASK)));
+    }
+
+    /**
+     * Works out each light's brightness and reach once, so ranking an
+     * object can reject far lights with a squared distance.
+     */
+    private void prepare() {
+        if (brightness.length < count) {
+            brightness = new float[followsCamera.length];
+            range = new float[followsCamera.length];
+        }
+        for (int l = 0; l < count; l++) {
+            int k = 4 * l;
+            float b = Math.max(diffuse[k], Math.max(diffuse[k+1], diffuse[k+2]))
+                    + Math.max(ambient[k], Math.max(ambient[k+1], ambient[k+2]));
+            brightness[l] = b;
+            //solve constant + linear*d + quadratic*d*d = b / MIN_INFLUENCE
+            float c = attenuation[k] - b / MIN_INFLUENCE, linear = attenuation[k+1], quadratic = attenuation[k+2];
+            if (position[k+3] == 0 || followsCamera[l])
+                range[l] = Float.POSITIVE_INFINITY;
+            else if (c > 0)
+                range[l] = -1;
+            else if (quadratic > 0)
+                range[l] = (float)((-linear + Math.sqrt(linear*linear - 4*quadratic*c)) / (2*quadratic));
+            else if (linear > 0)
+                range[l] = -c / linear;
+            else
+                range[l] = Float.POSITIVE_INFINITY;
+        }
+    }
+
+    private void selectRange(int from, int to) {
+        for (int i = from; i < to; i++)
+            select(i);
+    }
+
+    /**
+     * Keeps the lightsPerObject lights brightest at object i's bounding
+     * sphere, by insertion into its short sorted list.
+     */
+    private void select(int object) {
+        float[] sphere = objects[object].getBounds();
+        int base = object * MAX_PER_OBJECT;
+        int n = 0;
+        for (int l = 0; l < count; l++) {
+            if (!inRange(l, sphere))
+                continue;
+            float value = influence(l, sphere);
+            if (value < MIN_INFLUENCE)
+                continue;
+            if (n == lightsPerObject && value <= influence[base + n - 1])
+                continue;
+            int k = Math.min(n, lightsPerObject - 1);
+            while (k > 0 && influence[base + k - 1] < value) {
+                influence[base + k] = influence[base + k - 1];
+                selected[base + k] = selected[base + k - 1];
+                k--;
+            }
+            influence[base + k] = value;
+            selected[base + k] = l;
+            if (n < lightsPerObject)
+                n++;
+        }
+        selectedCount[object] = n;
+    }
+
+    /**
+     * How bright light l is at the nearest point of a sphere: its brightest
+     * color channel times its attenuation there.  Directional lights, lights
+     * that follow the camera and unbounded objects get no attenuation.
+     */
+    private float influence(int l, float[] sphere) {
+        int k = 4 * l;
+        if (position[k+3] == 0 || followsCamera[l] || sphere[3] < 0)
+            return brightness[l];
+        float dx = position[k] - sphere[0], dy = position[k+1] - sphere[1], dz = position[k+2] - sphere[2];
+        float d = Math.max(0, (float)Math.sqrt(dx*dx + dy*dy + dz*dz) - sphere[3]);
+        return brightness[l] / (attenuation[k] + attenuation[k+1] * d + attenuation[k+2] * d * d);
+    }
+
+    /**
+     * False if light l cannot reach a sphere with MIN_INFLUENCE, tested
+     * without a square root.
+     */
+    private boolean inRange(int l, float[] sphere) {
+        float reach = range[l];
+        if (reach == Float.POSITIVE_INFINITY || sphere[3] < 0)
+            return true;
+        if (reach < 0)
+            return false;
+        int k = 4 * l;
+        float dx = position[k] - sphere[0], dy = position[k+1] - sphere[1], dz = position[k+2] - sphere[2];
+        float r = reach + sphere[3];
+        return dx*dx + dy*dy + dz*dz <= r * r;
+    }
+
+    /**
+     * The lights chosen for an object by the last beginFrame(), brightest
+     * first, in out; returns how many there are.
+     */
+    public int getSelected(int object, int[] out) {
+        int n = selectedCount[object];
+        System.arraycopy(selected, object * MAX_PER_OBJECT, out, 0, n);
+        return n;
+    }
+
+    /**
+     * Puts an object's lights in GL_LIGHT0.., sending only what those slots
+     * do not already hold, and turns off the slots it does not use.  Call
+     * with the view as the modelview.
+     */
+    public void bind(GL2 gl, int object) {
+        if (!fixedFunction)
+            return;
+        int n = selectedCount[object];
+        int base = object * MAX_PER_OBJECT;
+        for (int slot = 0; slot < n; slot++) {
+            int l = selected[base + slot];
+            int light = GL2.GL_LIGHT0 + slot;
+            boolean moved = boundLight[slot] != l || boundPosition[slot] != positionVersion[l];
+            if (boundLight[slot] != l || boundColor[slot] != colorVersion[l]) {
+                gl.glLightfv(light, GL2.GL_DIFFUSE, diffuse, 4*l);
+                gl.glLightfv(light, GL2.GL_SPECULAR, diffuse, 4*l);
+                gl.glLightfv(light, GL2.GL_AMBIENT, ambient, 4*l);
+                gl.glLightf(light, GL2.GL_CONSTANT_ATTENUATION, attenuation[4*l]);
+                gl.glLightf(light, GL2.GL_LINEAR_ATTENUATION, attenuation[4*l + 1]);
+                gl.glLightf(light, GL2.GL_QUADRATIC_ATTENUATION, attenuation[4*l + 2]);
+                uploads += 6;
+            }
+            //positions go through the view, so they are resent when it moves
+            if (moved || (boundView[slot] != viewVersion && !followsCamera[l])) {
+                if (followsCamera[l]) {
+                    gl.glPushMatrix();
+                    gl.glLoadIdentity();
+                    gl.glLightfv(light, GL2.GL_POSITION, position, 4*l);
+                    gl.glPopMatrix();
+                }
+                else {
+                    gl.glLightfv(light, GL2.GL_POSITION, position, 4*l);
+                }
+                uploads++;
+            }
+            boundLight[slot] = l;
+            boundColor[slot] = colorVersion[l];
+            boundPosition[slot] = positionVersion[l];
+            boundView[slot] = viewVersion;
+        }
+        for (int slot = n; slot < enabled; slot++)
+            gl.glDisable(GL2.GL_LIGHT0 + slot);
+        for (int slot = enabled; slot < n; slot++)
+            gl.glEnable(GL2.GL_LIGHT0 + slot);
+        enabled = n;
+    }
+
+    /** Number of GL_LIGHT0.. turned on by the last bind(). */
+    public int getEnabledCount() {
+        return enabled;
+    }
+
+    /** Light parameters sent to GL since the last beginFrame(). */
+    public int getUploads() {
+        return uploads;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * File: Lighting.java
+ * CMSC 405
+ * Description: The per-pixel lighting shader that replaces fixed-function
+ *  lighting.  The lights of a LightManager, kept in world space, are moved
+ *  into eye space once per frame and written into a StreamBuffer, so a frame
+ *  never overwrites the block an earlier frame is still being lit by.  Every
+ *  lit program reads it through its "Lights" block (std140 layout, bound at
+ *  BINDING with glBindBufferRange).  Surface colors come from the vertex color attribute, as
+ *  GL_COLOR_MATERIAL did.  The shaders are GLSL 1.20 with
+ *  ARB_uniform_buffer_object, which Mesa's software renderer has, and use
+ *  the first MAX_LIGHTS lights.  Without them the LightManager binds a few
+ *  lights per object to GL_LIGHT0..7 instead.
+ */
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+public class Lighting {
+
+    /** Most lights the shader path handles; fixed function stops at 8. */
+    public static final int MAX_LIGHTS = 128;
+    /** Uniform buffer binding point of the "Lights" block. */
+    public static final int BINDING = 0;
+
+    // std140: globalAmbient, lightCount, then four vec4 arrays
+    private static final int BLOCK_BYTES = (2 + 4 * MAX_LIGHTS) * 4 * Buffers.SIZEOF_FLOAT;
+
+    /** The "Lights" block, for any shader that lights with it. */
+    public static final String LIGHTS_BLOCK =
+        "#extension GL_ARB_uniform_buffer_object : require\n" +
+        "layout(std140) uniform Lights {\n" +
+        "    vec4 globalAmbient;\n" +
+        "    ivec4 lightCount;\n" +
+        "    vec4 lightPosition[" + MAX_LIGHTS + "];\n" +   // eye space, w = 0 for directional
+        "    vec4 lightDiffuse[" + MAX_LIGHTS + "];\n" +
+        "    vec4 lightAmbient[" + MAX_LIGHTS + "];\n" +
+        "    vec4 lightAttenuation[" + MAX_LIGHTS + "];\n" +   // constant, linear, quadratic
+        "};\n";
+
+    /**
+     * Lights a fragment from the eye-space position, normal and color that
+     * the vertex shader passes on.  Shared with the herd's instancing shader.
+     */
+    public static final String FRAGMENT_SHADER =
+        "#version 120\n" +
+        LIGHTS_BLOCK +
+        "varying vec3 eyePosition;\n" +
+        "varying vec3 eyeNormal;\n" +
+        "varying vec3 color;\n" +
+        "void main() {\n" +
+        "    vec3 n = normalize(eyeNormal);\n" +
+        "    vec3 c = globalAmbient.rgb * color;\n" +
+        "    for (int i = 0; i < lightCount.x; i++) {\n" +
+        "        vec4 p = lightPosition[i];\n" +
+        "        vec3 l = p.w == 0.0 ? p.xyz : p.xyz - eyePosition;\n" +
+        "        float d = length(l);\n" +
+        "        float fade = p.w == 0.0 ? 1.0 : 1.0 / dot(lightAttenuation[i].xyz, vec3(1.0, d, d * d));\n" +
+        "        c += fade * (lightAmbient[i].rgb + lightDiffuse[i].rgb * max(dot(n, l / d), 0.0)) * color;\n" +
+        "    }\n" +
+        "    gl_FragColor = vec4(c, 1.0);\n" +
+        "}\n";
+
+    private static final String VERTEX_SHADER =
+        "#version 120\n" +
+        "varying vec3 eyePosition;\n" +
+        "varying vec3 eyeNormal;\n" +
+        "varying vec3 color;\n" +
+        "void main() {\n" +
+        "    vec4 eye = gl_ModelViewMatrix * gl_Vertex;\n" +
+        "    eyePosition = eye.xyz;\n" +
+        "    eyeNormal = gl_NormalMatrix * gl_Normal;\n" +
+        "    color = gl_Color.rgb;\n" +
+        "    gl_Position = gl_ProjectionMatrix * eye;\n" +
+        "}\n";
+
+    private final LightManager lights;
+
+    private boolean shadersEnabled = true;
+    private ShaderProgram program;    // null on the fixed-function path
+    private StreamBuffer stream;      // where each frame's block goes
+    private int blockAlignment;       // GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT
+    private final ByteBuffer block = Buffers.newDirectByteBuffer(BLOCK_BYTES);
+
+    /**
+     * Creates the lighting for the lights a LightManager holds.
+     */
+    public Lighting(LightManager lights) {
+        this.lights = lights;
+    }
+
+    /**
+     * Turns the shader path off, to compare against fixed function.  Must be
+     * called before init().
+     */
+    public void setShadersEnabled(boolean enabled) {
+        shadersEnabled = enabled;
+    }
+
+    /**
+     * True if lights go through the per-pixel shader, false if through
+     * fixed function.  Valid after init().
+     */
+    public boolean isShaded() {
+        return program != null;
+    }
+
+    /**
+     * Builds the lighting program, or sets up fixed function if the context
+     * cannot run it.  The light block is written to stream every frame.
+     */
+    public void init(GL2 gl, StreamBuffer stream) {
+        this.stream = stream;
+        program = null;
+        if (shadersEnabled && gl.hasGLSL()
+                && (gl.isGL3() || gl.isExtensionAvailable("GL_ARB_uniform_buffer_object"))) {
+            try {
+                program = new ShaderProgram(gl, VERTEX_SHADER, FRAGMENT_SHADER);
+                attach(gl, program);
+            }
+            catch (GLException e) {
+                System.err.println("Lighting shader disabled: " + e.getMessage());
+                program = null;
+            }
+        }
+        if (program != null) {
+            int[] alignment = new int[1];
+            gl.glGetIntegerv(GL2.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, alignment, 0);
+            blockAlignment = Math.max(16, alignment[0]);
+        }
+        //fixed function still lights whatever is drawn without a program
+        gl.glEnable(GL2.GL_LIGHTING);
+        gl.glEnable(GL2.GL_NORMALIZE);
+        gl.glEnable(GL2.GL_COLOR_MATERIAL);
+        gl.glLightModeli(GL2.GL_LIGHT_MODEL_LOCAL_VIEWER, 1);
+        gl.glMateriali(GL2.GL_FRONT_AND_BACK, GL2.GL_SHININESS, 32);
+        lights.setFixedFunction(program == null);
+    }
+
+    /**
+     * Points another program's "Lights" block at the light buffer.
+     */
+    public void attach(GL2 gl, ShaderProgram other) {
+        int index = gl.glGetUniformBlockIndex(other.getId(), "Lights");
+        if (index == GL2.GL_INVALID_INDEX)
+            throw new GLException("Program has no Lights block");
+        gl.glUniformBlockBinding(other.getId(), index, BINDING);
+    }
+
+    /**
+     * Sends this frame's lights and starts lit drawing.  Call after the
+     * scene is updated, with the camera's view as the modelview; the view
+     * is also passed in for moving the lights into eye space.
+     */
+    public void begin(GL2 gl, Mat4 view) {
+        lights.beginFrame(gl, view);
+        if (program != null) {
+            writeBlock(view);
+            long offset = stream.write(gl, GL2.GL_UNIFORM_BUFFER, block, blockAlignment);
+            gl.glBindBufferRange(GL2.GL_UNIFORM_BUFFER, BINDING, stream.getBuffer(), offset, BLOCK_BYTES);
+            program.use(gl);
+        }
+    }
+
+    /**
+     * Binds the lighting program again after something drew with its own.
+     */
+    public void use(GL2 gl) {
+        if (program != null)
+            program.use(gl);
+    }
+
+    /**
+     * Ends lit drawing.
+     */
+    public void end(GL2 gl) {
+        if (program != null)
+            gl.glUseProgram(0);
+    }
+
+    private void writeBlock(Mat4 view) {
+        double[] m = view.m;
+        float[] globalAmbient = lights.getGlobalAmbient();
+        float[] position = lights.positions();
+        int count = Math.min(lights.getCount(), MAX_LIGHTS);
+        block.clear();
+        block.putFloat(globalAmbient[0]).putFloat(globalAmbient[1]).putFloat(globalAmbient[2]).putFloat(1);
+        block.putInt(count).putInt(0).putInt(0).putInt(0);
+        for (int i = 0; i < MAX_LIGHTS; i++) {
+            float x = 0, y = 0, z = 0, w = 1;
+            if (i < count) {
+                x = position[4*i];
+                y = position[4*i + 1];
+                z = position[4*i + 2];
+                w = position[4*i + 3];
+            }
+            if (i < count && !lights.followsCamera(i)) {
+                block.putFloat((float)(m[0]*x + m[4]*y + m[8]*z + m[12]*w));
+                block.putFloat((float)(m[1]*x + m[5]*y + m[9]*z + m[13]*w));
+                block.putFloat((float)(m[2]*x + m[6]*y + m[10]*z + m[14]*w));
+                block.putFloat(w);
+            }
+            else {
+                block.putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+            }
+        }
+        putArray(lights.diffuseColors(), count);
+        putArray(lights.ambientColors(), count);
+        putArray(lights.attenuations(), count);
+        block.flip();
+    }
+
+    /**
+     * Writes MAX_LIGHTS vec4s, the first count from the array and the rest
+     * zero.
+     */
+    private void putArray(float[] values, int count) {
+        for (int i = 0; i < 4 * MAX_LIGHTS; i++)
+            block.putFloat(i < 4 * count ? values[i] : 0);
+    }
+
+    public void dispose(GL2 gl) {
+        if (program != null) {
+            program.dispose(gl);
+            program = null;
+        }
+    }
+}
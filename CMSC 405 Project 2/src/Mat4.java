@@ -0,0 +1,106 @@
+/*
+ * File: Mat4.java
+ * CMSC 405
+ * Description: A mutable 4x4 matrix of doubles, stored column-major in m so it
+ *  can be handed straight to glLoadMatrixd.  The setters build the same
+ *  matrices as gluLookAt, glFrustum and glOrtho, without a GL context and
+ *  without allocating.
+ */
+
+public final class Mat4 {
+
+    public final double[] m = new double[16];
+
+    public Mat4() {
+        identity();
+    }
+
+    public Mat4 identity() {
+        for (int i = 0; i < 16; i++)
+            m[i] = (i % 5 == 0) ? 1 : 0;
+        return this;
+    }
+
+    public Mat4 set(Mat4 a) {
+        System.arraycopy(a.m, 0, m, 0, 16);
+        return this;
+    }
+
+    /**
+     * Sets this = a * b.  this must not be a or b.
+     */
+    public Mat4 multiply(Mat4 a, Mat4 b) {
+        double[] x = a.m, y = b.m;
+        for (int col = 0; col < 4; col++) {
+            double b0 = y[col*4], b1 = y[col*4+1], b2 = y[col*4+2], b3 = y[col*4+3];
+            for (int row = 0; row < 4; row++)
+                m[col*4+row] = x[row]*b0 + x[4+row]*b1 + x[8+row]*b2 + x[12+row]*b3;
+        }
+        return this;
+    }
+
+    /**
+     * Sets this to the viewing matrix of gluLookAt(eye, center, up).
+     */
+    public Mat4 lookAt(Vec3 eye, Vec3 center, Vec3 up) {
+        double fx = center.x - eye.x, fy = center.y - eye.y, fz = center.z - eye.z;
+        double f = Math.sqrt(fx*fx + fy*fy + fz*fz);
+        fx /= f;
+        fy /= f;
+        fz /= f;
+        double sx = fy*up.z - fz*up.y, sy = fz*up.x - fx*up.z, sz = fx*up.y - fy*up.x;
+        double s = Math.sqrt(sx*sx + sy*sy + sz*sz);
+        sx /= s;
+        sy /= s;
+        sz /= s;
+        double ux = sy*fz - sz*fy, uy = sz*fx - sx*fz, uz = sx*fy - sy*fx;
+        m[0] = sx;  m[4] = sy;  m[8] = sz;
+        m[1] = ux;  m[5] = uy;  m[9] = uz;
+        m[2] = -fx; m[6] = -fy; m[10] = -fz;
+        m[3] = 0;   m[7] = 0;   m[11] = 0;
+        m[12] = -(sx*eye.x + sy*eye.y + sz*eye.z);
+        m[13] = -(ux*eye.x + uy*eye.y + uz*eye.z);
+        m[14] = fx*eye.x + fy*eye.y + fz*eye.z;
+        m[15] = 1;
+        return this;
+    }
+
+    /**
+     * Sets this to the matrix of glFrustum(left, right, bottom, top, near, far).
+     */
+    public Mat4 frustum(double left, double right, double bottom, double top, double near, double far) {
+        identity();
+        m[0] = 2 * near / (right - left);
+        m[5] = 2 * near / (top - bottom);
+        m[8] = (right + left) / (right - left);
+        m[9] = (top + bottom) / (top - bottom);
+        m[10] = -(far + near) / (far - near);
+        m[11] = -1;
+        m[14] = -2 * far * near / (far - near);
+        m[15] = 0;
+        return this;
+    }
+
+    /**
+     * Sets this to the matrix of glOrtho(left, right, bottom, top, near, far).
+     */
+    public Mat4 ortho(double left, double right, double bottom, double top, double near, double far) {
+        identity();
+        m[0] = 2 / (right - left);
+        m[5] = 2 / (top - bottom);
+        m[10] = -2 / (far - near);
+        m[12] = -(right + left) / (right - left);
+        m[13] = -(top + bottom) / (top - bottom);
+        m[14] = -(far + near) / (far - near);
+        return this;
+    }
+
+    /**
+     * Transforms the point p (w = 1) by this matrix, dropping w, into out.
+     */
+    public Vec3 transformPoint(Vec3 p, Vec3 out) {
+        return out.set(m[0]*p.x + m[4]*p.y + m[8]*p.z + m[12],
+                       m[1]*p.x + m[5]*p.y + m[9]*p.z + m[13],
+                       m[2]*p.x + m[6]*p.y + m[10]*p.z + m[14]);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * File: Matrices.java
+ * CMSC 405
+ * Description: Helpers for 4x4 float matrices stored column-major in a float[16],
+ *  the layout that glMultMatrixf and glLoadMatrixf expect.  The transform methods
+ *  post-multiply in place, so a sequence of calls composes exactly like the
+ *  corresponding glTranslated/glRotated/glScaled calls, and none of them allocate.
+ */
+
+public final class Matrices {
+
+    private Matrices() {
+    }
+
+    public static void identity(float[] m) {
+        for (int i = 0; i < 16; i++)
+            m[i] = (i % 5 == 0) ? 1 : 0;
+    }
+
+    /**
+     * Sets out = a * b.  out must not be the same array as a or b.
+     */
+    public static void multiply(float[] a, float[] b, float[] out) {
+        for (int col = 0; col < 4; col++) {
+            float b0 = b[col*4], b1 = b[col*4+1], b2 = b[col*4+2], b3 = b[col*4+3];
+            for (int row = 0; row < 4; row++)
+                out[col*4+row] = a[row]*b0 + a[4+row]*b1 + a[8+row]*b2 + a[12+row]*b3;
+        }
+    }
+
+    /**
+     * m = m * translate(x,y,z)
+     */
+    public static void translate(float[] m, double x, double y, double z) {
+        for (int row = 0; row < 4; row++)
+            m[12+row] += (float)(m[row]*x + m[4+row]*y + m[8+row]*z);
+    }
+
+    /**
+     * m = m * scale(x,y,z)
+     */
+    public static void scale(float[] m, double x, double y, double z) {
+        for (int row = 0; row < 4; row++) {
+            m[row] *= x;
+            m[4+row] *= y;
+            m[8+row] *= z;
+        }
+    }
+
+    /**
+     * m = m * rotate(angle,x,y,z), with the angle in degrees as for glRotated.
+     */
+    public static void rotate(float[] m, double angle, double x, double y, double z) {
+        double len = Math.sqrt(x*x + y*y + z*z);
+        if (len == 0)
+            return;
+        x /= len;
+        y /= len;
+        z /= len;
+        double a = Math.toRadians(angle);
+        double c = Math.cos(a), s = Math.sin(a), t = 1 - c;
+        // rotation matrix r[row][col]
+        double r00 = t*x*x + c,   r01 = t*x*y - s*z, r02 = t*x*z + s*y;
+        double r10 = t*x*y + s*z, r11 = t*y*y + c,   r12 = t*y*z - s*x;
+        double r20 = t*x*z - s*y, r21 = t*y*z + s*x, r22 = t*z*z + c;
+        for (int row = 0; row < 4; row++) {
+            double m0 = m[row], m1 = m[4+row], m2 = m[8+row];
+            m[row]   = (float)(m0*r00 + m1*r10 + m2*r20);
+            m[4+row] = (float)(m0*r01 + m1*r11 + m2*r21);
+            m[8+row] = (float)(m0*r02 + m1*r12 + m2*r22);
+        }
+    }
+
+    /**
+     * Sets out to the bounding sphere (x, y, z, radius) of the sphere in
+     * after the transform m.  The radius grows by m's largest axis scale.
+     * A negative radius (unbounded) stays negative.  out may be sphere.
+     */
+    public static void transformSphere(float[] m, float[] sphere, float[] out) {
+        float x = sphere[0], y = sphere[1], z = sphere[2], r = sphere[3];
+        out[0] = m[0]*x + m[4]*y + m[8]*z + m[12];
+        out[1] = m[1]*x + m[5]*y + m[9]*z + m[13];
+        out[2] = m[2]*x + m[6]*y + m[10]*z + m[14];
+        if (r < 0) {
+            out[3] = r;
+            return;
+        }
+        float sx = m[0]*m[0] + m[1]*m[1] + m[2]*m[2];
+        float sy = m[4]*m[4] + m[5]*m[5] + m[6]*m[6];
+        float sz = m[8]*m[8] + m[9]*m[9] + m[10]*m[10];
+        out[3] = r * (float)Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+    }
+
+    /**
+     * Grows sphere a (x, y, z, radius) so that it also encloses sphere b.
+     * If either is unbounded (negative radius) the result is unbounded.
+     */
+    public static void unionSphere(float[] a, float[] b) {
+        if (a[3] < 0)
+            return;
+        if (b[3] < 0) {
+            a[3] = -1;
+            return;
+        }
+        float dx = b[0] - a[0], dy = b[1] - a[1], dz = b[2] - a[2];
+        float d = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+        if (d + b[3] <= a[3])
+            return;                       // b is inside a
+        if (d + a[3] <= b[3]) {
+            System.arraycopy(b, 0, a, 0, 4);   // a is inside b
+            return;
+        }
+        float r = (d + a[3] + b[3]) / 2;
+        float t = (r - a[3]) / d;
+        a[0] += dx * t;
+        a[1] += dy * t;
+        a[2] += dz * t;
+        a[3] = r;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * File: Mesh.java
+ * CMSC 405
+ * Description: A retained-mode triangle mesh.  The geometry is kept as interleaved
+ *  position/normal/color floats plus an index list, uploaded once into vertex
+ *  buffer objects and drawn with glDrawElements.  The static factory methods
+ *  tessellate the primitives that GlorbaksCows used to emit in immediate mode.
+ *  The floats and indices are NIO buffers, wrapping arrays for a tessellated
+ *  mesh or mapped from a file for one loaded by MeshFile, and either kind is
+ *  handed to glBufferData as it is.  They are only read with absolute gets.
+ */
+
+import java.awt.Color;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+public class Mesh implements Renderable {
+
+    /** x, y, z, nx, ny, nz, r, g, b */
+    public static final int FLOATS_PER_VERTEX = 9;
+    public static final int STRIDE = FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT;
+
+    private final FloatBuffer vertexData;
+    private final IntBuffer indices;
+    private final float radius;   // bounding radius about the local origin
+
+    private int vertexBuffer;     // 0 until upload() is called
+    private int indexBuffer;
+
+    /**
+     * Creates a mesh from interleaved vertex data (see FLOATS_PER_VERTEX)
+     * and a list of triangle indices.
+     */
+    public Mesh(float[] vertexData, int[] indices) {
+        this(FloatBuffer.wrap(vertexData), IntBuffer.wrap(indices), radius(vertexData));
+    }
+
+    /**
+     * Creates a mesh from buffers that are already filled, from position 0
+     * to their limits, and its bounding radius.  The buffers are kept, not
+     * copied.
+     */
+    public Mesh(FloatBuffer vertexData, IntBuffer indices, float radius) {
+        this.vertexData = vertexData;
+        this.indices = indices;
+        this.radius = radius;
+    }
+
+    private static float radius(float[] vertexData) {
+        float r2 = 0;
+        for (int i = 0; i < vertexData.length; i += FLOATS_PER_VERTEX) {
+            float x = vertexData[i], y = vertexData[i+1], z = vertexData[i+2];
+            r2 = Math.max(r2, x*x + y*y + z*z);
+        }
+        return (float)Math.sqrt(r2);
+    }
+
+    /** The interleaved vertex data, from 0 to its limit.  Not a copy. */
+    public FloatBuffer getVertexData() {
+        return vertexData;
+    }
+
+    /** The triangle indices, from 0 to its limit.  Not a copy. */
+    public IntBuffer getIndices() {
+        return indices;
+    }
+
+    public int getVertexCount() {
+        return vertexData.limit() / FLOATS_PER_VERTEX;
+    }
+
+    public int getIndexCount() {
+        return indices.limit();
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public boolean isUploaded() {
+        return vertexBuffer != 0;
+    }
+
+    /**
+     * Copies the geometry into a vertex buffer and an index buffer.  Must be
+     * called with a current context, normally from init().  The buffers go
+     * to glBufferData as they are: JOGL passes an array-backed one by its
+     * array, and a mapped one straight from the file's pages.
+     */
+    public void upload(GL2 gl) {
+        int[] ids = new int[2];
+        gl.glGenBuffers(2, ids, 0);
+        vertexBuffer = ids[0];
+        indexBuffer = ids[1];
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, (long)vertexData.limit() * Buffers.SIZEOF_FLOAT, vertexData, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, (long)indices.limit() * Buffers.SIZEOF_INT, indices, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Points the fixed-function vertex, normal and color arrays at this mesh's
+     * buffers.  The client states must already be enabled (see MeshCache.begin).
+     */
+    public void bind(GL2 gl) {
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glVertexPointer(3, GL2.GL_FLOAT, STRIDE, 0);
+        gl.glNormalPointer(GL2.GL_FLOAT, STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+        gl.glColorPointer(3, GL2.GL_FLOAT, STRIDE, 6 * Buffers.SIZEOF_FLOAT);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+    }
+
+    /**
+     * Draws the mesh with the current modelview transform.
+     */
+    public void draw(GL2 gl) {
+        bind(gl);
+        gl.glDrawElements(GL2.GL_TRIANGLES, indices.limit(), GL2.GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Draws count indices starting at index first.  bind() must have been
+     * called.
+     */
+    public void drawRange(GL2 gl, int first, int count) {
+        gl.glDrawElements(GL2.GL_TRIANGLES, count, GL2.GL_UNSIGNED_INT, (long)first * Buffers.SIZEOF_INT);
+    }
+
+    /**
+     * Draws several instances of the mesh in one call.  bind() must have been
+     * called and the per-instance attributes set up by the caller.
+     */
+    public void drawInstanced(GL2 gl, int instances) {
+        gl.glDrawElementsInstanced(GL2.GL_TRIANGLES, indices.limit(), GL2.GL_UNSIGNED_INT, 0, instances);
+    }
+
+    /**
+     * Releases the buffer objects.  Safe to call more than once.
+     */
+    public void dispose(GL2 gl) {
+        if (vertexBuffer == 0)
+            return;
+        gl.glDeleteBuffers(2, new int[] { vertexBuffer, indexBuffer }, 0);
+        vertexBuffer = indexBuffer = 0;
+    }
+
+    //-------------------------------------------------------------------------
+    // Tessellation of the scene primitives.
+
+    /**
+     * A sphere centered at the origin with the same slice/stack layout as
+     * glutSolidSphere, in a single color.
+     */
+    public static Mesh sphere(double radius, int slices, int stacks, float r, float g, float b) {
+        Builder mb = new Builder((slices+1)*(stacks+1), slices*stacks*6);
+        for (int j = 0; j <= stacks; j++) {
+            double phi = Math.PI * j / stacks;
+            double z = Math.cos(phi);
+            double ring = Math.sin(phi);
+            for (int i = 0; i <= slices; i++) {
+                double theta = 2*Math.PI * i / slices;
+                double x = ring * Math.cos(theta);
+                double y = ring * Math.sin(theta);
+                mb.vertex(radius*x, radius*y, radius*z, x, y, z, r, g, b);
+            }
+        }
+        for (int j = 0; j < stacks; j++) {
+            for (int i = 0; i < slices; i++) {
+                int a = j*(slices+1) + i;
+                int c = a + slices + 1;
+                mb.triangle(a, c, a+1);
+                mb.triangle(a+1, c, c+1);
+            }
+        }
+        return mb.build();
+    }
+
+    /**
+     * A sphere shaded from the base color at its north pole (+z) to a hue
+     * gradient around its middle and south, with the hue going once around
+     * the color wheel by longitude, starting at hueOffset.  Used for the planets.
+     */
+    public static Mesh hueSphere(double radius, int slices, int stacks, float r, float g, float b, double hueOffset) {
+        Builder mb = new Builder((slices+1)*(stacks+1), slices*stacks*6);
+        float[] hue = new float[3];
+        for (int j = 0; j <= stacks; j++) {
+            double phi = Math.PI * j / stacks;
+            double z = Math.cos(phi);
+            double ring = Math.sin(phi);
+            float t = (float)Math.min(1, 2 * phi / Math.PI);  // 0 at the pole, 1 from the equator down
+            for (int i = 0; i <= slices; i++) {
+                double theta = 2*Math.PI * i / slices;
+                double x = ring * Math.cos(theta);
+                double y = ring * Math.sin(theta);
+                hueColor(hueOffset + (double)i / slices, hue);
+                mb.vertex(radius*x, radius*y, radius*z, x, y, z,
+                        r + (hue[0] - r) * t, g + (hue[1] - g) * t, b + (hue[2] - b) * t);
+            }
+        }
+        for (int j = 0; j < stacks; j++) {
+            for (int i = 0; i < slices; i++) {
+                int a = j*(slices+1) + i;
+                int c = a + slices + 1;
+                mb.triangle(a, c, a+1);
+                mb.triangle(a+1, c, c+1);
+            }
+        }
+        return mb.build();
+    }
+
+    /**
+     * The UFO body: a unit cylinder from z = -1 to z = 1 with white sides
+     * and caps shaded around the color wheel.
+     */
+    public static Mesh cylinder(int segments) {
+        Builder mb = new Builder(4*(segments+1) + 2, segments*12);
+        float[] hue = new float[3];
+        for (int i = 0; i <= segments; i++) {
+            double angle = 2*Math.PI/segments * i;
+            double x = Math.cos(angle);
+            double y = Math.sin(angle);
+            mb.vertex(x, y, 1, x, y, 0, 1, 1, 1);
+            mb.vertex(x, y, -1, x, y, 0, 1, 1, 1);
+        }
+        for (int i = 0; i < segments; i++) {
+            int a = 2*i;
+            mb.triangle(a, a+1, a+2);
+            mb.triangle(a+2, a+1, a+3);
+        }
+        int top = mb.vertex(0, 0, 1, 0, 0, 1, 1, 1, 0);
+        for (int i = 0; i <= segments; i++) {
+            double angle = 2*Math.PI/segments * i;
+            hueColor(i/(double)segments, hue);
+            mb.vertex(Math.cos(angle), Math.sin(angle), 1, 0, 0, 1, hue[0], hue[1], hue[2]);
+        }
+        for (int i = 0; i < segments; i++)
+            mb.triangle(top, top+1+i, top+2+i);
+        int bottom = mb.vertex(0, 0, -1, 0, 0, -1, 1, 1, 1);
+        for (int i = 0; i <= segments; i++) {
+            double angle = 2*Math.PI/segments * i;
+            hueColor(i/(double)segments, hue);
+            mb.vertex(Math.cos(angle), Math.sin(angle), -1, 0, 0, -1, hue[0], hue[1], hue[2]);
+        }
+        for (int i = 0; i < segments; i++)
+            mb.triangle(bottom, bottom+2+i, bottom+1+i);
+        return mb.build();
+    }
+
+    /**
+     * A unit disc in the plane z = -1, used for cow spots and stars.
+     */
+    public static Mesh disc(int segments, float r, float g, float b) {
+        Builder mb = new Builder(segments + 2, segments*3);
+        int center = mb.vertex(0, 0, -1, 0, 0, 1, r, g, b);
+        for (int i = 0; i <= segments; i++) {
+            double angle = 2*Math.PI/segments * i;
+            mb.vertex(Math.cos(angle), Math.sin(angle), -1, 0, 0, 1, r, g, b);
+        }
+        for (int i = 0; i < segments; i++)
+            mb.triangle(center, center+1+i, center+2+i);
+        return mb.build();
+    }
+
+    /**
+     * A square from -size/2 to size/2 in x and y, lying in the plane z = depth.
+     */
+    public static Mesh square(double size, double depth, float r, float g, float b) {
+        Builder mb = new Builder(4, 6);
+        double h = size / 2;
+        mb.vertex(-h, -h, depth, 0, 0, 1, r, g, b);
+        mb.vertex(h, -h, depth, 0, 0, 1, r, g, b);
+        mb.vertex(h, h, depth, 0, 0, 1, r, g, b);
+        mb.vertex(-h, h, depth, 0, 0, 1, r, g, b);
+        mb.triangle(0, 1, 2);
+        mb.triangle(0, 2, 3);
+        return mb.build();
+    }
+
+    /**
+     * A flat-shaded polyhedron given as an indexed face set.  Each face is a
+     * convex polygon and gets its own copy of its vertices so that it can
+     * carry its own normal and color.
+     */
+    public static Mesh polyhedron(double[][] vertices, int[][] faces, double[][] faceColors) {
+        Builder mb = new Builder(vertices.length * 3, faces.length * 6);
+        for (int f = 0; f < faces.length; f++) {
+            int[] face = faces[f];
+            // Newell's method gives a usable normal even for slightly non-planar faces.
+            double nx = 0, ny = 0, nz = 0;
+            for (int k = 0; k < face.length; k++) {
+                double[] p = vertices[face[k]];
+                double[] q = vertices[face[(k+1) % face.length]];
+                nx += (p[1] - q[1]) * (p[2] + q[2]);
+                ny += (p[2] - q[2]) * (p[0] + q[0]);
+                nz += (p[0] - q[0]) * (p[1] + q[1]);
+            }
+            double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (len > 0) {
+                nx /= len;
+                ny /= len;
+                nz /= len;
+            }
+            double[] c = faceColors[f];
+            int first = -1;
+            for (int k = 0; k < face.length; k++) {
+                double[] p = vertices[face[k]];
+                int v = mb.vertex(p[0], p[1], p[2], nx, ny, nz, (float)c[0], (float)c[1], (float)c[2]);
+                if (first < 0)
+                    first = v;
+            }
+            for (int k = 1; k < face.length - 1; k++)
+                mb.triangle(first, first+k, first+k+1);
+        }
+        return mb.build();
+    }
+
+    /**
+     * Stores the color for the given hue (full saturation, 0.6 brightness)
+     * into the first three elements of rgb.
+     */
+    static void hueColor(double hue, float[] rgb) {
+        int c = Color.HSBtoRGB((float)(hue - Math.floor(hue)), 1, 0.6F);
+        rgb[0] = ((c >> 16) & 0xFF) / 255.0F;
+        rgb[1] = ((c >> 8) & 0xFF) / 255.0F;
+        rgb[2] = (c & 0xFF) / 255.0F;
+    }
+
+    /**
+     * Growable vertex and index lists used while tessellating.
+     */
+    public static class Builder {
+
+        private float[] vertices;
+        private int[] indices;
+        private int vertexFloats, indexCount;
+
+        public Builder(int expectedVertices, int expectedIndices) {
+            vertices = new float[Math.max(1, expectedVertices) * FLOATS_PER_VERTEX];
+            indices = new int[Math.max(3, expectedIndices)];
+        }
+
+        /**
+         * Adds a vertex and returns its index.
+         */
+        public int vertex(double x, double y, double z, double nx, double ny, double nz, float r, float g, float b) {
+            if (vertexFloats + FLOATS_PER_VERTEX > vertices.length)
+                vertices = java.util.Arrays.copyOf(vertices, vertices.length * 2);
+            float[] v = vertices;
+            int i = vertexFloats;
+            v[i] = (float)x;  v[i+1] = (float)y;  v[i+2] = (float)z;
+            v[i+3] = (float)nx;  v[i+4] = (float)ny;  v[i+5] = (float)nz;
+            v[i+6] = r;  v[i+7] = g;  v[i+8] = b;
+            vertexFloats += FLOATS_PER_VERTEX;
+            return i / FLOATS_PER_VERTEX;
+        }
+
+        /**
+         * Appends a copy of another mesh transformed by the column-major 4x4
+         * matrix m.  Normals are transformed by the cofactor matrix of the
+         * upper 3x3 block and renormalized, so non-uniform scales are fine.
+         */
+        public void append(Mesh mesh, float[] m) {
+            float c00 = m[5]*m[10] - m[6]*m[9], c01 = m[6]*m[8] - m[4]*m[10], c02 = m[4]*m[9] - m[5]*m[8];
+            float c10 = m[9]*m[2] - m[10]*m[1], c11 = m[10]*m[0] - m[8]*m[2], c12 = m[8]*m[1] - m[9]*m[0];
+            float c20 = m[1]*m[6] - m[2]*m[5], c21 = m[2]*m[4] - m[0]*m[6], c22 = m[0]*m[5] - m[1]*m[4];
+            FloatBuffer src = mesh.vertexData;
+            int base = vertexFloats / FLOATS_PER_VERTEX;
+            int end = src.limit();
+            for (int i = 0; i < end; i += FLOATS_PER_VERTEX) {
+                float x = src.get(i), y = src.get(i+1), z = src.get(i+2);
+                float nx = src.get(i+3), ny = src.get(i+4), nz = src.get(i+5);
+                double tnx = c00*nx + c10*ny + c20*nz;
+                double tny = c01*nx + c11*ny + c21*nz;
+                double tnz = c02*nx + c12*ny + c22*nz;
+                double len = Math.sqrt(tnx*tnx + tny*tny + tnz*tnz);
+                if (len > 0) {
+                    tnx /= len;
+                    tny /= len;
+                    tnz /= len;
+                }
+                vertex(m[0]*x + m[4]*y + m[8]*z + m[12],
+                       m[1]*x + m[5]*y + m[9]*z + m[13],
+                       m[2]*x + m[6]*y + m[10]*z + m[14],
+                       tnx, tny, tnz, src.get(i+6), src.get(i+7), src.get(i+8));
+            }
+            IntBuffer idx = mesh.indices;
+            for (int i = 0; i < idx.limit(); i += 3)
+                triangle(base + idx.get(i), base + idx.get(i+1), base + idx.get(i+2));
+        }
+
+        public void triangle(int a, int b, int c) {
+            if (indexCount + 3 > indices.length)
+                indices = java.util.Arrays.copyOf(indices, indices.length * 2);
+            indices[indexCount++] = a;
+            indices[indexCount++] = b;
+            indices[indexCount++] = c;
+        }
+
+        public Mesh build() {
+            return new Mesh(java.util.Arrays.copyOf(vertices, vertexFloats),
+                    java.util.Arrays.copyOf(indices, indexCount));
+        }
+    }
+}
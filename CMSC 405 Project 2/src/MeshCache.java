@@ -0,0 +1,346 @@
+/*
+ * File: MeshCache.java
+ * CMSC 405
+ * Description: Builds every primitive used by GlorbaksCows once, uploads it into
+ *  vertex buffer objects and hands out the retained meshes by name.  The meshes
+ *  are uploaded in init() and their buffers released in dispose(); the CPU copies
+ *  stay, so the cache can be uploaded again if the context is recreated.
+ *  Curved primitives are tessellated at every LevelOfDetail, finest first;
+ *  get() returns the finest and getLevels() all of them.
+ *      Tessellating takes a while, so the meshes can instead be mapped from
+ *  a file that save() (or java MeshFile) baked earlier.  Then the CPU copies
+ *  are the mapped pages and nothing is tessellated unless a hue sphere is
+ *  asked for that the file does not have.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.*;
+
+public class MeshCache {
+
+    public static final String COW_BODY = "cowBody";
+    public static final String COW_HEAD = "cowHead";
+    public static final String COW_SPOTS = "cowSpots";
+    public static final String COW_LEGS = "cowLegs";
+    public static final String OPPOSITE_COW_HEAD = "oppositeCowHead";
+    public static final String OPPOSITE_COW_SPOTS = "oppositeCowSpots";
+    public static final String OPPOSITE_COW_LEGS = "oppositeCowLegs";
+    public static final String SPOT = "spot";
+    public static final String LEG = "leg";
+    public static final String WINDOW = "window";
+    public static final String GRASS = "grass";
+    public static final String UFO = "ufo";
+    public static final String HOUSE = "house";
+    public static final String ALIEN_BODY = "alienBody";
+    public static final String ALIEN_HEAD = "alienHead";
+
+    /** The sub-meshes of a cow, each already placed in cow coordinates. */
+    public static final String[] COW_PARTS = { COW_BODY, COW_HEAD, COW_SPOTS, COW_LEGS };
+    /** The sub-meshes of a cow facing the other way. */
+    public static final String[] OPPOSITE_COW_PARTS = { COW_BODY, OPPOSITE_COW_HEAD, OPPOSITE_COW_SPOTS, OPPOSITE_COW_LEGS };
+
+    /**
+     * Content version of baked mesh files.  Change it whenever the
+     * tessellation below changes, so that older files are not used.
+     */
+    public static final int CONTENT_VERSION = 1;
+
+    //the meshes the constructor makes, once and at every level of detail
+    private static final String[] SHAPES = { LEG, WINDOW, GRASS, HOUSE, COW_LEGS, OPPOSITE_COW_LEGS };
+    private static final String[] CURVED_SHAPES = {
+        COW_BODY, SPOT, COW_HEAD, COW_SPOTS, OPPOSITE_COW_HEAD, OPPOSITE_COW_SPOTS, UFO, ALIEN_BODY, ALIEN_HEAD
+    };
+
+    //2d array to contain vertex points of the house
+    static final double[][] HOUSE_VERTICES = {
+        { 2, -1, 2 },
+        { 2, -1, -2 },
+        { 2, 1, -2 },
+        { 2, 1, 2 },
+        { 1.5, 1.5, 0 },
+        { -1.5, 1.5, 0 },
+        { -2, -1, 2 },
+        { -2, 1, 2 },
+        { -2, 1, -2 },
+        { -2, -1, -2 }
+    };
+    //2d array to contain face points of the house
+    static final int[][] HOUSE_FACES = {
+        { 0, 1, 2, 3 },
+        { 3, 2, 4 },
+        { 7, 3, 4, 5 },
+        { 2, 8, 5, 4 },
+        { 5, 8, 7 },
+        { 0, 3, 7, 6 },
+        { 0, 6, 9, 1 },
+        { 2, 1, 9, 8 },
+        { 6, 7, 8, 9 }
+    };
+    //2d array to contain face colors of the house
+    static final double[][] HOUSE_FACE_COLORS = {
+        { 1, .8, .8 },
+        { .7, .7, 1 },
+        { 0, 0, 1 },
+        { 0, 0, .7 },
+        { .7, .7, 1 },
+        { 1, 0, 0 },
+        { .4, .4, .4 },
+        { 1, 0, 0 },
+        { 1, .8, .8 }
+    };
+
+    //slices/stacks of the body and head spheres, and segments of the spots
+    //and the ufo, at each level of detail
+    private static final int[][] BODY_SPHERE = { { 24, 12 }, { 12, 6 }, { 8, 4 } };
+    private static final int[][] HEAD_SPHERE = { { 12, 12 }, { 8, 6 }, { 6, 4 } };
+    private static final int[][] SMALL_SPHERE = { { 12, 6 }, { 8, 4 }, { 6, 3 } };
+    private static final int[] DISC_SEGMENTS = { 64, 16, 8 };
+    private static final int[] CYLINDER_SEGMENTS = { 64, 24, 12 };
+
+    private final Map<String,Mesh> meshes = new LinkedHashMap<String,Mesh>();   // level 0, and "name@level" for the others
+    private final Map<String,Mesh[]> levels = new HashMap<String,Mesh[]>();
+    private boolean pending = true;   // some meshes have not been uploaded yet
+    private boolean baked;            // mapped from a file
+
+    /**
+     * Tessellates all of the scene primitives.  Nothing is sent to OpenGL
+     * until upload() is called.
+     */
+    public MeshCache() {
+        tessellate();
+    }
+
+    /**
+     * Maps the primitives from a baked mesh file if there is one, and
+     * tessellates them otherwise.  A file that cannot be used, because it is
+     * damaged, from another CONTENT_VERSION or short of a primitive, is
+     * reported on System.err and then ignored.
+     */
+    public MeshCache(File bakedFile) {
+        if (bakedFile != null && bakedFile.exists()) {
+            try {
+                Map<String,Mesh> loaded = MeshFile.read(bakedFile, CONTENT_VERSION);
+                for (String name : SHAPES) {
+                    if (!loaded.containsKey(name))
+                        throw new IOException(bakedFile + " has no mesh " + name);
+                }
+                for (String name : CURVED_SHAPES) {
+                    for (int level = 0; level < LevelOfDetail.LEVELS; level++) {
+                        if (!loaded.containsKey(level == 0 ? name : name + "@" + level))
+                            throw new IOException(bakedFile + " has no mesh " + name + " at level " + level);
+                    }
+                }
+                meshes.putAll(loaded);
+                baked = true;
+                return;
+            }
+            catch (IOException e) {
+                System.err.println("Tessellating the meshes instead: " + e.getMessage());
+            }
+        }
+        tessellate();
+    }
+
+    /**
+     * Writes every mesh made so far, including the hue spheres, to a mesh
+     * file that MeshCache(File) can map.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(File file) throws IOException {
+        MeshFile.write(file, CONTENT_VERSION, meshes);
+    }
+
+    /** True if the meshes were mapped from a baked file. */
+    public boolean isBaked() {
+        return baked;
+    }
+
+    /** Number of meshes, counting each level of detail. */
+    public int size() {
+        return meshes.size();
+    }
+
+    private void tessellate() {
+        Mesh leg = Mesh.square(1, 0.5, 0.5f, 0.35f, 0.05f);
+        meshes.put(LEG, leg);
+        meshes.put(WINDOW, Mesh.square(1, 0.5, 1, 1, 1));
+        meshes.put(GRASS, Mesh.square(2, 1, 0, 1, 0));
+        meshes.put(HOUSE, Mesh.polyhedron(HOUSE_VERTICES, HOUSE_FACES, HOUSE_FACE_COLORS));
+        meshes.put(COW_LEGS, legs(leg, 0));
+        meshes.put(OPPOSITE_COW_LEGS, legs(leg, -.2));
+
+        for (int level = 0; level < LevelOfDetail.LEVELS; level++) {
+            Mesh head = Mesh.sphere(1, HEAD_SPHERE[level][0], HEAD_SPHERE[level][1], 0.5f, 0.35f, 0.05f);
+            Mesh spot = Mesh.disc(DISC_SEGMENTS[level], 1, 1, 1);
+            put(COW_BODY, level, Mesh.sphere(2, BODY_SPHERE[level][0], BODY_SPHERE[level][1], 0.5f, 0.35f, 0.05f));
+            put(SPOT, level, spot);
+
+            //the rest of the cow is baked into cow coordinates so a whole herd
+            //can share one set of meshes
+            put(COW_HEAD, level, place(head, -2, 1, 0, 1));
+            Mesh.Builder spots = new Mesh.Builder(0, 0);
+            spots.append(spot, translateScale(.02, .12, 2.63, .5, .5, .5));
+            spots.append(spot, translateScale(.42, .22, 2.69, .7, .7, .7));
+            put(COW_SPOTS, level, spots.build());
+            put(OPPOSITE_COW_HEAD, level, place(head, 2.5, 1, 0, 1));
+            put(OPPOSITE_COW_SPOTS, level, place(spot, 0, 1, 2.4, .5));
+            put(UFO, level, Mesh.cylinder(CYLINDER_SEGMENTS[level]));
+            put(ALIEN_BODY, level, Mesh.sphere(2, BODY_SPHERE[level][0], BODY_SPHERE[level][1], .98f, .625f, .12f));
+            put(ALIEN_HEAD, level, Mesh.sphere(1, SMALL_SPHERE[level][0], SMALL_SPHERE[level][1], .98f, .625f, .12f));
+        }
+    }
+
+    private void put(String name, int level, Mesh mesh) {
+        meshes.put(level == 0 ? name : name + "@" + level, mesh);
+    }
+
+    private static Mesh place(Mesh mesh, double x, double y, double z, double scale) {
+        Mesh.Builder mb = new Mesh.Builder(mesh.getVertexCount(), mesh.getIndexCount());
+        mb.append(mesh, translateScale(x, y, z, scale, scale, scale));
+        return mb.build();
+    }
+
+    //front right, back right, front left, back left
+    private static Mesh legs(Mesh leg, double drop) {
+        Mesh.Builder mb = new Mesh.Builder(16, 24);
+        mb.append(leg, translateScale(-.8, -1.8 + drop, -1.8, 1, 2.3, 1));
+        mb.append(leg, translateScale(.9, -1.8 + drop, -1.8, 1, 2.3, 1));
+        mb.append(leg, translateScale(-.8, -1.5 + drop, 1, 1, 2.3, 1));
+        mb.append(leg, translateScale(.9, -1.5 + drop, 1, 1, 2.3, 1));
+        return mb.build();
+    }
+
+    /**
+     * The column-major matrix for glTranslated(tx,ty,tz) followed by glScaled(sx,sy,sz).
+     */
+    static float[] translateScale(double tx, double ty, double tz, double sx, double sy, double sz) {
+        return new float[] {
+            (float)sx, 0, 0, 0,
+            0, (float)sy, 0, 0,
+            0, 0, (float)sz, 0,
+            (float)tx, (float)ty, (float)tz, 1
+        };
+    }
+
+    /**
+     * Returns a hue gradient sphere (see Mesh.hueSphere), tessellating it the
+     * first time a given tessellation and color is asked for.  New meshes are
+     * uploaded by the next upload() or begin().
+     */
+    public Mesh hueSphere(double radius, int slices, int stacks, float r, float g, float b, double hueOffset) {
+        return hueSphereLevels(radius, slices, stacks, r, g, b, hueOffset)[0];
+    }
+
+    /**
+     * Returns a hue gradient sphere at every level of detail, the finest
+     * with the given tessellation and each coarser one with half as many
+     * slices and stacks (at least 6 and 3).
+     */
+    public Mesh[] hueSphereLevels(double radius, int slices, int stacks, float r, float g, float b, double hueOffset) {
+        String key = "hueSphere " + radius + " " + slices + " " + stacks + " "
+                + r + " " + g + " " + b + " " + hueOffset;
+        Mesh[] meshLevels = levels.get(key);
+        if (meshLevels == null && meshes.containsKey(key))
+            meshLevels = getLevels(key);   // baked
+        if (meshLevels == null) {
+            for (int level = 0; level < LevelOfDetail.LEVELS; level++) {
+                put(key, level, Mesh.hueSphere(radius, slices, stacks, r, g, b, hueOffset));
+                slices = Math.max(6, slices / 2);
+                stacks = Math.max(3, stacks / 2);
+            }
+            meshLevels = getLevels(key);
+            pending = true;
+        }
+        return meshLevels;
+    }
+
+    /**
+     * Returns the finest level of a mesh.
+     */
+    public Mesh get(String name) {
+        Mesh mesh = meshes.get(name);
+        if (mesh == null)
+            throw new IllegalArgumentException("No mesh named " + name);
+        return mesh;
+    }
+
+    /**
+     * Returns a mesh at every LevelOfDetail, finest first.  A mesh that is
+     * not tessellated (a square, the house) is the same at every level.
+     */
+    public Mesh[] getLevels(String name) {
+        Mesh[] meshLevels = levels.get(name);
+        if (meshLevels == null) {
+            meshLevels = new Mesh[LevelOfDetail.LEVELS];
+            meshLevels[0] = get(name);
+            for (int level = 1; level < meshLevels.length; level++) {
+                Mesh mesh = meshes.get(name + "@" + level);
+                meshLevels[level] = mesh != null ? mesh : meshLevels[level - 1];
+            }
+            levels.put(name, meshLevels);
+        }
+        return meshLevels;
+    }
+
+    /**
+     * Returns the given parts, such as COW_PARTS, at every level of detail:
+     * element [level][part].
+     */
+    public Renderable[][] getLevels(String[] parts) {
+        Renderable[][] partLevels = new Renderable[LevelOfDetail.LEVELS][parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            Mesh[] meshLevels = getLevels(parts[i]);
+            for (int level = 0; level < partLevels.length; level++)
+                partLevels[level][i] = meshLevels[level];
+        }
+        return partLevels;
+    }
+
+    /**
+     * Uploads every mesh that is not on the GPU yet.  Called from init().
+     */
+    public void upload(GL2 gl) {
+        for (Mesh mesh : meshes.values()) {
+            if (!mesh.isUploaded())
+                mesh.upload(gl);
+        }
+        pending = false;
+    }
+
+    /**
+     * Enables the vertex, normal and color arrays.  Call before drawing meshes.
+     */
+    public void begin(GL2 gl) {
+        if (pending)
+            upload(gl);
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+    }
+
+    /**
+     * Disables the arrays and unbinds the buffers again, so that immediate
+     * mode drawing and the GLJPanel see the default state.
+     */
+    public void end(GL2 gl) {
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Releases every buffer object.  Called from dispose().
+     */
+    public void dispose(GL2 gl) {
+        for (Mesh mesh : meshes.values())
+            mesh.dispose(gl);
+        pending = true;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * File: MeshFile.java
+ * CMSC 405
+ * Description: A binary container of named meshes that is read by mapping
+ *  it into memory.  read() maps the whole file with FileChannel.map and
+ *  makes each Mesh from views of the mapped pages, so nothing is copied
+ *  into Java arrays and Mesh.upload() hands the pages to glBufferData.
+ *      The file is little-endian.  Its header is the bytes "GCMB", the
+ *  format version, a content version chosen by the writer (MeshCache uses
+ *  it to notice that its primitives have changed), the mesh count, and the
+ *  vertex layout: the stride in bytes and, for each attribute, its
+ *  semantic, component count, GL type and byte offset.  Then comes one
+ *  entry per mesh (name, vertex and index counts, bounding radius and the
+ *  file offsets of its vertex and index data), then the data itself, each
+ *  block starting on a 16 byte boundary.
+ *
+ *  java MeshFile OUT [OPTIONS]   bakes every mesh GlorbaksCows builds with OPTIONS into OUT
+ *  java MeshFile IN              lists the meshes in IN
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.GL2;
+
+public final class MeshFile {
+
+    /** Version of the container layout that this class reads and writes. */
+    public static final int FORMAT_VERSION = 1;
+
+    /** Vertex attribute semantics in the layout descriptor. */
+    public static final int POSITION = 0, NORMAL = 1, COLOR = 2;
+
+    private static final int MAGIC = 0x424D4347;   // "GCMB" read little-endian
+    private static final int ALIGNMENT = 16;
+    private static final int MAX_NAME = 1024;
+
+    // Mesh's layout: semantic, components, type, offset for each attribute
+    private static final int[][] LAYOUT = {
+        { POSITION, 3, GL2.GL_FLOAT, 0 },
+        { NORMAL, 3, GL2.GL_FLOAT, 12 },
+        { COLOR, 3, GL2.GL_FLOAT, 24 }
+    };
+
+    private MeshFile() {
+    }
+
+    /**
+     * Maps a mesh file and returns its meshes by name, in file order.  The
+     * meshes read from the mapping, which stays valid after the file is
+     * closed and is released when they are collected.
+     * @param contentVersion the content version the file must have
+     * @throws IOException if the file cannot be read, is not a mesh file,
+     *   has another format or content version, or has a vertex layout other
+     *   than Mesh's.
+     */
+    public static Map<String,Mesh> read(File file, int contentVersion) throws IOException {
+        MappedByteBuffer map;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+        ByteBuffer header = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a mesh file");
+            int format = header.getInt();
+            if (format != FORMAT_VERSION)
+                throw new IOException(file + " has format version " + format + ", not " + FORMAT_VERSION);
+            int content = header.getInt();
+            if (content != contentVersion)
+                throw new IOException(file + " has content version " + content + ", not " + contentVersion);
+            int meshCount = header.getInt();
+            int stride = header.getInt();
+            int attributes = header.getInt();
+            boolean sameLayout = stride == Mesh.STRIDE && attributes == LAYOUT.length;
+            for (int a = 0; a < attributes; a++) {
+                for (int k = 0; k < 4; k++) {
+                    int value = header.getInt();
+                    sameLayout &= a < LAYOUT.length && value == LAYOUT[a][k];
+                }
+            }
+            if (!sameLayout)
+                throw new IOException(file + " has a vertex layout other than Mesh's");
+
+            Map<String,Mesh> meshes = new LinkedHashMap<String,Mesh>();
+            byte[] name = new byte[MAX_NAME];
+            for (int m = 0; m < meshCount; m++) {
+                int length = header.getInt();
+                if (length <= 0 || length > MAX_NAME)
+                    throw new IOException(file + " has a bad mesh name length " + length);
+                header.get(name, 0, length);
+                header.position(align(header.position(), 4));
+                int vertexCount = header.getInt();
+                int indexCount = header.getInt();
+                float radius = header.getFloat();
+                long vertexOffset = header.getLong();
+                long indexOffset = header.getLong();
+                FloatBuffer vertices = slice(map, vertexOffset, (long)vertexCount * Mesh.STRIDE).asFloatBuffer();
+                IntBuffer indices = slice(map, indexOffset, (long)indexCount * 4).asIntBuffer();
+                meshes.put(new String(name, 0, length, StandardCharsets.UTF_8), new Mesh(vertices, indices, radius));
+            }
+            return meshes;
+        }
+        catch (RuntimeException e) {
+            //a short or damaged file runs off the end of the mapping
+            throw new IOException(file + " is damaged", e);
+        }
+    }
+
+    /**
+     * Returns bytes [offset, offset + length) of the mapping, little-endian.
+     * On a big-endian machine they are copied into a native-order buffer,
+     * since GL reads them in native order.
+     */
+    private static ByteBuffer slice(MappedByteBuffer map, long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > map.capacity() || offset % 4 != 0)
+            throw new IndexOutOfBoundsException("Mesh data at " + offset + " is outside the file");
+        ByteBuffer view = map.duplicate();
+        view.position((int)offset);
+        view.limit((int)(offset + length));
+        ByteBuffer slice = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+            return slice;
+        ByteBuffer copy = ByteBuffer.allocateDirect((int)length).order(ByteOrder.nativeOrder());
+        while (slice.hasRemaining())
+            copy.putInt(slice.getInt());
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Writes meshes to a file, in the map's order.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(File file, int contentVersion, Map<String,Mesh> meshes) throws IOException {
+        //the header, then the data blocks at the offsets it gives
+        byte[][] names = new byte[meshes.size()][];
+        int headerBytes = 4 * 6 + 16 * LAYOUT.length;
+        int m = 0;
+        for (String name : meshes.keySet()) {
+            names[m] = name.getBytes(StandardCharsets.UTF_8);
+            if (names[m].length == 0 || names[m].length > MAX_NAME)
+                throw new IllegalArgumentException("Bad mesh name \"" + name + "\"");
+            headerBytes += 4 + align(names[m].length, 4) + 4 * 3 + 8 * 2;
+            m++;
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(contentVersion).putInt(meshes.size());
+        header.putInt(Mesh.STRIDE).putInt(LAYOUT.length);
+        for (int[] attribute : LAYOUT) {
+            for (int value : attribute)
+                header.putInt(value);
+        }
+        long offset = align(headerBytes, ALIGNMENT);
+        m = 0;
+        for (Mesh mesh : meshes.values()) {
+            header.putInt(names[m].length).put(names[m]);
+            header.position(align(header.position(), 4));
+            header.putInt(mesh.getVertexCount()).putInt(mesh.getIndexCount()).putFloat(mesh.getRadius());
+            header.putLong(offset);
+            offset = align(offset + (long)mesh.getVertexCount() * Mesh.STRIDE, ALIGNMENT);
+            header.putLong(offset);
+            offset = align(offset + (long)mesh.getIndexCount() * 4, ALIGNMENT);
+            m++;
+        }
+        header.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (header.hasRemaining())
+                channel.write(header);
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (Mesh mesh : meshes.values()) {
+                FloatBuffer vertices = mesh.getVertexData();
+                pad(channel, block);
+                for (int i = 0; i < vertices.limit(); i++)
+                    put(channel, block).putFloat(vertices.get(i));
+                IntBuffer indices = mesh.getIndices();
+                pad(channel, block);
+                for (int i = 0; i < indices.limit(); i++)
+                    put(channel, block).putInt(indices.get(i));
+            }
+            drain(channel, block);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the block with room for one more int or float, writing it
+     * out first if it is full.
+     */
+    private static ByteBuffer put(FileChannel channel, ByteBuffer block) throws IOException {
+        if (block.remaining() < 4)
+            drain(channel, block);
+        return block;
+    }
+
+    /**
+     * Pads with zeros to the next ALIGNMENT boundary of the file.
+     */
+    private static void pad(FileChannel channel, ByteBuffer block) throws IOException {
+        long position = channel.position() + block.position();
+        for (long i = position; i < align(position, ALIGNMENT); i++) {
+            if (!block.hasRemaining())
+                drain(channel, block);
+            block.put((byte)0);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer block) throws IOException {
+        block.flip();
+        while (block.hasRemaining())
+            channel.write(block);
+        block.clear();
+    }
+
+    private static int align(int n, int alignment) {
+        return (n + alignment - 1) / alignment * alignment;
+    }
+
+    private static long align(long n, int alignment) {
+        return (n + alignment - 1) / alignment * alignment;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java MeshFile OUT [OPTIONS]  or  java MeshFile IN");
+            return;
+        }
+        File file = new File(args[0]);
+        if (args.length == 1 && file.exists()) {
+            long start = System.nanoTime();
+            Map<String,Mesh> meshes = read(file, MeshCache.CONTENT_VERSION);
+            System.out.printf("%d meshes mapped in %.2f ms%n", meshes.size(), (System.nanoTime() - start) / 1e6);
+            for (Map.Entry<String,Mesh> e : meshes.entrySet()) {
+                System.out.printf("%8d vertices %8d indices  %s%n",
+                        e.getValue().getVertexCount(), e.getValue().getIndexCount(), e.getKey());
+            }
+            return;
+        }
+        //build the scene as GlorbaksCows would, tessellating everything
+        String[] rest = new String[args.length - 1];
+        System.arraycopy(args, 1, rest, 0, rest.length);
+        Options options = Options.parse(rest);
+        options.window = false;
+        options.meshes = null;
+        System.setProperty("java.awt.headless", "true");
+        MeshCache cache = new GlorbaksCows(options).getMeshCache();
+        cache.save(file);
+        System.out.println(cache.size() + " meshes baked into " + file);
+    }
+}
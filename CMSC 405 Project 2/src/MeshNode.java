@@ -0,0 +1,114 @@
+/*
+ * File: MeshNode.java
+ * CMSC 405
+ * Description: A leaf of the scene graph that draws one or more Renderables with
+ *  its parent's world matrix.  The matrix is sent to OpenGL with a single
+ *  glMultMatrixf no matter how many parts the node draws.  If every part is a
+ *  Mesh the node is bounded by the largest mesh radius; other parts (the
+ *  herd, the sky) are never culled unless setBounds() is given a sphere.  A
+ *  node can hold its parts at several LevelOfDetail levels and draws the one
+ *  that suits the size of its bounding sphere on screen.  Under a
+ *  StaticBatchNode it only says where its parts go, and a material key to
+ *  sort them by.
+ */
+
+import com.jogamp.opengl.GL2;
+
+public class MeshNode extends SceneNode {
+
+    private final Renderable[][] levels;
+    private int level = -1;           // the level drawn last frame, -1 before the first
+    private final float[] localBounds = { 0, 0, 0, -1 };
+    private int material;
+
+    public MeshNode(Renderable... parts) {
+        this(new Renderable[][] { parts });
+    }
+
+    /**
+     * Creates a node with one set of parts for each level of detail,
+     * finest first (see MeshCache.getLevels).
+     */
+    public MeshNode(Renderable[][] levels) {
+        this.levels = levels;
+        float radius = 0;
+        for (Renderable[] parts : levels) {
+            for (Renderable part : parts) {
+                if (!(part instanceof Mesh))
+                    return;
+                radius = Math.max(radius, ((Mesh)part).getRadius());
+            }
+        }
+        localBounds[3] = radius;
+    }
+
+    /**
+     * Sets the bounding sphere of the parts in the parent's coordinates;
+     * a negative radius means they are never culled.
+     */
+    public MeshNode setBounds(double x, double y, double z, double radius) {
+        localBounds[0] = (float)x;
+        localBounds[1] = (float)y;
+        localBounds[2] = (float)z;
+        localBounds[3] = (float)radius;
+        dirty = true;
+        return this;
+    }
+
+    /**
+     * Sets the material key a StaticBatchNode sorts this node's parts by;
+     * parts with the same key are drawn together.  The default is 0.
+     */
+    public MeshNode setMaterial(int material) {
+        this.material = material;
+        return this;
+    }
+
+    public int getMaterial() {
+        return material;
+    }
+
+    /**
+     * Returns the finest parts.
+     */
+    public Renderable[] getParts() {
+        return levels[0];
+    }
+
+    public int update(float[] parentWorld, boolean parentChanged) {
+        if (parentChanged || dirty) {
+            System.arraycopy(parentWorld, 0, world, 0, 16);
+            Matrices.transformSphere(world, localBounds, bounds);
+            boundsChanged = true;
+            dirty = false;
+        }
+        return 0;
+    }
+
+    public int getDrawableCount() {
+        return 1;
+    }
+
+    public void render(GL2 gl, Frustum frustum, int planes) {
+        if (!isVisible())
+            return;
+        if (frustum != null) {
+            if (frustum.cull(bounds, planes) == Frustum.OUTSIDE) {
+                frustum.countCulled(1);
+                return;
+            }
+            frustum.countVisible();
+            if (levels.length > 1 && bounds[3] >= 0) {
+                level = LevelOfDetail.select(frustum.projectedRadius(bounds[0], bounds[1], bounds[2], bounds[3]), level);
+                frustum.countLevel(level);
+            }
+        }
+        Renderable[] parts = levels[Math.max(0, Math.min(level, levels.length - 1))];
+        bindLights(gl);
+        gl.glPushMatrix();
+        gl.glMultMatrixf(world, 0);
+        for (Renderable part : parts)
+            part.draw(gl);
+        gl.glPopMatrix();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * File: NoOpGL.java
+ * CMSC 405
+ * Description: A GL2 that does nothing, for timing the Java side of rendering
+ *  and counting its calls without a context.  It is a ForwardingGL with
+ *  nothing to forward to: every call returns 0, false or null, except that
+ *  glGetIntegerv(GL_VIEWPORT) reports a fixed viewport, glGenBuffers hands
+ *  out distinct names, isGL2() is true and getGL()/getGL2() return the
+ *  NoOpGL itself.  No extensions or GLSL are reported, so callers take their
+ *  fixed-function paths.  A call costs one virtual method call and allocates
+ *  nothing.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+
+import com.jogamp.opengl.*;
+
+public class NoOpGL extends ForwardingGL {
+
+    private final int width, height;
+    private int nextName = 1;
+
+    /**
+     * Creates a GL2 that ignores every call, with a width x height viewport.
+     */
+    public NoOpGL(int width, int height) {
+        super(null);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Returns a GL2 that ignores every call, with a width x height viewport.
+     */
+    public static GL2 create(int width, int height) {
+        return new NoOpGL(width, height);
+    }
+
+    @Override
+    public boolean isGL2() {
+        return true;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] names, int offset) {
+        for (int i = 0; i < n; i++)
+            names[offset + i] = nextName++;
+    }
+
+    @Override
+    public void glGenBuffers(int n, IntBuffer names) {
+        for (int i = 0; i < n; i++)
+            names.put(names.position() + i, nextName++);
+    }
+
+    @Override
+    public void glGetIntegerv(int name, int[] values, int offset) {
+        if (name != GL2.GL_VIEWPORT)
+            return;
+        values[offset] = 0;
+        values[offset + 1] = 0;
+        values[offset + 2] = width;
+        values[offset + 3] = height;
+    }
+
+    @Override
+    public String toString() {
+        return "NoOpGL";
+    }
+
+    /**
+     * Returns a drawable whose getGL() is gl, until setGL() replaces it, and
+     * whose surface is width x height.
+     */
+    public static GLAutoDrawable drawable(final GL2 gl, final int width, final int height) {
+        InvocationHandler handler = new InvocationHandler() {
+            private GL current = gl;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getGL"))
+                    return current;
+                if (name.equals("setGL")) {
+                    GL previous = current;
+                    current = (GL)args[0];
+                    return previous;
+                }
+                if (name.equals("getSurfaceWidth"))
+                    return width;
+                if (name.equals("getSurfaceHeight"))
+                    return height;
+                if (name.equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                if (name.equals("equals"))
+                    return proxy == args[0];
+                if (name.equals("toString"))
+                    return "NoOpGL drawable";
+                return defaultValue(method.getReturnType());
+            }
+        };
+        return (GLAutoDrawable)Proxy.newProxyInstance(NoOpGL.class.getClassLoader(),
+                new Class<?>[] { GLAutoDrawable.class }, handler);
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0.0;
+        if (type == short.class)
+            return (short)0;
+        if (type == byte.class)
+            return (byte)0;
+        return (char)0;
+    }
+}
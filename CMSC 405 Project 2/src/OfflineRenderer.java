@@ -0,0 +1,212 @@
+/*
+ * File: OfflineRenderer.java
+ * CMSC 405
+ * Description: Renders frames of a GLEventListener without a window, through a
+ *  GLOffscreenAutoDrawable, and writes them out as a numbered PNG sequence.
+ *  Pixels are read back through two pixel buffer objects: each frame's
+ *  glReadPixels goes into one PBO while the previous frame is mapped from the
+ *  other, so the copy overlaps the next frame instead of stalling on it.  The
+ *  PNGs are encoded on a small pool of worker threads.  Only a fixed number
+ *  of frame images exist, so a slow disk holds up rendering instead of
+ *  filling the heap.  Works with Mesa's software GL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import javax.imageio.ImageIO;
+
+import com.jogamp.opengl.*;
+
+public class OfflineRenderer implements GLEventListener {
+
+    private final int width, height;
+    private final int frames;
+    private final File directory;
+    private final int workers;
+
+    private final int[] pbos = new int[2];
+    private int frame;                  // frame being drawn
+    private IntConsumer seek;
+
+    private ExecutorService encoders;
+    private BlockingQueue<BufferedImage> freeImages;
+    private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+    /**
+     * @param frames number of frames to render
+     * @param directory where frame0000.png, frame0001.png, ... are written
+     * @param workers number of PNG encoding threads
+     */
+    public OfflineRenderer(int width, int height, int frames, File directory, int workers) {
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.directory = directory;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Renders every frame with the given listener and waits for the last PNG
+     * to be written, then prints the frame rate and peak heap use.
+     * @param seek called with the frame number before each frame is drawn
+     * @throws IOException if the directory cannot be created, a frame cannot
+     *   be read back or a PNG cannot be written.
+     */
+    public void render(GLEventListener scene, IntConsumer seek) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        this.seek = seek;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+
+        //at most two images per worker are waiting or being encoded
+        freeImages = new ArrayBlockingQueue<BufferedImage>(workers * 2);
+        for (int i = 0; i < workers * 2; i++)
+            freeImages.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        encoders = Executors.newFixedThreadPool(workers);
+
+        GLProfile profile = GLProfile.get(GLProfile.GL2);
+        GLCapabilities caps = new GLCapabilities(profile);
+        caps.setOnscreen(false);
+        caps.setFBO(true);
+        GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+                .createOffscreenAutoDrawable(null, caps, null, width, height);
+        drawable.addGLEventListener(scene);
+        drawable.addGLEventListener(this);   // after the scene, so it reads the finished frame
+
+        seek.accept(0);
+        long start = System.nanoTime();
+        long renderNanos;
+        try {
+            //one extra display() to collect the last frame from its PBO
+            for (frame = 0; frame <= frames && failure.get() == null; frame++)
+                drawable.display();
+            renderNanos = System.nanoTime() - start;
+        }
+        finally {
+            drawable.destroy();
+            encoders.shutdown();
+        }
+        try {
+            encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null)
+            throw failure.get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames of %dx%d in %.2f s: %.1f fps rendered, %.1f fps written%n",
+                frames, width, height, seconds, frames / (renderNanos / 1e9), frames / seconds);
+        System.out.printf("Peak heap %.1f MB%n", peakHeapBytes() / (1024.0 * 1024.0));
+    }
+
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    public void init(GLAutoDrawable drawable) {
+        GL2 gl = drawable.getGL().getGL2();
+        gl.glGenBuffers(2, pbos, 0);
+        for (int pbo : pbos) {
+            gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbo);
+            gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, (long)width * height * 4, null, GL2.GL_STREAM_READ);
+        }
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+    }
+
+    /**
+     * Runs after the scene has drawn the current frame: starts reading it
+     * into one PBO, hands the previous frame from the other PBO to an
+     * encoder and seeks the scene to the next frame.
+     */
+    public void display(GLAutoDrawable drawable) {
+        GL2 gl = drawable.getGL().getGL2();
+        if (frame < frames) {
+            //start the copy of this frame; it completes while the next one is drawn
+            gl.glPixelStorei(GL2.GL_PACK_ALIGNMENT, 4);
+            gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbos[frame % 2]);
+            gl.glReadPixels(0, 0, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_BYTE, 0);
+        }
+        if (frame > 0) {
+            gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbos[(frame - 1) % 2]);
+            ByteBuffer pixels = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+            if (pixels != null) {
+                submit(frame - 1, pixels);
+                gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+            }
+            else {
+                //render() stops and reports the frame instead of leaving a gap
+                failure.compareAndSet(null, new IOException("Frame " + (frame - 1)
+                        + " could not be read back: glMapBuffer failed with GL error " + gl.glGetError()));
+            }
+        }
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+        if (frame + 1 < frames)
+            seek.accept(frame + 1);
+    }
+
+    /**
+     * Copies a mapped frame into a free image, flipping it right side up,
+     * and hands it to an encoder.  Blocks while every image is in use.
+     */
+    private void submit(final int number, ByteBuffer pixels) {
+        final BufferedImage image;
+        try {
+            image = freeImages.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        //BGRA bytes read as little-endian ints are 0xAARRGGBB
+        IntBuffer source = pixels.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int[] target = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            source.position((height - 1 - y) * width);
+            source.get(target, y * width, width);
+        }
+        encoders.execute(new Runnable() {
+            public void run() {
+                try {
+                    ImageIO.write(image, "png", new File(directory, String.format("frame%04d.png", number)));
+                }
+                catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    freeImages.add(image);
+                }
+            }
+        });
+    }
+
+    public void dispose(GLAutoDrawable drawable) {
+        GL2 gl = drawable.getGL().getGL2();
+        gl.glDeleteBuffers(2, pbos, 0);
+    }
+}
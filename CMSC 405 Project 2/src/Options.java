@@ -0,0 +1,196 @@
+/*
+ * File: Options.java
+ * CMSC 405
+ * Description: Command line options for GlorbaksCows.  Every option has a
+ *  default that reproduces the original animation.
+ */
+
+import java.io.File;
+
+public class Options {
+
+    //herd sizes rendered one after another by the --stress option
+    static final int[] STRESS_HERD_SIZES = { 1000, 10000, 100000 };
+
+    /** Extra herd sizes to render and time, one after another, or null. */
+    public int[] herdSizes;
+
+    /** The herd grazes and wanders; false keeps every cow where it was placed. */
+    public boolean wander = true;
+    /** Threads that move and sort the herd, or 0 for the common fork/join pool. */
+    public int herdThreads;
+
+    /** Number of stars in the sky and the seed used to place them. */
+    public int starCount = 400;
+    public long starSeed = 405;
+    /** How much the stars dim when they twinkle, 0 to turn twinkling off. */
+    public float twinkle = 0.5f;
+
+    /** What drives the redraws, and how often.  33 fps is the original 30ms timer. */
+    public RenderLoop.Driver loopDriver = RenderLoop.Driver.SWING;
+    public int targetFps = 33;
+    /** Print frame pacing statistics every few seconds. */
+    public boolean pacing;
+    /** The trackball keeps turning after a drag is released. */
+    public boolean inertia;
+    /** Skip scene objects and cows that are outside the view. */
+    public boolean cull = true;
+    /** Multiplies on-screen sizes when picking a level of detail; above 1 keeps fine meshes longer. */
+    public float lodBias = 1;
+    /** Light per pixel with GLSL when the context can; false forces fixed-function lighting. */
+    public boolean shaders = true;
+    /** The ufo, the planets and every meteor are lights as well. */
+    public boolean glow;
+    /** Scene file (text or binary, see SceneFile) to build the pasture from, or null for pasture.scene. */
+    public File scene;
+    /** Baked mesh file (see MeshFile) mapped instead of tessellating, if it exists; null always tessellates. */
+    public File meshes = new File("meshes.gcm");
+
+    /** If set, render without a window into PNG files in this directory. */
+    public File outputDirectory;
+    /** False if GlorbaksCows should not create its panel and render loop. */
+    public boolean window = true;
+    /** Size of the headless frames, how many to render and how many threads encode them. */
+    public int width = 600, height = 600;
+    public int frames = 400;
+    public int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /** If set, the frame profile is written here on exit (and when C is pressed). */
+    public File profileCsv;
+    /** Count the GL calls of every frame through a GLRecorder. */
+    public boolean glStats;
+    /** Drop GL state changes that change nothing, through a GLStateFilter. */
+    public boolean stateFilter;
+    /** Regions in the ring that per-frame data is streamed through (see StreamBuffer). */
+    public int streamRegions = StreamBuffer.DEFAULT_REGIONS;
+
+    /**
+     * Parses the command line.
+     *  --stress       render herds of 1k, 10k and 100k cows and report frames per second
+     *  --herd N       add N extra cows to the pasture
+     *  --still-herd   the herd's cows stand still instead of grazing and wandering
+     *  --herd-threads N threads that move the herd, the common fork/join pool by default
+     *  --stars N      number of stars in the sky
+     *  --star-seed S  seed for the star positions
+     *  --twinkle A    twinkle amount from 0 to 1
+     *  --loop D       what drives the redraws: swing, animator or thread
+     *  --fps N        target frame rate, 0 for as fast as possible
+     *  --pacing       print frame rate, jitter, late frames and trackball latency every five seconds
+     *  --inertia      let the trackball spin on after a drag, slowing down
+     *  --no-cull      draw every scene object and cow, even off screen
+     *  --lod-bias B   level of detail quality bias, 1 by default; 2 is finer, 0.5 coarser
+     *  --fixed-function light with GL_LIGHT0..7 instead of the per-pixel shader
+     *  --glow         make the ufo, the planets and the meteors light sources
+     *  --scene F      build the pasture from the scene file F instead of pasture.scene
+     *  --meshes F     map the meshes from F, baked by java MeshFile, instead of meshes.gcm
+     *  --headless DIR render without a window to DIR/frame0000.png and so on
+     *  --size WxH     headless frame size, 600x600 by default
+     *  --frames N     number of headless frames, 400 (one loop) by default
+     *  --workers N    threads encoding the headless PNGs
+     *  --profile-csv F write the per-stage frame profile to F on exit
+     *  --gl-stats     print GL calls per frame by kind; R logs a frame to frame.glr
+     *  --state-filter drop GL state changes that change nothing
+     *  --stream-regions N frames of per-frame data in flight, 3 by default
+     * --stress and --herd also uncap the frame rate unless --fps comes after them.
+     * @throws IllegalArgumentException if an option is unknown or its value is missing.
+     */
+    public static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--stress")) {
+                options.herdSizes = STRESS_HERD_SIZES;
+                options.targetFps = 0;
+            }
+            else if (arg.equals("--herd")) {
+                options.herdSizes = new int[] { Integer.parseInt(value(args, ++i, arg)) };
+                options.targetFps = 0;
+            }
+            else if (arg.equals("--still-herd")) {
+                options.wander = false;
+            }
+            else if (arg.equals("--herd-threads")) {
+                options.herdThreads = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--stars")) {
+                options.starCount = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--star-seed")) {
+                options.starSeed = Long.parseLong(value(args, ++i, arg));
+            }
+            else if (arg.equals("--twinkle")) {
+                options.twinkle = Float.parseFloat(value(args, ++i, arg));
+            }
+            else if (arg.equals("--loop")) {
+                options.loopDriver = RenderLoop.Driver.parse(value(args, ++i, arg));
+            }
+            else if (arg.equals("--fps")) {
+                options.targetFps = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--pacing")) {
+                options.pacing = true;
+            }
+            else if (arg.equals("--inertia")) {
+                options.inertia = true;
+            }
+            else if (arg.equals("--no-cull")) {
+                options.cull = false;
+            }
+            else if (arg.equals("--lod-bias")) {
+                options.lodBias = Float.parseFloat(value(args, ++i, arg));
+            }
+            else if (arg.equals("--fixed-function")) {
+                options.shaders = false;
+            }
+            else if (arg.equals("--glow")) {
+                options.glow = true;
+            }
+            else if (arg.equals("--scene")) {
+                options.scene = new File(value(args, ++i, arg));
+            }
+            else if (arg.equals("--meshes")) {
+                options.meshes = new File(value(args, ++i, arg));
+            }
+            else if (arg.equals("--headless")) {
+                options.outputDirectory = new File(value(args, ++i, arg));
+                options.window = false;
+            }
+            else if (arg.equals("--size")) {
+                String size = value(args, ++i, arg);
+                int x = size.indexOf('x');
+                if (x < 0)
+                    throw new IllegalArgumentException("--size needs WIDTHxHEIGHT, not " + size);
+                options.width = Integer.parseInt(size.substring(0, x));
+                options.height = Integer.parseInt(size.substring(x + 1));
+            }
+            else if (arg.equals("--frames")) {
+                options.frames = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--workers")) {
+                options.workers = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--gl-stats")) {
+                options.glStats = true;
+            }
+            else if (arg.equals("--state-filter")) {
+                options.stateFilter = true;
+            }
+            else if (arg.equals("--stream-regions")) {
+                options.streamRegions = Integer.parseInt(value(args, ++i, arg));
+            }
+            else if (arg.equals("--profile-csv")) {
+                options.profileCsv = new File(value(args, ++i, arg));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+}
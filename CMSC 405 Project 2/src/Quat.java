@@ -0,0 +1,103 @@
+/*
+ * File: Quat.java
+ * CMSC 405
+ * Description: A mutable unit quaternion for rotations, with the same
+ *  write-into-this style as Vec3.  (x, y, z) is the vector part and w the
+ *  scalar part; the identity rotation is (0, 0, 0, 1).
+ */
+
+public final class Quat {
+
+    public double x, y, z, w = 1;
+
+    public Quat set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    public Quat set(Quat q) {
+        return set(q.x, q.y, q.z, q.w);
+    }
+
+    public Quat identity() {
+        return set(0, 0, 0, 1);
+    }
+
+    /**
+     * Sets this to a rotation of angle radians about a unit axis.
+     */
+    public Quat setAxisAngle(Vec3 axis, double angle) {
+        double s = Math.sin(angle / 2);
+        return set(axis.x * s, axis.y * s, axis.z * s, Math.cos(angle / 2));
+    }
+
+    /**
+     * Sets this to the shortest rotation that takes unit vector from onto
+     * unit vector to.  Opposite vectors give a half turn about some axis
+     * perpendicular to them.
+     */
+    public Quat setFromTo(Vec3 from, Vec3 to) {
+        double d = from.dot(to);
+        if (d < -0.999999) {
+            //any perpendicular axis will do
+            double ax = 0, ay = -from.z, az = from.y;
+            if (ay * ay + az * az < 1e-12) {
+                ax = from.z;
+                ay = 0;
+                az = -from.x;
+            }
+            double n = Math.sqrt(ax * ax + ay * ay + az * az);
+            return set(ax / n, ay / n, az / n, 0);
+        }
+        double cx = from.y * to.z - from.z * to.y;
+        double cy = from.z * to.x - from.x * to.z;
+        double cz = from.x * to.y - from.y * to.x;
+        set(cx, cy, cz, 1 + d);
+        return normalize();
+    }
+
+    /** this = a * b, the rotation b followed by a; this may be a or b */
+    public Quat multiply(Quat a, Quat b) {
+        return set(a.w * b.x + a.x * b.w + a.y * b.z - a.z * b.y,
+                   a.w * b.y - a.x * b.z + a.y * b.w + a.z * b.x,
+                   a.w * b.z + a.x * b.y - a.y * b.x + a.z * b.w,
+                   a.w * b.w - a.x * b.x - a.y * b.y - a.z * b.z);
+    }
+
+    public Quat normalize() {
+        double n = Math.sqrt(x * x + y * y + z * z + w * w);
+        if (n > 0) {
+            x /= n;
+            y /= n;
+            z /= n;
+            w /= n;
+        }
+        return this;
+    }
+
+    /** The rotation angle in radians, from 0 to 2 pi. */
+    public double angle() {
+        return 2 * Math.acos(Math.max(-1, Math.min(1, w)));
+    }
+
+    /**
+     * Rotates v by this quaternion, writing the result to out (which may be v).
+     */
+    public Vec3 rotate(Vec3 v, Vec3 out) {
+        //t = 2 q x v;  v' = v + w t + q x t
+        double tx = 2 * (y * v.z - z * v.y);
+        double ty = 2 * (z * v.x - x * v.z);
+        double tz = 2 * (x * v.y - y * v.x);
+        return out.set(v.x + w * tx + (y * tz - z * ty),
+                       v.y + w * ty + (z * tx - x * tz),
+                       v.z + w * tz + (x * ty - y * tx));
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + "; " + w + ")";
+    }
+}
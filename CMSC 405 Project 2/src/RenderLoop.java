@@ -0,0 +1,225 @@
+/*
+ * File: RenderLoop.java
+ * CMSC 405
+ * Description: Drives the redraws of a GLAutoDrawable and runs a fixed-timestep
+ *  simulation for it.  The driver is a Swing timer, a JOGL animator or a
+ *  dedicated render thread, at a target frame rate or as fast as possible.
+ *  Whatever the frame rate, the simulation always advances in steps of the
+ *  same length; display() calls advance() and draws the state interpolated
+ *  between the last two steps.  Frame pacing is tracked in a FramePacing.
+ */
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.Timer;
+
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.util.Animator;
+import com.jogamp.opengl.util.AnimatorBase;
+import com.jogamp.opengl.util.FPSAnimator;
+
+public class RenderLoop {
+
+    /**
+     * What calls display().
+     */
+    public enum Driver {
+        /** a javax.swing.Timer that repaints on the event dispatch thread */
+        SWING,
+        /** a JOGL FPSAnimator, or an Animator when uncapped */
+        ANIMATOR,
+        /** our own thread that calls display() and sleeps until the next deadline */
+        THREAD;
+
+        /**
+         * @throws IllegalArgumentException if the name is not a driver.
+         */
+        public static Driver parse(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * The state advanced by the loop.
+     */
+    public interface Simulation {
+        /** Advances the simulation by dt seconds. */
+        void step(double dt);
+    }
+
+    //after a long stall, catch up at most this many steps instead of freezing
+    private static final int MAX_STEPS_PER_FRAME = 8;
+    private static final long REPORT_NANOS = 5000000000L;
+
+    private final GLAutoDrawable drawable;
+    private final Driver driver;
+    private final int targetFps;
+    private final double stepSeconds;
+    private final Simulation simulation;
+    private final FramePacing pacing;
+    private boolean reporting;
+
+    private long lastNanos = -1;
+    private double accumulator;   // simulated time still owed, less than one step after advance()
+
+    private Timer timer;
+    private AnimatorBase animator;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param targetFps frames per second to aim for, or 0 for as fast as possible
+     * @param stepSeconds length of one simulation step
+     */
+    public RenderLoop(GLAutoDrawable drawable, Driver driver, int targetFps,
+                      double stepSeconds, Simulation simulation) {
+        this.drawable = drawable;
+        this.driver = driver;
+        this.targetFps = targetFps;
+        this.stepSeconds = stepSeconds;
+        this.simulation = simulation;
+        pacing = new FramePacing(targetFps);
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    public FramePacing getPacing() {
+        return pacing;
+    }
+
+    /**
+     * If true, the pacing statistics are printed and reset every five seconds.
+     */
+    public void setReporting(boolean reporting) {
+        this.reporting = reporting;
+    }
+
+    /**
+     * Starts calling display().  Swing starts after a short delay, like the
+     * original timer, so the window is up before the first frame.
+     */
+    public void start() {
+        running = true;
+        switch (driver) {
+        case SWING:
+            int delay = targetFps > 0 ? Math.max(1, Math.round(1000f / targetFps)) : 1;
+            timer = new Timer(delay, new ActionListener() {
+                public void actionPerformed(ActionEvent evt) {
+                    redraw();
+                }
+            });
+            timer.setInitialDelay(500);
+            timer.start();
+            break;
+        case ANIMATOR:
+            if (targetFps > 0) {
+                animator = new FPSAnimator(drawable, targetFps, true);
+            }
+            else {
+                //setRunAsFastAsPossible is declared on Animator, not AnimatorBase
+                Animator uncapped = new Animator(drawable);
+                uncapped.setRunAsFastAsPossible(true);
+                animator = uncapped;
+            }
+            animator.start();
+            break;
+        case THREAD:
+            thread = new Thread(this::run, "Render loop");
+            thread.setDaemon(true);
+            thread.start();
+            break;
+        }
+    }
+
+    /**
+     * Stops calling display() and waits for the render thread to finish.
+     */
+    public void stop() {
+        running = false;
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+        if (animator != null) {
+            animator.stop();
+            animator = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    private void redraw() {
+        if (drawable instanceof Component)
+            ((Component)drawable).repaint();
+        else
+            drawable.display();
+    }
+
+    /**
+     * The render thread.  Deadlines are kept on a fixed grid; if a frame
+     * runs more than a period late the grid restarts from now instead of
+     * rushing frames out to catch up.
+     */
+    private void run() {
+        long period = targetFps > 0 ? 1000000000L / targetFps : 0;
+        long deadline = System.nanoTime();
+        while (running) {
+            drawable.display();
+            if (period == 0) {
+                Thread.yield();
+                continue;
+            }
+            deadline += period;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            else if (wait < -period)
+                deadline = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called at the start of display().  Runs as many fixed steps of the
+     * simulation as real time calls for and returns how far the current time
+     * is past the last step, from 0 to 1, for interpolating render state.
+     */
+    public double advance() {
+        long now = System.nanoTime();
+        pacing.frame(now);
+        if (lastNanos < 0)
+            lastNanos = now;
+        accumulator += (now - lastNanos) / 1e9;
+        lastNanos = now;
+        int steps = 0;
+        while (accumulator >= stepSeconds) {
+            if (steps == MAX_STEPS_PER_FRAME) {
+                accumulator = 0;
+                break;
+            }
+            simulation.step(stepSeconds);
+            accumulator -= stepSeconds;
+            steps++;
+        }
+        if (reporting && pacing.getWindowSeconds() * 1e9 >= REPORT_NANOS) {
+            System.out.println(driver.name().toLowerCase() + " loop: " + pacing);
+            pacing.reset();
+        }
+        return accumulator / stepSeconds;
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * File: Renderable.java
+ * CMSC 405
+ * Description: Anything a MeshNode can draw: a Mesh, or a whole subsystem such
+ *  as the herd or the starfield.
+ */
+
+import com.jogamp.opengl.GL2;
+
+public interface Renderable {
+
+    /**
+     * Draws with the current modelview transform.
+     */
+    void draw(GL2 gl);
+}
@@ -0,0 +1,57 @@
+/*
+ * File: RotationTrack.java
+ * CMSC 405
+ * Description: An animation track of angles, in degrees, about a fixed axis.
+ */
+
+import java.util.Arrays;
+
+public class RotationTrack extends Track {
+
+    private final double axisX, axisY, axisZ;
+    private double[] angles = new double[8];
+
+    public RotationTrack(double axisX, double axisY, double axisZ) {
+        this.axisX = axisX;
+        this.axisY = axisY;
+        this.axisZ = axisZ;
+    }
+
+    public double getAxisX() {
+        return axisX;
+    }
+
+    public double getAxisY() {
+        return axisY;
+    }
+
+    public double getAxisZ() {
+        return axisZ;
+    }
+
+    /**
+     * Adds a key and returns this track, so keys can be chained.
+     */
+    public RotationTrack key(double time, double angle, Interpolation mode) {
+        angles[addKey(time, mode)] = angle;
+        return this;
+    }
+
+    protected void grow(int capacity) {
+        angles = Arrays.copyOf(angles, capacity);
+    }
+
+    /**
+     * Returns the angle at time t.  Angles are not wrapped, so a key from 0
+     * to 720 spins twice.
+     */
+    public double evaluate(double t) {
+        int i = keyBefore(t);
+        if (i == count - 1 || t <= times[0])
+            return angles[i];
+        double p1 = angles[i], p2 = angles[i+1];
+        double p0 = smoothBefore(i) ? angles[i-1] : 2*p1 - p2;
+        double p3 = smoothAfter(i) ? angles[i+2] : 2*p2 - p1;
+        return interpolate(modes[i], p0, p1, p2, p3, fraction(i, t));
+    }
+}
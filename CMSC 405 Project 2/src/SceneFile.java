@@ -0,0 +1,650 @@
+/*
+ * File: SceneFile.java
+ * CMSC 405
+ * Description: A list of placed objects read from a scene file.  Each
+ *  object is a kind, such as "cow" or "planet", and up to MAX_VALUES
+ *  numbers whose meaning is up to whoever builds the scene from it.  The
+ *  objects are kept in primitive arrays, a kind number and a start into one
+ *  array of values for each, and read() streams a file into them through a
+ *  fixed buffer, so loading allocates per kind but not per object, and
+ *  reading into the same SceneFile again reuses its arrays.
+ *      A scene file has two encodings.  The text one is for editing: one
+ *  object per line, its kind and then its numbers separated by blanks, with
+ *  '#' starting a comment.  The binary one is for large scenes: the bytes
+ *  "GCS1", the kind names, the object and value counts, one int per object
+ *  (the kind in the low 24 bits, the number of values in the high 8), then
+ *  every value as a float, all little-endian.  read() tells them apart by
+ *  the first four bytes.
+ *
+ *  java SceneFile IN          loads IN and prints how many objects of each kind it has
+ *  java SceneFile IN OUT      converts IN to OUT, as text if OUT ends in .scene
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class SceneFile {
+
+    /** Most values one object can have. */
+    public static final int MAX_VALUES = 255;
+    /** Files whose names end in this are written as text, others as binary. */
+    public static final String TEXT_SUFFIX = ".scene";
+
+    private static final int MAGIC = 0x31534347;   // "GCS1" read little-endian
+    private static final int MAX_KINDS = 1 << 24;
+    private static final int MAX_NAME = 1024;      // bytes in a kind name
+    private static final int CHUNK = 1 << 16;      // bytes read or written at a time
+    // exact powers of ten for parsing numbers
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final List<String> kindNames = new ArrayList<String>();
+    private final List<byte[]> kindBytes = new ArrayList<byte[]>();   // the names in UTF-8, for matching text
+    private int count;
+    private int[] kinds = new int[16];
+    private int[] starts = new int[17];   // starts[count] is the number of values
+    private float[] values = new float[64];
+    private float parsed;   // set by parseNumber()
+
+    /**
+     * Loads a scene file, text or binary.
+     * @throws IOException if the file cannot be read or is not a scene file.
+     */
+    public static SceneFile load(File file) throws IOException {
+        SceneFile scene = new SceneFile();
+        scene.read(file);
+        return scene;
+    }
+
+    /**
+     * Replaces the objects with those in a file.
+     * @throws IOException if the file cannot be read or is not a scene file;
+     *   the message names the file.
+     */
+    public void read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            read(in);
+        }
+        catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the objects with those in a stream, text or binary.  The
+     * stream is read to its end but not closed.
+     * @throws IOException if the stream fails or is not a scene file.
+     */
+    public void read(InputStream stream) throws IOException {
+        clear();
+        Input in = new Input(stream);
+        if (in.startsWith(MAGIC))
+            readBinary(in);
+        else
+            readText(in);
+    }
+
+    /**
+     * Removes every object and kind.
+     */
+    public void clear() {
+        count = 0;
+        starts[0] = 0;
+        kindNames.clear();
+        kindBytes.clear();
+    }
+
+    /**
+     * Appends an object and returns its index.
+     * @throws IllegalArgumentException if the kind name is empty or has
+     *   blanks or '#' in it, or there are more than MAX_VALUES values.
+     */
+    public int add(String kind, float... objectValues) {
+        if (objectValues.length > MAX_VALUES)
+            throw new IllegalArgumentException(kind + " has more than " + MAX_VALUES + " values");
+        int k = kind(kind);
+        int start = starts[count];
+        ensureCapacity(count + 1, start + objectValues.length);
+        System.arraycopy(objectValues, 0, values, start, objectValues.length);
+        kinds[count] = k;
+        starts[count + 1] = start + objectValues.length;
+        return count++;
+    }
+
+    /**
+     * Returns the number of a kind, adding the kind if it is new.
+     * @throws IllegalArgumentException if the name is empty or has blanks
+     *   or '#' in it.
+     */
+    public int kind(String name) {
+        int k = kindNames.indexOf(name);
+        if (k >= 0)
+            return k;
+        if (name.isEmpty() || name.length() > MAX_NAME)
+            throw new IllegalArgumentException("Bad kind name \"" + name + "\"");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c == '#')
+                throw new IllegalArgumentException("Bad kind name \"" + name + "\"");
+        }
+        return addKind(name);
+    }
+
+    /** Number of objects. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Number of different kinds. */
+    public int getKindCount() {
+        return kindNames.size();
+    }
+
+    public String getKindName(int kind) {
+        return kindNames.get(kind);
+    }
+
+    /** The kind number of a name, or -1 if no object has that kind. */
+    public int findKind(String name) {
+        return kindNames.indexOf(name);
+    }
+
+    /** The kind number of an object. */
+    public int getKind(int object) {
+        return kinds[object];
+    }
+
+    public int getValueCount(int object) {
+        return starts[object + 1] - starts[object];
+    }
+
+    public float getValue(int object, int index) {
+        return values[starts[object] + index];
+    }
+
+    /**
+     * Where an object's values begin in getValues().
+     */
+    public int getStart(int object) {
+        return starts[object];
+    }
+
+    /**
+     * Every object's values, one after another; only the first
+     * getStart(getCount()) are used.  Not a copy.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * Writes the objects to a file, as text if its name ends in
+     * TEXT_SUFFIX and as binary otherwise.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (file.getName().endsWith(TEXT_SUFFIX))
+                writeText(out);
+            else
+                writeBinary(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the objects in the binary encoding.  The stream is flushed
+     * but not closed.
+     * @throws IOException if the stream fails.
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        Output out = new Output(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(kindNames.size());
+        for (byte[] name : kindBytes) {
+            out.writeInt(name.length);
+            out.writeBytes(name);
+        }
+        out.writeInt(count);
+        out.writeInt(starts[count]);
+        for (int i = 0; i < count; i++)
+            out.writeInt(kinds[i] | getValueCount(i) << 24);
+        for (int i = 0; i < starts[count]; i++)
+            out.writeFloat(values[i]);
+        out.flush();
+    }
+
+    /**
+     * Writes the objects in the text encoding, one per line.  Numbers are
+     * written as briefly as reads back the same float; the text encoding
+     * has no infinities or NaN.  The stream is
+     * flushed but not closed.
+     * @throws IOException if the stream fails.
+     */
+    public void writeText(OutputStream stream) throws IOException {
+        Writer out = new OutputStreamWriter(new BufferedOutputStream(stream, CHUNK), StandardCharsets.UTF_8);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            line.setLength(0);
+            line.append(kindNames.get(kinds[i]));
+            for (int j = starts[i]; j < starts[i + 1]; j++) {
+                float v = values[j];
+                line.append(' ');
+                if (v == (int)v && (v != 0 || 1 / v > 0))
+                    line.append((int)v);
+                else
+                    line.append(v);
+            }
+            line.append('\n');
+            out.append(line);
+        }
+        out.flush();
+    }
+
+    private void readBinary(Input in) throws IOException {
+        in.readInt();   // the magic number
+        int kindCount = in.readInt();
+        if (kindCount < 0 || kindCount > MAX_KINDS)
+            throw new IOException("Bad kind count " + kindCount);
+        byte[] name = new byte[MAX_NAME];
+        for (int k = 0; k < kindCount; k++) {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_NAME)
+                throw new IOException("Bad kind name length " + length);
+            in.readBytes(name, length);
+            addKind(new String(name, 0, length, StandardCharsets.UTF_8));
+        }
+        int objects = in.readInt();
+        int valueCount = in.readInt();
+        if (objects < 0 || valueCount < 0 || objects == Integer.MAX_VALUE)
+            throw new IOException("Bad object or value count");
+        ensureCapacity(objects, valueCount);
+        in.readInts(kinds, objects);
+        int start = 0;
+        for (int i = 0; i < objects; i++) {
+            int header = kinds[i];
+            kinds[i] = header & (MAX_KINDS - 1);
+            if (kinds[i] >= kindCount)
+                throw new IOException("Object " + i + " has an undefined kind");
+            start += header >>> 24;
+            starts[i + 1] = start;
+        }
+        if (start != valueCount)
+            throw new IOException("The objects have " + start + " values, not " + valueCount);
+        in.readFloats(values, valueCount);
+        count = objects;
+    }
+
+    private void readText(Input in) throws IOException {
+        byte[] b = in.buffer;
+        int line = 1;
+        int lastKind = -1;
+        //each pass parses the whole lines in the buffer, which end in '\n',
+        //so the loops below stop at it without checking for the end
+        while (in.fillLines()) {
+            int p = in.position, end = in.linesEnd;
+            while (p < end) {
+                byte c = b[p];
+                if (c == '\n') {
+                    line++;
+                    p++;
+                    continue;
+                }
+                if (isBlank(c)) {
+                    p++;
+                    continue;
+                }
+                if (c == '#') {
+                    while (b[p] != '\n')
+                        p++;
+                    continue;
+                }
+                //the kind
+                int name = p;
+                while (!isBlank(b[p]) && b[p] != '\n' && b[p] != '#')
+                    p++;
+                if (p - name > MAX_NAME)
+                    throw new IOException("Line " + line + ": kind name too long");
+                if (lastKind < 0 || !matches(kindBytes.get(lastKind), b, name, p - name))
+                    lastKind = findKind(b, name, p - name);
+                //its numbers
+                int start = starts[count];
+                ensureCapacity(count + 1, start + MAX_VALUES);
+                int n = 0;
+                while (true) {
+                    while (isBlank(b[p]))
+                        p++;
+                    if (b[p] == '\n' || b[p] == '#')
+                        break;
+                    if (n == MAX_VALUES)
+                        throw new IOException("Line " + line + ": more than " + MAX_VALUES + " values");
+                    p = parseNumber(b, p);
+                    if (p < 0)
+                        throw new IOException("Line " + line + ": expected a number");
+                    values[start + n++] = parsed;
+                }
+                kinds[count] = lastKind;
+                starts[count + 1] = start + n;
+                count++;
+            }
+            in.position = end;
+        }
+    }
+
+    /**
+     * Parses a decimal number that starts at b[p], such as -12, .5 or
+     * 1.5e-3, into parsed and returns where it ends, or -1 if it is not
+     * one.  Up to 18 digits count; the value is worked out in double and
+     * rounded to float.
+     */
+    private int parseNumber(byte[] b, int p) {
+        boolean negative = b[p] == '-';
+        if (b[p] == '-' || b[p] == '+')
+            p++;
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean point = false, any = false;
+        for (;; p++) {
+            int c = b[p];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < 18) {
+                    if (mantissa != 0 || c != '0')
+                        digits++;
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (point)
+                        exponent--;
+                }
+                else if (!point) {
+                    exponent++;
+                }
+            }
+            else if (c == '.' && !point) {
+                point = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (!any)
+            return -1;
+        if (b[p] == 'e' || b[p] == 'E') {
+            p++;
+            boolean negativeExponent = b[p] == '-';
+            if (b[p] == '-' || b[p] == '+')
+                p++;
+            if (b[p] < '0' || b[p] > '9')
+                return -1;
+            int e = 0;
+            for (; b[p] >= '0' && b[p] <= '9'; p++)
+                e = Math.min(e * 10 + (b[p] - '0'), 100000);
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!isBlank(b[p]) && b[p] != '\n' && b[p] != '#')
+            return -1;
+        double v;
+        if (mantissa == 0)
+            v = 0;
+        else if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+            v = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+            v = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            v = mantissa * Math.pow(10, exponent);
+        parsed = (float)(negative ? -v : v);
+        return p;
+    }
+
+    /**
+     * Returns the kind whose UTF-8 name is b[offset] to b[offset+length-1],
+     * adding it if it is new.
+     */
+    private int findKind(byte[] b, int offset, int length) {
+        for (int k = 0; k < kindBytes.size(); k++) {
+            if (matches(kindBytes.get(k), b, offset, length))
+                return k;
+        }
+        return addKind(new String(b, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private int addKind(String name) {
+        if (kindNames.size() == MAX_KINDS)
+            throw new IllegalStateException("More than " + MAX_KINDS + " kinds");
+        kindNames.add(name);
+        kindBytes.add(name.getBytes(StandardCharsets.UTF_8));
+        return kindNames.size() - 1;
+    }
+
+    private static boolean matches(byte[] kind, byte[] b, int offset, int length) {
+        if (kind.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (kind[i] != b[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isBlank(int c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Grows the arrays, by half again at least, to hold this many objects
+     * and values.
+     */
+    private void ensureCapacity(int objects, int valueCount) {
+        if (objects > kinds.length) {
+            int n = Math.max(objects, kinds.length + kinds.length / 2);
+            kinds = Arrays.copyOf(kinds, n);
+            starts = Arrays.copyOf(starts, n + 1);
+        }
+        if (valueCount > values.length)
+            values = Arrays.copyOf(values, Math.max(valueCount, values.length + values.length / 2));
+    }
+
+    /**
+     * A stream read through one buffer, as whole lines for text or as
+     * little-endian ints and floats for binary.
+     */
+    private static final class Input {
+
+        private final InputStream in;
+        // one spare byte, for a '\n' after a last line that has none
+        final byte[] buffer = new byte[CHUNK + 1];
+        private final ByteBuffer bytes = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        int position, limit;
+        int linesEnd;   // set by fillLines()
+        private boolean ended;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Buffers as many whole lines as fit after those not yet parsed,
+         * and sets linesEnd to just after the last one's '\n'.  False at the
+         * end of the stream.
+         * @throws IOException if a line does not fit in the buffer.
+         */
+        boolean fillLines() throws IOException {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (!ended && limit < CHUNK) {
+                int read = in.read(buffer, limit, CHUNK - limit);
+                if (read < 0)
+                    ended = true;
+                else
+                    limit += read;
+            }
+            for (int i = limit - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    linesEnd = i + 1;
+                    return true;
+                }
+            }
+            if (!ended)
+                throw new IOException("A line is longer than " + CHUNK + " bytes");
+            if (limit == 0)
+                return false;
+            buffer[limit++] = '\n';
+            linesEnd = limit;
+            return true;
+        }
+
+        /**
+         * True if the stream starts with this int.  Reads nothing if not.
+         */
+        boolean startsWith(int magic) throws IOException {
+            return fill(4) && bytes.getInt(position) == magic;
+        }
+
+        /**
+         * Makes sure n bytes are buffered; false if the stream ends first.
+         */
+        private boolean fill(int n) throws IOException {
+            if (limit - position >= n)
+                return true;
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < n) {
+                int read = in.read(buffer, limit, CHUNK - limit);
+                if (read < 0) {
+                    ended = true;
+                    return false;
+                }
+                limit += read;
+            }
+            return true;
+        }
+
+        private void require(int n) throws IOException {
+            if (!fill(n))
+                throw new EOFException("The scene file ends early");
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            int v = bytes.getInt(position);
+            position += 4;
+            return v;
+        }
+
+        void readBytes(byte[] out, int n) throws IOException {
+            require(n);
+            System.arraycopy(buffer, position, out, 0, n);
+            position += n;
+        }
+
+        void readInts(int[] out, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                require(4);
+                int end = Math.min(n, i + (limit - position) / 4);
+                for (; i < end; i++, position += 4)
+                    out[i] = bytes.getInt(position);
+            }
+        }
+
+        void readFloats(float[] out, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                require(4);
+                int end = Math.min(n, i + (limit - position) / 4);
+                for (; i < end; i++, position += 4)
+                    out[i] = bytes.getFloat(position);
+            }
+        }
+    }
+
+    /**
+     * A stream written through one buffer, little-endian.
+     */
+    private static final class Output {
+
+        private final OutputStream out;
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(int v) throws IOException {
+            if (bytes.remaining() < 4)
+                drain();
+            bytes.putInt(v);
+        }
+
+        void writeFloat(float v) throws IOException {
+            if (bytes.remaining() < 4)
+                drain();
+            bytes.putFloat(v);
+        }
+
+        void writeBytes(byte[] b) throws IOException {
+            if (bytes.remaining() < b.length)
+                drain();
+            bytes.put(b);
+        }
+
+        private void drain() throws IOException {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+
+        void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: java SceneFile IN [OUT]");
+            return;
+        }
+        long start = System.nanoTime();
+        SceneFile scene = load(new File(args[0]));
+        long loaded = System.nanoTime();
+        if (args.length == 2) {
+            scene.save(new File(args[1]));
+            System.out.printf("%,d objects written to %s%n", scene.getCount(), args[1]);
+            return;
+        }
+        int[] perKind = new int[scene.getKindCount()];
+        for (int i = 0; i < scene.getCount(); i++)
+            perKind[scene.getKind(i)]++;
+        System.out.printf("%,d objects, %,d values, loaded in %.1f ms%n",
+                scene.getCount(), scene.getStart(scene.getCount()), (loaded - start) / 1e6);
+        for (int k = 0; k < perKind.length; k++)
+            System.out.printf("%12d %s%n", perKind[k], scene.getKindName(k));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * File: SceneNode.java
+ * CMSC 405
+ * Description: Base class of the scene graph.  Every node caches its world matrix
+ *  (column-major, see Matrices).  A node's world matrix is recomputed only when
+ *  the node itself is marked dirty or its parent's world matrix changed, so
+ *  subtrees that do not move cost no matrix work from frame to frame.  Each
+ *  node also keeps a world-space bounding sphere, updated along with the
+ *  matrices, that render() tests against the view frustum so that whole
+ *  subtrees off screen are skipped before any GL calls are made.  A node
+ *  registered with a LightManager binds its own fixed-function lights.
+ */
+
+import com.jogamp.opengl.GL2;
+
+public abstract class SceneNode {
+
+    protected final float[] world = new float[16];
+    protected boolean dirty = true;   // world is out of date
+    private boolean visible = true;
+    private LightManager lights;      // picks this node's fixed-function lights, or null
+    private int lightSlot;
+
+    /** World-space bounding sphere x, y, z, radius; a negative radius means unbounded. */
+    protected final float[] bounds = { 0, 0, 0, -1 };
+    /** Set by update() when bounds changed; cleared by the parent that read it. */
+    protected boolean boundsChanged;
+
+    protected SceneNode() {
+        Matrices.identity(world);
+    }
+
+    /**
+     * Returns the cached world matrix.  Valid after the most recent update().
+     */
+    public float[] getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the world-space bounding sphere (x, y, z, radius) of this
+     * subtree, valid after the most recent update().  A negative radius
+     * means the subtree is never culled.
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Returns the number of MeshNodes in this subtree, as of the most
+     * recent update().
+     */
+    public abstract int getDrawableCount();
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Hidden nodes and their subtrees are skipped by render().
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    /**
+     * Gives this node its own lights, chosen by a LightManager for its
+     * bounds; see LightManager.register.
+     */
+    void setLights(LightManager lights, int slot) {
+        this.lights = lights;
+        lightSlot = slot;
+    }
+
+    /**
+     * Binds this node's lights, if it has any, before it draws.  The
+     * modelview matrix must still hold the view transform.
+     */
+    protected void bindLights(GL2 gl) {
+        if (lights != null)
+            lights.bind(gl, lightSlot);
+    }
+
+    /**
+     * Brings the world matrices of this subtree up to date.
+     * @param parentWorld the parent's world matrix
+     * @param parentChanged true if the parent's world matrix changed since the last update
+     * @return the number of world matrices that were recomputed
+     */
+    public abstract int update(float[] parentWorld, boolean parentChanged);
+
+    /**
+     * Draws this subtree with the world matrices computed by update(),
+     * without culling.  The modelview matrix must hold the view transform.
+     */
+    public void render(GL2 gl) {
+        render(gl, null, 0);
+    }
+
+    /**
+     * Draws the parts of this subtree that are inside the frustum.  The
+     * modelview matrix must hold the view transform.
+     * @param frustum the view frustum, which also counts what is drawn and
+     *   culled, or null to draw everything
+     * @param planes the frustum planes the parent was not wholly inside
+     *   (Frustum.ALL_PLANES at the root, 0 to skip the tests)
+     */
+    public abstract void render(GL2 gl, Frustum frustum, int planes);
+}
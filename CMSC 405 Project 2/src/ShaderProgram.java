@@ -0,0 +1,80 @@
+/*
+ * File: ShaderProgram.java
+ * CMSC 405
+ * Description: Compiles and links a GLSL vertex/fragment shader pair and looks up
+ *  attribute and uniform locations.  Compile and link errors are reported as a
+ *  GLException carrying the driver's info log.
+ */
+
+import com.jogamp.opengl.*;
+
+public class ShaderProgram {
+
+    private int program;
+
+    /**
+     * Compiles both shaders and links them into a program.  Must be called
+     * with a current context.
+     * @throws GLException if either shader fails to compile or the program fails to link.
+     */
+    public ShaderProgram(GL2 gl, String vertexSource, String fragmentSource) {
+        int vertexShader = compile(gl, GL2.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = compile(gl, GL2.GL_FRAGMENT_SHADER, fragmentSource);
+        program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertexShader);
+        gl.glAttachShader(program, fragmentShader);
+        gl.glLinkProgram(program);
+        gl.glDeleteShader(vertexShader);  // only flagged; freed with the program
+        gl.glDeleteShader(fragmentShader);
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            gl.glGetProgramiv(program, GL2.GL_INFO_LOG_LENGTH, status, 0);
+            byte[] log = new byte[Math.max(1, status[0])];
+            gl.glGetProgramInfoLog(program, log.length, status, 0, log, 0);
+            gl.glDeleteProgram(program);
+            program = 0;
+            throw new GLException("Shader program failed to link:\n" + new String(log, 0, status[0]));
+        }
+    }
+
+    private static int compile(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[] { source }, null, 0);
+        gl.glCompileShader(shader);
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            gl.glGetShaderiv(shader, GL2.GL_INFO_LOG_LENGTH, status, 0);
+            byte[] log = new byte[Math.max(1, status[0])];
+            gl.glGetShaderInfoLog(shader, log.length, status, 0, log, 0);
+            gl.glDeleteShader(shader);
+            String kind = type == GL2.GL_VERTEX_SHADER ? "Vertex" : "Fragment";
+            throw new GLException(kind + " shader failed to compile:\n" + new String(log, 0, status[0]));
+        }
+        return shader;
+    }
+
+    public int getId() {
+        return program;
+    }
+
+    public int attribute(GL2 gl, String name) {
+        return gl.glGetAttribLocation(program, name);
+    }
+
+    public int uniform(GL2 gl, String name) {
+        return gl.glGetUniformLocation(program, name);
+    }
+
+    public void use(GL2 gl) {
+        gl.glUseProgram(program);
+    }
+
+    public void dispose(GL2 gl) {
+        if (program != 0) {
+            gl.glDeleteProgram(program);
+            program = 0;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * File: StageEvent.java
+ * CMSC 405
+ * Description: Flight Recorder event for the CPU time of one stage of a frame
+ *  (see FrameProfiler).  The event's duration is the stage's time on the CPU.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cmsc405.FrameStage")
+@Label("Frame Stage")
+@Category("CMSC 405")
+@Description("CPU time spent issuing one stage of a frame")
+class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Frame")
+    long frame;
+}
@@ -0,0 +1,34 @@
+/*
+ * File: StageNode.java
+ * CMSC 405
+ * Description: A group node whose subtree is timed as one stage of the frame by
+ *  a FrameProfiler.
+ */
+
+import com.jogamp.opengl.GL2;
+
+public class StageNode extends GroupNode {
+
+    private final FrameProfiler profiler;
+    private final int stage;
+
+    /**
+     * Creates a node timed as the profiler stage with the given name.
+     */
+    public StageNode(FrameProfiler profiler, String name) {
+        this.profiler = profiler;
+        this.stage = profiler.stage(name);
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    public void render(GL2 gl, Frustum frustum, int planes) {
+        if (!isVisible())
+            return;
+        profiler.begin(gl, stage);
+        super.render(gl, frustum, planes);
+        profiler.end(gl, stage);
+    }
+}
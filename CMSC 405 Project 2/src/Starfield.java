@@ -0,0 +1,175 @@
+/*
+ * File: Starfield.java
+ * CMSC 405
+ * Description: The meteor shower in the sky.  The stars are placed once from
+ *  a seed, along the same diagonal band that drawSky used, and kept in a
+ *  vertex buffer.  They are drawn in one call as round point sprites sized
+ *  like the old 0.3-radius spots.  Twinkling is computed in the shader from a
+ *  per-star phase and the animation time, so the CPU never touches the stars
+ *  again after init.
+ */
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+public class Starfield {
+
+    /** x, y, z, twinkle phase */
+    private static final int FLOATS_PER_STAR = 4;
+    private static final int STRIDE = FLOATS_PER_STAR * Buffers.SIZEOF_FLOAT;
+    private static final float STAR_RADIUS = 0.3f;
+
+    private static final String VERTEX_SHADER =
+        "#version 120\n" +
+        "attribute float phase;\n" +
+        "uniform float time;\n" +
+        "uniform float twinkle;\n" +
+        "uniform float pixelsPerUnit;\n" +   // viewport height / 2 * projection[1][1]
+        "uniform float radius;\n" +
+        "varying float brightness;\n" +
+        "void main() {\n" +
+        "    vec4 eye = gl_ModelViewMatrix * gl_Vertex;\n" +
+        "    gl_Position = gl_ProjectionMatrix * eye;\n" +
+        "    gl_PointSize = max(1.0, 2.0 * radius * pixelsPerUnit / max(-eye.z, 0.1));\n" +
+        "    brightness = 1.0 - twinkle * (0.5 + 0.5 * sin(time * (2.0 + fract(phase * 7.31) * 4.0) + phase));\n" +
+        "}\n";
+
+    private static final String FRAGMENT_SHADER =
+        "#version 120\n" +
+        "varying float brightness;\n" +
+        "void main() {\n" +
+        "    vec2 p = gl_PointCoord * 2.0 - 1.0;\n" +
+        "    if (dot(p, p) > 1.0)\n" +
+        "        discard;\n" +
+        "    gl_FragColor = vec4(brightness, brightness, brightness, 1.0);\n" +
+        "}\n";
+
+    private final int count;
+    private final float[] stars;     // FLOATS_PER_STAR per star
+    private float twinkle;
+
+    private int buffer;
+    private ShaderProgram program;   // null if we are using plain fixed-function points
+    private int phaseAttribute;
+    private int timeUniform, twinkleUniform, pixelsUniform, radiusUniform;
+
+    /**
+     * Creates a starfield with count stars placed from the given seed.  The
+     * same seed always gives the same sky.  With the default 400 stars this
+     * matches the old drawSky: star k sits at (u+r, u+s, u+t) for u running
+     * from -200 to 200 and r, s, t random in [0,20).
+     */
+    public Starfield(long seed, int count) {
+        this.count = count;
+        stars = new float[count * FLOATS_PER_STAR];
+        Random rand = new Random(seed);
+        for (int k = 0; k < count; k++) {
+            float u = -200 + 400f * k / count;
+            stars[k*FLOATS_PER_STAR] = u + rand.nextInt(20);
+            stars[k*FLOATS_PER_STAR + 1] = u + rand.nextInt(20);
+            stars[k*FLOATS_PER_STAR + 2] = u + rand.nextInt(20) - STAR_RADIUS;
+            stars[k*FLOATS_PER_STAR + 3] = rand.nextFloat() * 2 * (float)Math.PI;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the position of star k in out.
+     */
+    public float[] getStar(int k, float[] out) {
+        System.arraycopy(stars, k * FLOATS_PER_STAR, out, 0, 3);
+        return out;
+    }
+
+    /**
+     * Sets how far the stars dim when they twinkle, from 0 (steady) to 1.
+     */
+    public void setTwinkle(float twinkle) {
+        this.twinkle = twinkle;
+    }
+
+    /**
+     * Uploads the stars and builds the twinkle shader.
+     */
+    public void init(GL2 gl) {
+        FloatBuffer data = Buffers.newDirectFloatBuffer(stars);
+        int[] id = new int[1];
+        gl.glGenBuffers(1, id, 0);
+        buffer = id[0];
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, (long)count * STRIDE, data, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        if (gl.hasGLSL()) {
+            try {
+                program = new ShaderProgram(gl, VERTEX_SHADER, FRAGMENT_SHADER);
+                phaseAttribute = program.attribute(gl, "phase");
+                timeUniform = program.uniform(gl, "time");
+                twinkleUniform = program.uniform(gl, "twinkle");
+                pixelsUniform = program.uniform(gl, "pixelsPerUnit");
+                radiusUniform = program.uniform(gl, "radius");
+            }
+            catch (GLException e) {
+                System.err.println("Star shader disabled: " + e.getMessage());
+                program = null;
+            }
+        }
+    }
+
+    /**
+     * Draws every star with the current modelview transform.  The vertex
+     * array must be enabled (see MeshCache.begin).
+     * @param time animation time in seconds, drives the twinkling
+     * @param viewportHeight height of the viewport in pixels
+     * @param projectionScale element [1][1] of the projection matrix
+     */
+    public void draw(GL2 gl, float time, int viewportHeight, float projectionScale) {
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer);
+        gl.glVertexPointer(3, GL2.GL_FLOAT, STRIDE, 0);
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+        if (program != null) {
+            program.use(gl);
+            gl.glUniform1f(timeUniform, time);
+            gl.glUniform1f(twinkleUniform, twinkle);
+            gl.glUniform1f(pixelsUniform, viewportHeight / 2f * projectionScale);
+            gl.glUniform1f(radiusUniform, STAR_RADIUS);
+            gl.glEnableVertexAttribArray(phaseAttribute);
+            gl.glVertexAttribPointer(phaseAttribute, 1, GL2.GL_FLOAT, false, STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+            gl.glEnable(GL3.GL_PROGRAM_POINT_SIZE);
+            gl.glEnable(GL2.GL_POINT_SPRITE);
+            gl.glDrawArrays(GL2.GL_POINTS, 0, count);
+            gl.glDisable(GL2.GL_POINT_SPRITE);
+            gl.glDisable(GL3.GL_PROGRAM_POINT_SIZE);
+            gl.glDisableVertexAttribArray(phaseAttribute);
+            gl.glUseProgram(0);
+        }
+        else {
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glEnable(GL2.GL_POINT_SMOOTH);
+            gl.glPointSize(3);
+            gl.glColor3f(1, 1, 1);
+            gl.glDrawArrays(GL2.GL_POINTS, 0, count);
+            gl.glDisable(GL2.GL_POINT_SMOOTH);
+            gl.glEnable(GL2.GL_LIGHTING);
+        }
+        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+    }
+
+    public void dispose(GL2 gl) {
+        if (program != null) {
+            program.dispose(gl);
+            program = null;
+        }
+        if (buffer != 0) {
+            gl.glDeleteBuffers(1, new int[] { buffer }, 0);
+            buffer = 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * File: StaticBatchNode.java
+ * CMSC 405
+ * Description: A group node for geometry that never moves.  Its subtree is
+ *  used only to lay the geometry out: the meshes of every MeshNode below it
+ *  are transformed into world space once and merged into one vertex buffer,
+ *  sorted by material, and render() draws that buffer with one glDrawElements
+ *  per material instead of walking the subtree.  The batch is rebuilt only
+ *  when a node is added below it or something below it moves.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.jogamp.opengl.GL2;
+
+public class StaticBatchNode extends GroupNode {
+
+    /**
+     * Sets up the GL state of a material before its part of the batch is
+     * drawn.
+     */
+    public interface MaterialBinder {
+        void bind(GL2 gl, int material);
+    }
+
+    /** One mesh of the batch and where it goes. */
+    private static class Entry {
+        final Mesh mesh;
+        final float[] world;
+        final int material;
+
+        Entry(Mesh mesh, float[] world, int material) {
+            this.mesh = mesh;
+            this.world = world;
+            this.material = material;
+        }
+    }
+
+    private MaterialBinder binder;
+    private Mesh batch;
+    private Mesh retired;             // the previous batch, released by the next render()
+    private boolean stale = true;
+    private boolean uploaded;         // batch is in buffer objects
+    private int[] materials = new int[0], rangeStart = new int[0], rangeCount = new int[0];
+    private int builds;
+
+    /**
+     * Sets what is called before each material's part of the batch is
+     * drawn; null (the default) leaves the GL state as it is.
+     */
+    public void setMaterialBinder(MaterialBinder binder) {
+        this.binder = binder;
+    }
+
+    /** The merged mesh, or null before the first update(). */
+    public Mesh getBatch() {
+        return batch;
+    }
+
+    /** Number of materials, and so of draw calls, in the batch. */
+    public int getRangeCount() {
+        return materials.length;
+    }
+
+    /** How many times the batch has been built. */
+    public int getBuildCount() {
+        return builds;
+    }
+
+    public int update(float[] parentWorld, boolean parentChanged) {
+        int updated = super.update(parentWorld, parentChanged);
+        if (boundsChanged)
+            stale = true;             // something below was added or moved
+        if (stale) {
+            build();
+            stale = false;
+        }
+        return updated;
+    }
+
+    /**
+     * Merges every mesh below this node into one world-space mesh, the
+     * entries sorted by material so each material is one index range.
+     */
+    private void build() {
+        List<Entry> entries = new ArrayList<Entry>();
+        collect(this, entries);
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return Integer.compare(a.material, b.material);
+            }
+        });
+        int vertices = 0, indices = 0, ranges = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            vertices += entries.get(i).mesh.getVertexCount();
+            indices += entries.get(i).mesh.getIndexCount();
+            if (i == 0 || entries.get(i).material != entries.get(i - 1).material)
+                ranges++;
+        }
+        materials = new int[ranges];
+        rangeStart = new int[ranges];
+        rangeCount = new int[ranges];
+        Mesh.Builder mb = new Mesh.Builder(vertices, indices);
+        int range = -1, index = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (i == 0 || e.material != entries.get(i - 1).material) {
+                range++;
+                materials[range] = e.material;
+                rangeStart[range] = index;
+            }
+            mb.append(e.mesh, e.world);
+            index += e.mesh.getIndexCount();
+            rangeCount[range] = index - rangeStart[range];
+        }
+        if (batch != null)
+            retired = batch;
+        batch = mb.build();
+        uploaded = false;
+        builds++;
+    }
+
+    private static void collect(SceneNode node, List<Entry> entries) {
+        if (node instanceof MeshNode) {
+            MeshNode meshNode = (MeshNode)node;
+            for (Renderable part : meshNode.getParts()) {
+                if (!(part instanceof Mesh))
+                    throw new IllegalStateException("Only meshes can be batched, not " + part);
+                entries.add(new Entry((Mesh)part, meshNode.getWorld(), meshNode.getMaterial()));
+            }
+        }
+        else if (node instanceof GroupNode) {
+            for (SceneNode child : ((GroupNode)node).getChildren())
+                collect(child, entries);
+        }
+    }
+
+    /**
+     * The whole batch is one object for culling and counting.
+     */
+    public int getDrawableCount() {
+        return 1;
+    }
+
+    public void render(GL2 gl, Frustum frustum, int planes) {
+        if (!isVisible() || batch == null)
+            return;
+        if (frustum != null) {
+            if (frustum.cull(bounds, planes) == Frustum.OUTSIDE) {
+                frustum.countCulled(1);
+                return;
+            }
+            frustum.countVisible();
+        }
+        if (retired != null) {
+            retired.dispose(gl);
+            retired = null;
+        }
+        if (!uploaded) {
+            batch.upload(gl);
+            uploaded = true;
+        }
+        bindLights(gl);
+        //the vertices are already in world space
+        batch.bind(gl);
+        for (int i = 0; i < materials.length; i++) {
+            if (binder != null)
+                binder.bind(gl, materials[i]);
+            batch.drawRange(gl, rangeStart[i], rangeCount[i]);
+        }
+    }
+
+    /**
+     * Releases the batch's buffers; the next render() uploads it again.
+     */
+    public void dispose(GL2 gl) {
+        if (retired != null) {
+            retired.dispose(gl);
+            retired = null;
+        }
+        if (batch != null)
+            batch.dispose(gl);
+        uploaded = false;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * File: StreamBuffer.java
+ * CMSC 405
+ * Description: One buffer for the data that is sent again every frame: the
+ *  lights' uniform block, and the instance matrices of a herd that is
+ *  moving.  Rewriting a buffer that the GPU is still reading from makes the
+ *  driver block until the GPU is done with it, so frames never write where
+ *  the frames before them are still being drawn from.
+ *      With glBufferStorage (OpenGL 4.4, or ARB_buffer_storage on a context
+ *  that reports GL2) the buffer is a ring of regions, three by default,
+ *  mapped once, persistently and coherently.  Each frame copies its data
+ *  straight into the next region and puts a fence after its last draw.
+ *  When the ring comes round to a region, the CPU waits only if that
+ *  region's fence has not signalled yet; getWaits() and getWaitNanos() count
+ *  those waits, to size the ring by.
+ *      A context without buffer storage orphans the buffer instead: the
+ *  first write of a frame calls glBufferData with no data, so the driver
+ *  hands out fresh storage rather than wait, and the data goes in with
+ *  glBufferSubData.
+ *      A frame that writes more than a region holds moves to a buffer twice
+ *  the size.  The old one is deleted when the frame ends, since what was
+ *  already written to it is bound for drawing.
+ */
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jogamp.opengl.*;
+
+public class StreamBuffer {
+
+    /** Regions in the persistent ring by default: one being written, two the GPU may still be reading. */
+    public static final int DEFAULT_REGIONS = 3;
+
+    // a fence that has not signalled in this long is waited for again
+    private static final long WAIT_TIMEOUT_NANOS = 1000000000L;
+
+    private final int regions;
+    private long regionBytes;
+    private boolean persistent;       // mapped ring with fences, or orphaning
+    private int buffer;
+    private ByteBuffer mapping;       // the whole persistent buffer
+    private final long[] fences;
+    private final List<Integer> retired = new ArrayList<Integer>();  // outgrown buffers, deleted at endFrame
+
+    private int region;               // the region this frame writes
+    private long used;                // bytes of it written so far
+    private boolean writing;          // something was written this frame
+
+    private long frames, waits, waitNanos, grows;
+
+    /**
+     * Creates a stream whose ring has the given number of regions, each
+     * of regionBytes to start with.
+     */
+    public StreamBuffer(int regions, long regionBytes) {
+        if (regions < 1 || regionBytes <= 0)
+            throw new IllegalArgumentException("Bad stream of " + regions + " x " + regionBytes + " bytes");
+        this.regions = regions;
+        this.regionBytes = regionBytes;
+        fences = new long[regions];
+    }
+
+    /**
+     * Creates the buffer, persistently mapped if the context can.
+     */
+    public void init(GL2 gl) {
+        //a compatibility context can report GL2 and still have buffer storage
+        //through ARB_buffer_storage, so ask for the functions, not isGL4()
+        persistent = gl instanceof GL4
+                && gl.isFunctionAvailable("glBufferStorage")
+                && gl.isFunctionAvailable("glFenceSync");
+        create(gl);
+    }
+
+    /** True if the ring is persistently mapped, false if it orphans. */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /** The buffer that the offsets from write() are in, until the next write. */
+    public int getBuffer() {
+        return buffer;
+    }
+
+    private void create(GL2 gl) {
+        int[] id = new int[1];
+        gl.glGenBuffers(1, id, 0);
+        buffer = id[0];
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer);
+        if (persistent) {
+            long size = regionBytes * regions;
+            int flags = GL2.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+            gl4(gl).glBufferStorage(GL2.GL_ARRAY_BUFFER, size, null, flags);
+            mapping = gl.glMapBufferRange(GL2.GL_ARRAY_BUFFER, 0, size, flags);
+            if (mapping == null) {
+                //the driver has the call but would not map it; orphan instead
+                System.err.println("Persistent stream buffer disabled: glMapBufferRange failed");
+                gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+                gl.glDeleteBuffers(1, id, 0);
+                persistent = false;
+                create(gl);
+                return;
+            }
+            mapping.order(ByteOrder.nativeOrder());
+        }
+        else {
+            gl.glBufferData(GL2.GL_ARRAY_BUFFER, regionBytes, null, GL2.GL_STREAM_DRAW);
+        }
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        region = 0;
+    }
+
+    /**
+     * Copies data, from its position to its limit, into this frame's part
+     * of the buffer, and leaves the buffer bound to target.  data's
+     * position does not change.
+     * @param alignment the returned offset is a multiple of this many bytes
+     * @return the data's byte offset in getBuffer()
+     * @throws IllegalArgumentException if data is not a ByteBuffer or a FloatBuffer.
+     */
+    public long write(GL2 gl, int target, Buffer data, int alignment) {
+        long bytes;
+        if (data instanceof ByteBuffer)
+            bytes = data.remaining();
+        else if (data instanceof FloatBuffer)
+            bytes = (long)data.remaining() * 4;
+        else
+            throw new IllegalArgumentException("Cannot stream a " + data.getClass().getSimpleName());
+        if (!writing)
+            beginFrame(gl, target);
+        long offset = align(used, alignment);
+        if (offset + bytes > regionBytes) {
+            grow(gl, offset + bytes);
+            offset = 0;
+        }
+        used = offset + bytes;
+        gl.glBindBuffer(target, buffer);
+        if (persistent) {
+            ByteBuffer to = mapping.duplicate().order(ByteOrder.nativeOrder());
+            to.position((int)(region * regionBytes + offset));
+            if (data instanceof ByteBuffer)
+                to.put(((ByteBuffer)data).duplicate());
+            else
+                to.asFloatBuffer().put(((FloatBuffer)data).duplicate());
+        }
+        else {
+            gl.glBufferSubData(target, offset, bytes, data);
+        }
+        return persistent ? region * regionBytes + offset : offset;
+    }
+
+    /**
+     * Starts this frame's writing: waits for the GPU to be done with the
+     * region, or orphans the buffer.
+     */
+    private void beginFrame(GL2 gl, int target) {
+        writing = true;
+        used = 0;
+        if (!persistent) {
+            gl.glBindBuffer(target, buffer);
+            gl.glBufferData(target, regionBytes, null, GL2.GL_STREAM_DRAW);
+            return;
+        }
+        long fence = fences[region];
+        if (fence == 0)
+            return;
+        GL4 gl4 = gl4(gl);
+        int status = gl4.glClientWaitSync(fence, 0, 0);
+        if (status == GL3ES3.GL_TIMEOUT_EXPIRED) {
+            waits++;
+            long start = System.nanoTime();
+            do {
+                status = gl4.glClientWaitSync(fence, GL3ES3.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOS);
+            } while (status == GL3ES3.GL_TIMEOUT_EXPIRED);
+            waitNanos += System.nanoTime() - start;
+        }
+        gl4.glDeleteSync(fence);
+        fences[region] = 0;
+    }
+
+    /**
+     * Moves to a new buffer whose regions hold at least bytes, for the
+     * rest of this frame and the ones after.
+     */
+    private void grow(GL2 gl, long bytes) {
+        grows++;
+        if (persistent) {
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer);
+            gl.glUnmapBuffer(GL2.GL_ARRAY_BUFFER);
+            mapping = null;
+            deleteFences(gl);
+        }
+        retired.add(buffer);
+        while (regionBytes < bytes)
+            regionBytes *= 2;
+        //a new buffer, so there is nothing to wait for or orphan
+        create(gl);
+        used = 0;
+    }
+
+    /**
+     * Ends the frame: fences the region it wrote, after everything that
+     * reads from it has been submitted, and moves on to the next region.
+     */
+    public void endFrame(GL2 gl) {
+        if (writing) {
+            if (persistent) {
+                fences[region] = gl4(gl).glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                region = (region + 1) % regions;
+            }
+            writing = false;
+            frames++;
+        }
+        for (int old : retired)
+            gl.glDeleteBuffers(1, new int[] { old }, 0);
+        retired.clear();
+    }
+
+    /** Frames that wrote to the stream. */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Frames whose region the GPU was still reading, so the CPU waited on its fence. */
+    public long getWaits() {
+        return waits;
+    }
+
+    /** Total time spent waiting on fences, in nanoseconds. */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * How the stream is set up and how often it waited.
+     */
+    public String summary() {
+        if (!persistent) {
+            return String.format("stream orphaned, %d KB, grown %d times, %d frames",
+                    regionBytes / 1024, grows, frames);
+        }
+        return String.format("stream ring %d x %d KB, grown %d times, waited on %d of %d frames (%.2f ms)",
+                regions, regionBytes / 1024, grows, waits, frames, waitNanos / 1e6);
+    }
+
+    private void deleteFences(GL2 gl) {
+        for (int r = 0; r < regions; r++) {
+            if (fences[r] != 0) {
+                gl4(gl).glDeleteSync(fences[r]);
+                fences[r] = 0;
+            }
+        }
+    }
+
+    /**
+     * The storage and fence calls of the persistent ring.  gl is cast, not
+     * asked for getGL4(): that throws on a context whose profile is GL2, and
+     * on a GLRecorder or GLStateFilter it would return the GL they wrap, so
+     * the calls would go around them.
+     */
+    private static GL4 gl4(GL2 gl) {
+        return (GL4)gl;
+    }
+
+    private static long align(long n, int alignment) {
+        return (n + alignment - 1) / alignment * alignment;
+    }
+
+    public void dispose(GL2 gl) {
+        if (buffer == 0)
+            return;
+        if (persistent) {
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffer);
+            gl.glUnmapBuffer(GL2.GL_ARRAY_BUFFER);
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+            mapping = null;
+            deleteFences(gl);
+        }
+        retired.add(buffer);
+        for (int old : retired)
+            gl.glDeleteBuffers(1, new int[] { old }, 0);
+        retired.clear();
+        buffer = 0;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * File: Timeline.java
+ * CMSC 405
+ * Description: Drives scene graph nodes from animation tracks.  Each animated
+ *  TransformNode gets a Channel with optional translation, rotation, scale and
+ *  visibility tracks; evaluating the timeline at a time in seconds rebuilds each
+ *  node's transform as translate * rotate * scale.  A looping timeline wraps
+ *  the time at its duration, so it can be sought to any time.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Timeline {
+
+    private final double duration;
+    private boolean looping = true;
+    private final List<Channel> channels = new ArrayList<Channel>();
+    private final double[] scratch = new double[3];
+
+    /**
+     * Creates a timeline that lasts duration seconds.
+     */
+    public Timeline(double duration) {
+        this.duration = duration;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public boolean isLooping() {
+        return looping;
+    }
+
+    /**
+     * A looping timeline starts over after its duration; otherwise it holds
+     * its last frame.  The default is looping.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * Creates the channel that animates the given node.
+     */
+    public Channel animate(TransformNode node) {
+        Channel channel = new Channel(node);
+        channels.add(channel);
+        return channel;
+    }
+
+    /**
+     * Converts a time since the start of playback to a time within the timeline.
+     */
+    public double localTime(double seconds) {
+        if (looping) {
+            double t = seconds % duration;
+            return t < 0 ? t + duration : t;
+        }
+        return Math.min(seconds, duration);
+    }
+
+    /**
+     * Moves every animated node to where it is at the given time.
+     */
+    public void evaluate(double seconds) {
+        double t = localTime(seconds);
+        for (int i = 0; i < channels.size(); i++)
+            channels.get(i).apply(t, scratch);
+    }
+
+    /**
+     * The tracks that animate one node.  Any of them may be null.
+     */
+    public static class Channel {
+
+        private final TransformNode node;
+        private Vec3Track translation;
+        private RotationTrack rotation;
+        private Vec3Track scale;
+        private VisibilityTrack visibility;
+
+        private Channel(TransformNode node) {
+            this.node = node;
+        }
+
+        public Channel translation(Vec3Track track) {
+            translation = track;
+            return this;
+        }
+
+        public Channel rotation(RotationTrack track) {
+            rotation = track;
+            return this;
+        }
+
+        public Channel scale(Vec3Track track) {
+            scale = track;
+            return this;
+        }
+
+        public Channel visibility(VisibilityTrack track) {
+            visibility = track;
+            return this;
+        }
+
+        private void apply(double t, double[] v) {
+            if (visibility != null) {
+                node.setVisible(visibility.evaluate(t));
+                if (!node.isVisible())
+                    return;
+            }
+            node.identity();
+            if (translation != null) {
+                translation.evaluate(t, v);
+                node.translate(v[0], v[1], v[2]);
+            }
+            if (rotation != null) {
+                node.rotate(rotation.evaluate(t), rotation.getAxisX(), rotation.getAxisY(), rotation.getAxisZ());
+            }
+            if (scale != null) {
+                scale.evaluate(t, v);
+                node.scale(v[0], v[1], v[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * File: Track.java
+ * CMSC 405
+ * Description: Base class for animation tracks.  A track is a list of keyframes
+ *  sorted by time in seconds.  Each key says how to interpolate from itself to
+ *  the next key.  Finding the keys around a time is a binary search, so
+ *  evaluating a track at any time costs O(log k) for k keys.  A SMOOTH segment
+ *  only bends toward neighbouring keys that are SMOOTH themselves, so a STEP
+ *  key (a jump) does not disturb the curve leading up to it.
+ */
+
+import java.util.Arrays;
+
+public abstract class Track {
+
+    /**
+     * How a value changes between a key and the next one.
+     */
+    public enum Interpolation {
+        /** hold the key's value until the next key */
+        STEP,
+        /** straight line to the next key */
+        LINEAR,
+        /** Catmull-Rom spline through the neighbouring keys */
+        SMOOTH
+    }
+
+    protected double[] times = new double[8];
+    protected Interpolation[] modes = new Interpolation[8];
+    protected int count;
+
+    public int getKeyCount() {
+        return count;
+    }
+
+    /**
+     * Returns the time of the last key, or 0 if there are no keys.
+     */
+    public double getEndTime() {
+        return count == 0 ? 0 : times[count-1];
+    }
+
+    /**
+     * Reserves room for a new key at the given time and returns its index.
+     * @throws IllegalArgumentException if the time is before the previous key.
+     */
+    protected int addKey(double time, Interpolation mode) {
+        if (count > 0 && time < times[count-1])
+            throw new IllegalArgumentException("Key at " + time + "s is before the previous key at " + times[count-1] + "s");
+        if (count == times.length) {
+            int capacity = count * 2;
+            times = Arrays.copyOf(times, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+            grow(capacity);
+        }
+        times[count] = time;
+        modes[count] = mode;
+        return count++;
+    }
+
+    /**
+     * Grows the subclass's value arrays to hold capacity keys.
+     */
+    protected abstract void grow(int capacity);
+
+    /**
+     * Returns the index of the last key at or before time t, or 0 if t is
+     * before the first key.
+     */
+    protected int keyBefore(double t) {
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (times[mid] <= t)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns how far t is between key i and key i+1, from 0 to 1.
+     */
+    protected double fraction(int i, double t) {
+        double span = times[i+1] - times[i];
+        if (span <= 0)
+            return 1;
+        return Math.max(0, Math.min(1, (t - times[i]) / span));
+    }
+
+    /**
+     * Returns true if key i-1 exists and runs smoothly into key i, so that
+     * its value can be used as the spline's incoming neighbour.
+     */
+    protected boolean smoothBefore(int i) {
+        return i > 0 && modes[i-1] == Interpolation.SMOOTH;
+    }
+
+    /**
+     * Returns true if key i+2 exists and key i+1 runs smoothly into it.
+     */
+    protected boolean smoothAfter(int i) {
+        return i + 2 < count && modes[i+1] == Interpolation.SMOOTH;
+    }
+
+    /**
+     * Interpolates from p1 to p2 by u, where p0 and p3 are the values at
+     * the keys before p1 and after p2 (used only by SMOOTH).
+     */
+    protected static double interpolate(Interpolation mode, double p0, double p1, double p2, double p3, double u) {
+        switch (mode) {
+        case STEP:
+            return p1;
+        case LINEAR:
+            return p1 + (p2 - p1) * u;
+        default:
+            double u2 = u * u, u3 = u2 * u;
+            return 0.5 * (2*p1 + (p2 - p0)*u + (2*p0 - 5*p1 + 4*p2 - p3)*u2 + (3*p1 - p0 - 3*p2 + p3)*u3);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * File: TransformNode.java
+ * CMSC 405
+ * Description: A group node with a local transform.  The transform methods
+ *  post-multiply like glTranslated/glRotated/glScaled and mark the node dirty,
+ *  so an animated node is rebuilt each frame with identity() followed by the
+ *  same calls that used to go between glPushMatrix and glPopMatrix.
+ */
+
+public class TransformNode extends GroupNode {
+
+    private final float[] local = new float[16];
+
+    public TransformNode() {
+        Matrices.identity(local);
+    }
+
+    public float[] getLocal() {
+        return local;
+    }
+
+    public TransformNode identity() {
+        Matrices.identity(local);
+        dirty = true;
+        return this;
+    }
+
+    public TransformNode translate(double x, double y, double z) {
+        Matrices.translate(local, x, y, z);
+        dirty = true;
+        return this;
+    }
+
+    public TransformNode rotate(double angle, double x, double y, double z) {
+        Matrices.rotate(local, angle, x, y, z);
+        dirty = true;
+        return this;
+    }
+
+    public TransformNode scale(double x, double y, double z) {
+        Matrices.scale(local, x, y, z);
+        dirty = true;
+        return this;
+    }
+
+    public TransformNode scale(double s) {
+        return scale(s, s, s);
+    }
+
+    public int update(float[] parentWorld, boolean parentChanged) {
+        int updated = 0;
+        boolean changed = parentChanged || dirty;
+        if (changed) {
+            Matrices.multiply(parentWorld, local, world);
+            dirty = false;
+            updated++;
+        }
+        return updated + updateChildren(changed);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * File: Vec3.java
+ * CMSC 405
+ * Description: A mutable 3D vector of doubles.  Operations write into this
+ *  vector (or into a caller-supplied one) and return it for chaining, so that
+ *  math in per-frame and per-event code can reuse a few scratch vectors and
+ *  allocate nothing.
+ */
+
+public final class Vec3 {
+
+    public double x, y, z;
+
+    public Vec3() {
+    }
+
+    public Vec3(double x, double y, double z) {
+        set(x, y, z);
+    }
+
+    public Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vec3 set(Vec3 v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    /** this = a - b */
+    public Vec3 sub(Vec3 a, Vec3 b) {
+        return set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    /** this = a + b */
+    public Vec3 add(Vec3 a, Vec3 b) {
+        return set(a.x + b.x, a.y + b.y, a.z + b.z);
+    }
+
+    /** this = this + v * s */
+    public Vec3 addScaled(Vec3 v, double s) {
+        return set(x + v.x * s, y + v.y * s, z + v.z * s);
+    }
+
+    public Vec3 scale(double s) {
+        return set(x * s, y * s, z * s);
+    }
+
+    /** this = a x b; this may be a or b */
+    public Vec3 cross(Vec3 a, Vec3 b) {
+        return set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+    }
+
+    public double dot(Vec3 v) {
+        return x * v.x + y * v.y + z * v.z;
+    }
+
+    public double length() {
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Scales this to unit length and returns its old length.  A zero vector
+     * is left as it is.
+     */
+    public double normalize() {
+        double length = length();
+        if (length > 0) {
+            x /= length;
+            y /= length;
+            z /= length;
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ")";
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * File: Vec3Track.java
+ * CMSC 405
+ * Description: An animation track of 3-component values, used for translations
+ *  and scales.
+ */
+
+import java.util.Arrays;
+
+public class Vec3Track extends Track {
+
+    private float[] values = new float[3 * 8];
+
+    /**
+     * Adds a key and returns this track, so keys can be chained.
+     */
+    public Vec3Track key(double time, double x, double y, double z, Interpolation mode) {
+        int i = addKey(time, mode) * 3;
+        values[i] = (float)x;
+        values[i+1] = (float)y;
+        values[i+2] = (float)z;
+        return this;
+    }
+
+    protected void grow(int capacity) {
+        values = Arrays.copyOf(values, capacity * 3);
+    }
+
+    /**
+     * Stores the value at time t in out[0..2].  Before the first key and
+     * after the last one the value is held.
+     */
+    public void evaluate(double t, double[] out) {
+        int i = keyBefore(t);
+        if (i == count - 1 || t <= times[0]) {
+            out[0] = values[i*3];
+            out[1] = values[i*3+1];
+            out[2] = values[i*3+2];
+            return;
+        }
+        double u = fraction(i, t);
+        boolean before = smoothBefore(i), after = smoothAfter(i);
+        for (int c = 0; c < 3; c++) {
+            double p1 = values[i*3+c], p2 = values[(i+1)*3+c];
+            double p0 = before ? values[(i-1)*3+c] : 2*p1 - p2;
+            double p3 = after ? values[(i+2)*3+c] : 2*p2 - p1;
+            out[c] = interpolate(modes[i], p0, p1, p2, p3, u);
+        }
+    }
+}
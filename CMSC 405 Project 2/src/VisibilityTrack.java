@@ -0,0 +1,29 @@
+/*
+ * File: VisibilityTrack.java
+ * CMSC 405
+ * Description: An animation track that shows and hides a node.  Visibility
+ *  always steps; it is never interpolated.
+ */
+
+import java.util.Arrays;
+
+public class VisibilityTrack extends Track {
+
+    private boolean[] visible = new boolean[8];
+
+    /**
+     * Adds a key and returns this track, so keys can be chained.
+     */
+    public VisibilityTrack key(double time, boolean visible) {
+        this.visible[addKey(time, Interpolation.STEP)] = visible;
+        return this;
+    }
+
+    protected void grow(int capacity) {
+        visible = Arrays.copyOf(visible, capacity);
+    }
+
+    public boolean evaluate(double t) {
+        return visible[keyBefore(t)];
+    }
+}
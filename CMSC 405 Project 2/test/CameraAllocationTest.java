@@ -0,0 +1,145 @@
+/*
+ * File: CameraAllocationTest.java
+ * CMSC 405
+ * Description: Measures the bytes the current thread allocates (from
+ *  com.sun.management.ThreadMXBean) around the camera's per-frame and
+ *  per-drag paths and the Vec3, Mat4 and Quat operations they are built
+ *  on, and fails if any of them allocates once warmed up.  Skipped on a JVM
+ *  that cannot count allocated bytes.
+ */
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+
+public class CameraAllocationTest {
+
+    private static final int WARMUP = 20000, RUNS = 10000, ATTEMPTS = 3;
+    /** Bytes a quiet loop may show in all; one allocation per call would be RUNS * 16. */
+    private static final long NOISE = 64;
+
+    private com.sun.management.ThreadMXBean threads;
+    private Camera camera;
+    private double sink;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        camera = new Camera();
+        camera.lookAt(12,10,35, -3.4,2,3.4, -.2,3,-.2);
+        camera.setScale(28);
+        camera.setViewport(600, 600);
+    }
+
+    /** One operation, returning something so the work is kept. */
+    private interface Operation {
+        double run(int i);
+    }
+
+    /**
+     * Warms op up, then fails if RUNS more calls allocate more than NOISE
+     * bytes in all, so even one object every few hundred calls is caught.
+     * The JIT compiling in the middle of a loop can show a few hundred
+     * bytes, so the quietest of ATTEMPTS loops is the one that counts.
+     */
+    private void assertNoAllocation(String name, Operation op) {
+        for (int i = 0; i < WARMUP; i++)
+            sink += op.run(i);
+        long thread = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < RUNS; i++)
+                sink += op.run(i);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertTrue(name + " allocated " + allocated + " bytes in " + RUNS + " calls", allocated <= NOISE);
+    }
+
+    @Test
+    public void updateMatricesDoesNotAllocate() {
+        assertNoAllocation("Camera.updateMatrices", new Operation() {
+            public double run(int i) {
+                camera.lookAt(12,10,35, -3.4,2,(i & 1), -.2,3,-.2);
+                camera.updateMatrices();
+                return camera.getView().m[12];
+            }
+        });
+    }
+
+    @Test
+    public void applyDoesNotAllocate() {
+        final GL2 gl = NoOpGL.create(600, 600);
+        assertNoAllocation("Camera.apply", new Operation() {
+            public double run(int i) {
+                camera.lookAt(12,10,35, -3.4,2,(i & 1), -.2,3,-.2);
+                camera.apply(gl);
+                return camera.getProjectionScale();
+            }
+        });
+    }
+
+    @Test
+    public void trackballDoesNotAllocate() {
+        final Vec3 from = camera.mousePointToRay(300, 300, 600, 600, new Vec3());
+        final Vec3 to = camera.mousePointToRay(303, 298, 600, 600, new Vec3());
+        final Vec3 ray = new Vec3();
+        final double[] params = new double[9];
+        final double[] limits = new double[6];
+        assertNoAllocation("Camera.applyTransvection", new Operation() {
+            public double run(int i) {
+                camera.applyTransvection(from, to);
+                return camera.getViewParameters(params)[0];
+            }
+        });
+        assertNoAllocation("Camera.mousePointToRay", new Operation() {
+            public double run(int i) {
+                return camera.mousePointToRay(i % 600, 250, 600, 600, ray).z;
+            }
+        });
+        assertNoAllocation("Camera.getLimits", new Operation() {
+            public double run(int i) {
+                return camera.getLimits(limits)[0] + camera.getActualXYLimits(limits)[1];
+            }
+        });
+    }
+
+    @Test
+    public void mathDoesNotAllocate() {
+        final Vec3 a = new Vec3(1, 2, 3), b = new Vec3(-2, 0.5, 1), c = new Vec3(), up = new Vec3(0, 1, 0);
+        final Mat4 view = new Mat4(), projection = new Mat4(), product = new Mat4();
+        final Quat q = new Quat(), r = new Quat();
+        assertNoAllocation("Vec3", new Operation() {
+            public double run(int i) {
+                c.sub(a, b).addScaled(a, i * 1e-4);
+                c.cross(c, b);
+                c.normalize();
+                return c.dot(a) + c.length();
+            }
+        });
+        assertNoAllocation("Mat4", new Operation() {
+            public double run(int i) {
+                view.lookAt(a.set(1, 2, 3 + (i & 1)), b, up);
+                projection.frustum(-1, 1, -1, 1, 1, 100);
+                product.multiply(projection, view);
+                return product.transformPoint(b, c).z;
+            }
+        });
+        assertNoAllocation("Quat", new Operation() {
+            public double run(int i) {
+                q.setFromTo(a, b);
+                r.setAxisAngle(up, i * 1e-3).multiply(r, q).normalize();
+                return r.rotate(a, c).x + r.angle();
+            }
+        });
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * File: GLRecorderTest.java
+ * CMSC 405
+ * Description: Records a frame of GlorbaksCows.display() on a NoOpGL and
+ *  checks it against call budgets, so a regression in what a frame sends to
+ *  the driver fails the build without a GPU.  Also checks that a recorded
+ *  frame replays call for call.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.IntBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.common.nio.PointerBuffer;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+
+public class GLRecorderTest {
+
+    private GLRecorder recorder;
+    private GlorbaksCows scene;
+    private GLAutoDrawable drawable;
+
+    @Before
+    public void setUp() {
+        Options options = new Options();
+        options.window = false;
+        scene = new GlorbaksCows(options);
+        recorder = new GLRecorder();
+        drawable = NoOpGL.drawable(recorder.wrap(NoOpGL.create(600, 600)), 600, 600);
+        scene.init(drawable);
+        scene.reshape(drawable, 0, 0, 600, 600);
+        //the first frame uploads what is kept from frame to frame
+        scene.display(drawable);
+    }
+
+    @After
+    public void tearDown() {
+        scene.dispose(drawable);
+    }
+
+    private void recordFrame() throws IOException {
+        recorder.beginFrame();
+        scene.display(drawable);
+        recorder.endFrame();
+    }
+
+    @Test
+    public void displayIsWithinBudget() throws IOException {
+        recordFrame();
+        assertTrue("nothing was drawn", recorder.getCount(GLRecorder.Category.DRAW) > 0);
+        //the whole scene is a few batched draws, with no immediate mode
+        recorder.setBudget(GLRecorder.Category.DRAW, 16);
+        recorder.setBudget(GLRecorder.Category.BEGIN_END, 0);
+        recorder.setBudget(GLRecorder.Category.VERTEX, 8);
+        recorder.setBudget(GLRecorder.Category.MATRIX, 32);
+        recorder.setBudget(GLRecorder.Category.STATE, 128);
+        recorder.assertWithinBudget();
+    }
+
+    @Test
+    public void overBudgetFails() throws IOException {
+        recordFrame();
+        recorder.setBudget(GLRecorder.Category.DRAW, 0);
+        assertEquals(1, recorder.overBudget().size());
+        try {
+            recorder.assertWithinBudget();
+            fail("a frame with draws kept a budget of none");
+        }
+        catch (AssertionError expected) {
+            // the budget was broken
+        }
+    }
+
+    @Test
+    public void recordedFrameReplays() throws IOException {
+        File log = File.createTempFile("frame", ".glr");
+        try {
+            recorder.recordNextFrame(log);
+            recordFrame();
+            long recorded = 0;
+            for (GLRecorder.Category c : GLRecorder.Category.values())
+                recorded += recorder.getCount(c);
+
+            GLRecorder replayed = new GLRecorder();
+            InputStream in = new FileInputStream(log);
+            try {
+                replayed.beginFrame();
+                assertEquals(recorded, GLCommandLog.replay(in, replayed.wrap(NoOpGL.create(600, 600))));
+                replayed.endFrame();
+            }
+            finally {
+                in.close();
+            }
+            for (GLRecorder.Category c : GLRecorder.Category.values())
+                assertEquals(c.toString(), recorder.getCount(c), replayed.getCount(c));
+        }
+        finally {
+            log.delete();
+        }
+    }
+
+    @Test
+    public void unloggableCallEndsTheRecording() throws IOException {
+        GLRecorder logged = new GLRecorder();
+        GL2 gl = logged.wrap(NoOpGL.create(600, 600));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        logged.startRecording(out);
+        logged.beginFrame();
+        //the log cannot hold a PointerBuffer
+        gl.glMultiDrawElements(GL2.GL_TRIANGLES, IntBuffer.wrap(new int[] { 3 }), GL2.GL_UNSIGNED_INT,
+                PointerBuffer.allocateDirect(1), 1);
+        gl.glFlush();
+        try {
+            logged.endFrame();
+            fail("a call that could not be logged went unreported");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+        //the calls are still counted, but no longer logged
+        assertEquals(1, logged.getCount(GLRecorder.Category.DRAW));
+        int size = out.size();
+        logged.beginFrame();
+        gl.glFlush();
+        logged.endFrame();
+        assertEquals(size, out.size());
+    }
+}
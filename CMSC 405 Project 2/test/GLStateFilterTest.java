@@ -0,0 +1,54 @@
+/*
+ * File: GLStateFilterTest.java
+ * CMSC 405
+ * Description: Sends color calls through a GLStateFilter into a GLRecorder
+ *  on a NoOpGL and counts what gets through.  A repeated glColor3f is
+ *  dropped, but not after another glColor variant has changed the color
+ *  behind the filter's back.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+
+public class GLStateFilterTest {
+
+    private GLRecorder recorder;
+    private GL2 gl;
+
+    @Before
+    public void setUp() throws IOException {
+        recorder = new GLRecorder();
+        gl = new GLStateFilter().wrap(recorder.wrap(NoOpGL.create(600, 600)));
+        recorder.beginFrame();
+    }
+
+    /** Returns the color calls that reached the GL below the filter. */
+    private long colorsSent() throws IOException {
+        recorder.endFrame();
+        return recorder.getCount(GLRecorder.Category.VERTEX);
+    }
+
+    @Test
+    public void repeatedColorIsDropped() throws IOException {
+        gl.glColor3f(1, 0, 0);
+        gl.glColor3f(1, 0, 0);
+        gl.glColor4f(1, 0, 0, 1);
+        assertEquals(1, colorsSent());
+    }
+
+    @Test
+    public void otherColorCallsAreNotShadowed() throws IOException {
+        gl.glColor3f(1, 0, 0);
+        gl.glColor3fv(new float[] { 0, 1, 0 }, 0);
+        gl.glColor3f(1, 0, 0);
+        gl.glColor4ub((byte)0, (byte)0, (byte)255, (byte)255);
+        gl.glColor3f(1, 0, 0);
+        assertEquals(5, colorsSent());
+    }
+}
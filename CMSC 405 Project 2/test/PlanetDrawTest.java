@@ -0,0 +1,64 @@
+/*
+ * File: PlanetDrawTest.java
+ * CMSC 405
+ * Description: Counts the draw submissions of a planet through a GLRecorder
+ *  on a NoOpGL.  A planet's hue sphere is tessellated and colored once, so
+ *  drawing it must cost one draw call at every level of detail, with no
+ *  immediate mode, and a second planet of the same color shares its mesh.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+
+public class PlanetDrawTest {
+
+    private static final float[] IDENTITY = { 1,0,0,0, 0,1,0,0, 0,0,1,0, 0,0,0,1 };
+
+    private MeshCache meshes;
+    private GLRecorder recorder;
+    private GL2 gl;
+
+    @Before
+    public void setUp() {
+        meshes = new MeshCache();
+        recorder = new GLRecorder();
+        gl = recorder.wrap(NoOpGL.create(600, 600));
+    }
+
+    /** Draws one planet's sphere at a level of detail, as one frame. */
+    private void drawFrame(Mesh sphere) throws IOException {
+        MeshNode planet = new MeshNode(sphere);
+        planet.update(IDENTITY, true);
+        recorder.beginFrame();
+        planet.render(gl, null, Frustum.ALL_PLANES);
+        recorder.endFrame();
+    }
+
+    @Test
+    public void eachPlanetIsOneDraw() throws IOException {
+        float[][] colors = { { 1, 0, 0 }, { 0, 0.6f, 1 }, { 1, 1, 0 } };
+        for (float[] c : colors) {
+            Mesh[] levels = meshes.hueSphereLevels(2, 24, 12, c[0], c[1], c[2], 0.25);
+            meshes.upload(gl);
+            for (Mesh sphere : levels) {
+                drawFrame(sphere);
+                assertEquals(1, recorder.getCount(GLRecorder.Category.DRAW));
+                assertEquals(0, recorder.getCount(GLRecorder.Category.BEGIN_END));
+                assertEquals(0, recorder.getCount(GLRecorder.Category.VERTEX));
+            }
+        }
+    }
+
+    @Test
+    public void planetsOfOneColorShareAMesh() {
+        Mesh first = meshes.hueSphere(2, 24, 12, 1, 0, 1, 0.5);
+        assertSame(first, meshes.hueSphere(2, 24, 12, 1, 0, 1, 0.5));
+    }
+}